@@ -3,13 +3,22 @@
  */	
 
 import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
 import java.util.*;
-import java.util.regex.Pattern;
+import java.util.concurrent.*;
+import java.util.function.Supplier;
 
 public abstract class AbstractParser<H extends Enum<H> & ParserHeader> implements Serializable 
 {
+    /** Smallest byte range handed to one worker by {@link #parseRowsParallel} */
+    private static final long MIN_CHUNK_SIZE = 1L << 20;
+
 	protected final Main main;
     protected final Province province;
+    private boolean snapshotCacheEnabled;
+    private int errorBudget;
 
     protected AbstractParser(Main main, Province province) 
     {
@@ -19,6 +28,41 @@ public abstract class AbstractParser<H extends Enum<H> & ParserHeader> implement
     
     protected abstract Class<H> getHeaderEnum();
 
+    /**
+     * Enable the binary snapshot cache (see {@link SnapshotCache}): files are loaded from a valid
+     * snapshot without text parsing, and a snapshot is written after each successful text parse.
+     * @param enabled true to read and write snapshots
+     */
+    public void setSnapshotCacheEnabled(boolean enabled)
+    {
+        snapshotCacheEnabled = enabled;
+    }
+
+    /**
+     * Collect invalid rows instead of stopping at the first one: each row rejected with a
+     * DataValidationException is skipped and recorded, up to the budget. At the end of the file
+     * the invalid rows are summarized in one warning and written to "&lt;file&gt;.errors.tsv"
+     * (see {@link ParseReport#reportInvalidRows}); the load fails only past the budget.
+     * @param budget Number of invalid rows tolerated per file, 0 to stop at the first (default)
+     */
+    public void setErrorBudget(int budget)
+    {
+        if (budget < 0)
+            throw new IllegalArgumentException("Negative error budget: " + budget);
+        errorBudget = budget;
+    }
+
+    /**
+     * Callback receiving each data row streamed by {@link AbstractParser#parseRows}.
+     * The row instance is reused between calls, copy any value that must be kept.
+     * With an error budget, a row rejected with DataValidationException is skipped: the handler
+     * must read and check all values before keeping anything of the row.
+     */
+    public interface RowHandler<H extends Enum<H> & ParserHeader>
+    {
+        void handleRow(ParserRow<H> row);
+    }
+
     /**
      * Read the first line (header) from the given file and return a list of cleaned header names.
      * @param file The file name
@@ -28,20 +72,11 @@ public abstract class AbstractParser<H extends Enum<H> & ParserHeader> implement
      */
     protected List<String> readHeader(File file, char delimiter) throws IOException 
     {
-        try (BufferedReader r = new BufferedReader(new FileReader(file))) 
+        try (DelimitedTokenizer tokenizer = DelimitedTokenizer.open(file, delimiter)) 
         {
-            String rawHeaderLine = r.readLine();
-            if (rawHeaderLine == null) 
+            if (!tokenizer.nextLine()) 
             	return Collections.emptyList();
-            String cleaned = Utils.cleanLine(rawHeaderLine);
-            String[] columns = cleaned.split(Pattern.quote(String.valueOf(delimiter)), -1);
-            List<String> headerNames = new ArrayList<>(columns.length);
-            for (String col : columns) 
-            {
-                String token = Utils.removeQuotes(col == null ? "" : col).trim();
-                headerNames.add(token);
-            }
-            return headerNames;
+            return tokenizer.fieldStrings();
         }
     }
 
@@ -53,42 +88,27 @@ public abstract class AbstractParser<H extends Enum<H> & ParserHeader> implement
      */
     protected boolean headerMatches(H header, String columnName) 
     {
-        if (columnName == null) 
-        	return false;
-        String cleanedColumnName = Utils.removeQuotes(columnName).trim();
-        String base = header.baseName();
-        if (cleanedColumnName.equals(base)) 
-        	return true;
-        if (base != null && base.endsWith("_"))
-            return Pattern.matches("^" + Pattern.quote(base) + "\\d+$", cleanedColumnName);
-        return false;
+        return HeaderResolver.of(getHeaderEnum()).matches(header, columnName);
     }
 
     /**
-     * Verify that all non-optional headers declared in headerEnum appear in headerNames.
+     * Resolve every column of the file header to its header enum constant, once per file.
      * @param headerNames list of column names from the file header (in order)
-     * @param headerEnum  header enum class used by the concrete parser
+     * @return the column to header mapping, including all columns of prefix groups
+     */
+    protected HeaderResolver.Mapping<H> mapHeader(List<String> headerNames)
+    {
+        return HeaderResolver.of(getHeaderEnum()).map(headerNames);
+    }
+
+    /**
+     * Verify that all non-optional headers declared in the header enum appear in the file header.
+     * @param mapping column to header mapping of the file header
      * @throws ColumnNotFoundException when required columns are missing
      */
-    private void checkRequiredHeaders(List<String> headerNames, Class<H> headerEnum) 
+    private void checkRequiredHeaders(HeaderResolver.Mapping<H> mapping) 
     {
-        List<String> missing = new ArrayList<>();
-        for (H h : headerEnum.getEnumConstants()) 
-        {
-            if (h.optional()) 
-            	continue;
-            boolean found = false;
-            for (String col : headerNames) 
-            {
-                if (headerMatches(h, col)) 
-                { 
-                	found = true; 
-                	break; 
-                	}
-            }
-            if (!found) 
-            	missing.add(h.baseName());
-        }
+        List<String> missing = mapping.missingRequired();
         if (!missing.isEmpty()) {
             throw new ColumnNotFoundException("Missing required columns: " + String.join(", ", missing));
         }
@@ -97,28 +117,15 @@ public abstract class AbstractParser<H extends Enum<H> & ParserHeader> implement
     /**
      * Log a warning for any header names present in the file that do not match any enum constant.
      * In other word, log unsued columns.
-     * @param headerNames list of column names from the file header (in order)
-     * @param headerEnum  header enum class used by the concrete parser
+     * The warning is limited with the file's row warnings (key: file name), so every file reports its own columns.
+     * @param file The input file
+     * @param mapping column to header mapping of the file header
      */
-    private void warnUnusedHeaders(List<String> headerNames, Class<H> headerEnum) 
+    private void warnUnusedHeaders(File file, HeaderResolver.Mapping<H> mapping) 
     {
-        List<String> unused = new ArrayList<>();
-        for (String col : headerNames) 
-        {
-            boolean matched = false;
-            for (H h : headerEnum.getEnumConstants()) 
-            {
-                if (headerMatches(h, col)) 
-                { 
-                	matched = true; 
-                	break; 
-            	}
-            }
-            if (!matched && col != null && !col.trim().isEmpty()) 
-            	unused.add(col);
-        }
+        List<String> unused = mapping.unusedColumns();
         if (!unused.isEmpty())
-            Utils.printWarning("Unused columns: " + String.join(", ", unused));
+            Utils.printWarning(file.getName(), () -> "Unused columns in " + file.getName() + ": " + String.join(", ", unused));
     }
     
     /**
@@ -130,10 +137,495 @@ public abstract class AbstractParser<H extends Enum<H> & ParserHeader> implement
      */
     protected void validateHeader(File file, char delimiter) throws IOException 
     {
-    	Class<H> headerEnum = getHeaderEnum();
-        List<String> headerNames = readHeader(file, delimiter);
-        checkRequiredHeaders(headerNames, headerEnum);
-        warnUnusedHeaders(headerNames, headerEnum);
+        HeaderResolver.Mapping<H> mapping = mapHeader(readHeader(file, delimiter));
+        checkRequiredHeaders(mapping);
+        warnUnusedHeaders(file, mapping);
+    }
+
+    /**
+     * Stream all data rows of the file to the handler in a single memory-mapped pass.
+     * The header is read and validated (see {@link #validateHeader}) from the same pass,
+     * and header columns are resolved once (see {@link HeaderResolver}), so the handler gets values by plain index.
+     * Blank lines are skipped. Row warnings are printed once the file is parsed.
+     * With the snapshot cache enabled, rows come from a valid snapshot instead of the text.
+     * @param file The input file
+     * @param delimiter The delimiter character ('\t' for TSV, ',' for CSV)
+     * @param handler Callback receiving each row
+     * @return number of data rows handled
+     * @throws IOException on file read error
+     * @throws FileFormatException if the file is empty
+     * @throws ColumnNotFoundException if required headers are missing
+     * @throws DataValidationException if the handler rejects a row, prefixed with the file line
+     */
+    protected int parseRows(File file, char delimiter, RowHandler<H> handler) throws IOException
+    {
+        if (snapshotCacheEnabled)
+        {
+            try (SnapshotCache.Reader<H> snapshot = SnapshotCache.open(file, delimiter, getHeaderEnum()))
+            {
+                if (snapshot != null)
+                    return parseSnapshotRows(file, snapshot, handler);
+            }
+        }
+        long sourceLength = file.length();
+        long sourceModified = file.lastModified();
+        try (DelimitedTokenizer tokenizer = DelimitedTokenizer.open(file, delimiter))
+        {
+            HeaderResolver.Mapping<H> mapping = readValidatedHeader(tokenizer, file);
+            ParseReport report = newReport(file);
+            SnapshotCache.Recorder<H> recorder = snapshotCacheEnabled ? new SnapshotCache.Recorder<>(mapping) : null;
+            streamRows(tokenizer, mapping, handler, report, recorder);
+            finishReport(file, report);
+            if (recorder != null)
+                writeSnapshot(file, sourceLength, sourceModified, delimiter, mapping, Collections.singletonList(recorder));
+            return report.rowCount();
+        }
+    }
+
+    /**
+     * Stream the rows of a valid snapshot to the handler, with the same header validation and reporting as text files.
+     */
+    private int parseSnapshotRows(File file, SnapshotCache.Reader<H> snapshot, RowHandler<H> handler)
+    {
+        HeaderResolver.Mapping<H> mapping = mapHeader(snapshot.headerNames());
+        checkRequiredHeaders(mapping);
+        warnUnusedHeaders(file, mapping);
+        ParseReport report = newReport(file);
+        SnapshotCache.SnapshotRow<H> row = snapshot.row(mapping);
+        row.setReport(report);
+        for (int i = 0; i < snapshot.rowCount(); i++)
+        {
+            row.setRow(i);
+            try
+            {
+                handler.handleRow(row);
+            }
+            catch (DataValidationException e)
+            {
+                if (report.rowError(row.lineNumber(), e))
+                    continue;
+                break;
+            }
+            report.addRow();
+        }
+        finishReport(file, report);
+        Utils.printDebug("Loaded %s from snapshot", file.getName());
+        return report.rowCount();
+    }
+
+    /**
+     * Write the snapshot of a successfully parsed file from the rows recorded during the parse.
+     * A failure only costs the cache, it is reported as a warning.
+     */
+    private void writeSnapshot(File file, long sourceLength, long sourceModified, char delimiter,
+                               HeaderResolver.Mapping<H> mapping, List<SnapshotCache.Recorder<H>> recorders)
+    {
+        try
+        {
+            SnapshotCache.write(file, sourceLength, sourceModified, delimiter, getHeaderEnum(), mapping, recorders);
+        }
+        catch (IOException e)
+        {
+            Utils.printWarning("Could not write snapshot of " + file.getName() + ": " + e.getMessage());
+        }
+    }
+
+    /**
+     * Parse the data rows of the file in parallel. The file is split into line-aligned byte ranges,
+     * each range is streamed on a fork-join worker to its own handler, and the handlers are
+     * returned in file order for the caller to merge.
+     * Warnings and the first data error are aggregated in file order with their real line numbers,
+     * so the outcome is the same as with {@link #parseRows}. Handlers must not print or touch the model.
+     * With the snapshot cache enabled and a valid snapshot, a single handler streams the snapshot.
+     * @param file The input file
+     * @param delimiter The delimiter character ('\t' for TSV, ',' for CSV)
+     * @param handlerFactory Creates one handler per byte range
+     * @return the handlers, in file order
+     * @throws IOException on file read error
+     * @throws FileFormatException if the file is empty
+     * @throws ColumnNotFoundException if required headers are missing
+     * @throws DataValidationException if a handler rejects a row, prefixed with the file line
+     */
+    protected <R extends RowHandler<H>> List<R> parseRowsParallel(File file, char delimiter, Supplier<R> handlerFactory) throws IOException
+    {
+        if (snapshotCacheEnabled)
+        {
+            try (SnapshotCache.Reader<H> snapshot = SnapshotCache.open(file, delimiter, getHeaderEnum()))
+            {
+                if (snapshot != null)
+                {
+                    R handler = handlerFactory.get();
+                    parseSnapshotRows(file, snapshot, handler);
+                    return Collections.singletonList(handler);
+                }
+            }
+        }
+        long sourceLength = file.length();
+        long sourceModified = file.lastModified();
+        HeaderResolver.Mapping<H> mapping;
+        List<R> handlers;
+        List<SnapshotCache.Recorder<H>> recorders = snapshotCacheEnabled ? new ArrayList<>() : null;
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ))
+        {
+            long size = channel.size();
+            DelimitedTokenizer headerTokenizer = new DelimitedTokenizer(channel, 0, size, delimiter, 1);
+            headerTokenizer.skipLeadingNonPrintable();
+            mapping = readValidatedHeader(headerTokenizer, file);
+            handlers = new ArrayList<>();
+            parseRange(channel, file, delimiter, mapping, headerTokenizer.position(), size, 1, handlerFactory, handlers, recorders);
+        }
+        if (recorders != null)
+            writeSnapshot(file, sourceLength, sourceModified, delimiter, mapping, recorders);
+        return handlers;
+    }
+
+    /**
+     * Parse the byte range [start, end) of the file in parallel, see {@link #parseRowsParallel}.
+     * @param lineOffset Number of lines before start
+     * @param handlers Receives the handlers, in file order
+     * @param recorders Receives the row recorders of the snapshot, in file order, or null
+     * @return number of lines up to end
+     */
+    private <R extends RowHandler<H>> int parseRange(FileChannel channel, File file, char delimiter, HeaderResolver.Mapping<H> mapping,
+                                                     long start, long end, int lineOffset, Supplier<R> handlerFactory, List<R> handlers,
+                                                     List<SnapshotCache.Recorder<H>> recorders) throws IOException
+    {
+        long[] bounds = chunkBounds(channel, start, end);
+        int chunkCount = bounds.length - 1;
+        List<ParseReport> reports = new ArrayList<>(chunkCount);
+        List<DelimitedTokenizer> tokenizers = new ArrayList<>(chunkCount);
+        List<Callable<Void>> tasks = new ArrayList<>(chunkCount);
+        for (int i = 0; i < chunkCount; i++)
+        {
+            R handler = handlerFactory.get();
+            ParseReport report = newReport(file);
+            DelimitedTokenizer tokenizer = new DelimitedTokenizer(channel, bounds[i], bounds[i + 1], delimiter, 1);
+            SnapshotCache.Recorder<H> recorder = recorders != null ? new SnapshotCache.Recorder<>(mapping) : null;
+            handlers.add(handler);
+            reports.add(report);
+            tokenizers.add(tokenizer);
+            if (recorder != null)
+                recorders.add(recorder);
+            tasks.add(Utils.inContext(() -> 
+            {
+                streamRows(tokenizer, mapping, handler, report, recorder);
+                return null;
+            }));
+        }
+        for (Future<Void> future : ForkJoinPool.commonPool().invokeAll(tasks))
+            getChunkResult(future);
+
+        ParseReport report = newReport(file);
+        for (int i = 0; i < chunkCount; i++)
+        {
+            report.append(reports.get(i), lineOffset);
+            if (recorders != null)
+                recorders.get(i).setLineOffset(lineOffset);
+            lineOffset += tokenizers.get(i).lineNumber();
+        }
+        finishReport(file, report);
+        return lineOffset;
+    }
+
+    /**
+     * Outcome of {@link #parseRowsIncremental}.
+     */
+    public static final class TailParse<R>
+    {
+        /** Handlers of the parsed rows, in file order */
+        public final List<R> handlers;
+        /** True if only the rows after the previous checkpoint were parsed */
+        public final boolean appended;
+        /** Checkpoint of the file as parsed now, null if it does not end with a complete line */
+        public final TailCheckpoint checkpoint;
+
+        TailParse(List<R> handlers, boolean appended, TailCheckpoint checkpoint)
+        {
+            this.handlers = handlers;
+            this.appended = appended;
+            this.checkpoint = checkpoint;
+        }
+    }
+
+    /**
+     * Parse an append-only file from where the previous load stopped. If the file is the one of the
+     * previous checkpoint with lines appended (see {@link TailCheckpoint#isPrefixOf}), only the appended
+     * lines are parsed, with their real line numbers, and the caller merges them into the data it kept
+     * from that load. Otherwise the whole file is parsed as with {@link #parseRowsParallel}.
+     * The snapshot cache is not used: the checkpoint plays its role for growing files.
+     * @param file The input file
+     * @param delimiter The delimiter character ('\t' for TSV, ',' for CSV)
+     * @param previous The checkpoint of the previous load, or null
+     * @param handlerFactory Creates one handler per byte range
+     * @return the handlers and the checkpoint to keep for the next load
+     * @throws IOException on file read error
+     * @throws FileFormatException if the file is empty
+     * @throws ColumnNotFoundException if required headers are missing
+     * @throws DataValidationException if a handler rejects a row, prefixed with the file line
+     */
+    protected <R extends RowHandler<H>> TailParse<R> parseRowsIncremental(File file, char delimiter, TailCheckpoint previous, Supplier<R> handlerFactory) throws IOException
+    {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ))
+        {
+            long size = channel.size();
+            DelimitedTokenizer headerTokenizer = new DelimitedTokenizer(channel, 0, size, delimiter, 1);
+            headerTokenizer.skipLeadingNonPrintable();
+            HeaderResolver.Mapping<H> mapping = readValidatedHeader(headerTokenizer, file);
+            long headerEnd = headerTokenizer.position();
+            long configuration = SnapshotCache.fingerprint(getHeaderEnum()) * 31 + delimiter;
+            boolean appended = previous != null && previous.isPrefixOf(channel, headerEnd, configuration);
+            List<R> handlers = new ArrayList<>();
+            int lineCount = appended
+                ? parseRange(channel, file, delimiter, mapping, previous.offset, size, previous.lineCount, handlerFactory, handlers, null)
+                : parseRange(channel, file, delimiter, mapping, headerEnd, size, 1, handlerFactory, handlers, null);
+            return new TailParse<>(handlers, appended, TailCheckpoint.capture(channel, appended ? previous : null, headerEnd, size, lineCount, configuration));
+        }
+    }
+
+    private static void getChunkResult(Future<Void> future) throws IOException
+    {
+        try
+        {
+            future.get();
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while parsing");
+        }
+        catch (ExecutionException e)
+        {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException)
+                throw (IOException) cause;
+            if (cause instanceof RuntimeException)
+                throw (RuntimeException) cause;
+            throw new IOException(cause);
+        }
+    }
+
+    private static File errorFile(File file)
+    {
+        return new File(file.getPath() + ".errors.tsv");
+    }
+
+    private ParseReport newReport(File file)
+    {
+        return new ParseReport(file.getName(), errorBudget);
+    }
+
+    /**
+     * Print the warnings and invalid rows of a parsed file.
+     * @throws DataValidationException if a data error stopped the parse
+     */
+    private void finishReport(File file, ParseReport report)
+    {
+        report.printWarnings();
+        if (errorBudget > 0)
+            report.reportInvalidRows(errorFile(file));
+        report.throwIfFailed();
+    }
+
+    /**
+     * Read the header line of the tokenizer, validate it and resolve the columns.
+     * @return the column to header mapping of the file
+     */
+    private HeaderResolver.Mapping<H> readValidatedHeader(DelimitedTokenizer tokenizer, File file) throws IOException
+    {
+        if (!tokenizer.nextLine())
+            throw new FileFormatException("Empty file: " + file.getName());
+        HeaderResolver.Mapping<H> mapping = mapHeader(tokenizer.fieldStrings());
+        checkRequiredHeaders(mapping);
+        warnUnusedHeaders(file, mapping);
+        return mapping;
+    }
+
+    /**
+     * Stream the remaining lines of the tokenizer to the handler, stopping at the first data error.
+     * Each row is also recorded for the snapshot when a recorder is given.
+     */
+    private void streamRows(DelimitedTokenizer tokenizer, HeaderResolver.Mapping<H> mapping, RowHandler<H> handler, ParseReport report,
+                            SnapshotCache.Recorder<H> recorder) throws IOException
+    {
+        ParserRow<H> row = new ParserRow.Tokenized<>(mapping, tokenizer);
+        row.setReport(report);
+        while (tokenizer.nextLine())
+        {
+            if (tokenizer.isBlankLine())
+                continue;
+            if (recorder != null)
+                recorder.record(row);
+            try
+            {
+                handler.handleRow(row);
+            }
+            catch (DataValidationException e)
+            {
+                if (report.rowError(tokenizer.lineNumber(), e))
+                    continue;
+                return;
+            }
+            report.addRow();
+        }
+    }
+
+    /**
+     * Open a forward-only cursor over the data rows of the file, for readers that must not hold
+     * the whole file in memory. The header is validated as in {@link #parseRows}.
+     * @param file The input file
+     * @param delimiter The delimiter character ('\t' for TSV, ',' for CSV)
+     * @return the cursor, positioned before the first data row
+     * @throws IOException on file read error
+     * @throws FileFormatException if the file is empty
+     * @throws ColumnNotFoundException if required headers are missing
+     */
+    protected RowCursor<H> openRowCursor(File file, char delimiter) throws IOException
+    {
+        DelimitedTokenizer tokenizer = DelimitedTokenizer.open(file, delimiter);
+        try
+        {
+            return new RowCursor<>(tokenizer, readValidatedHeader(tokenizer, file), newReport(file),
+                errorBudget > 0 ? errorFile(file) : null);
+        }
+        catch (IOException | RuntimeException e)
+        {
+            tokenizer.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Forward-only cursor over the data rows of a file, see {@link #openRowCursor}.
+     * Warnings are printed as soon as their row is handled. Invalid rows skipped within the error
+     * budget are reported at the end of the file, or when the cursor is closed before it.
+     */
+    public static final class RowCursor<H extends Enum<H> & ParserHeader> implements Closeable
+    {
+        private final DelimitedTokenizer tokenizer;
+        private final ParserRow<H> row;
+        private final ParseReport report;
+        private final File errorFile;
+        private boolean finished;
+
+        private RowCursor(DelimitedTokenizer tokenizer, HeaderResolver.Mapping<H> mapping, ParseReport report, File errorFile)
+        {
+            this.tokenizer = tokenizer;
+            this.report = report;
+            this.errorFile = errorFile;
+            row = new ParserRow.Tokenized<>(mapping, tokenizer);
+            row.setReport(report);
+        }
+
+        /**
+         * Hand the next non-blank data row to the handler.
+         * @param handler The row handler
+         * @return false at the end of the file
+         * @throws IOException on file read error
+         * @throws DataValidationException if the handler rejects the row, prefixed with the file line
+         */
+        public boolean next(RowHandler<H> handler) throws IOException
+        {
+            while (tokenizer.nextLine())
+            {
+                if (tokenizer.isBlankLine())
+                    continue;
+                try
+                {
+                    handler.handleRow(row);
+                }
+                catch (DataValidationException e)
+                {
+                    if (report.rowError(tokenizer.lineNumber(), e))
+                        continue;
+                    finish();
+                    report.throwIfFailed();
+                }
+                report.addRow();
+                report.flushWarnings();
+                return true;
+            }
+            finish();
+            return false;
+        }
+
+        /**
+         * Print the pending warnings and report the invalid rows, once.
+         */
+        private void finish()
+        {
+            if (finished)
+                return;
+            finished = true;
+            report.flushWarnings();
+            if (errorFile != null)
+                report.reportInvalidRows(errorFile);
+        }
+
+        /**
+         * @return number of data rows handled so far
+         */
+        public int rowCount()
+        {
+            return report.rowCount();
+        }
+
+        @Override
+        public void close() throws IOException
+        {
+            try
+            {
+                finish();
+            }
+            finally
+            {
+                tokenizer.close();
+            }
+        }
+    }
+
+    /**
+     * Split [dataStart, size) into line-aligned byte ranges, a few per available core.
+     * @return range boundaries, range i is [bounds[i], bounds[i + 1])
+     */
+    private static long[] chunkBounds(FileChannel channel, long dataStart, long size) throws IOException
+    {
+        int parallelism = Runtime.getRuntime().availableProcessors() * 4;
+        long chunkSize = Math.max(MIN_CHUNK_SIZE, (size - dataStart) / parallelism + 1);
+        List<Long> bounds = new ArrayList<>();
+        bounds.add(dataStart);
+        long position = dataStart;
+        ByteBuffer buffer = ByteBuffer.allocate(8192);
+        while (position + chunkSize < size)
+        {
+            position = nextLineStart(channel, position + chunkSize, size, buffer);
+            if (position >= size)
+                break;
+            bounds.add(position);
+        }
+        bounds.add(size);
+        long[] result = new long[bounds.size()];
+        for (int i = 0; i < result.length; i++)
+            result[i] = bounds.get(i);
+        return result;
+    }
+
+    private static long nextLineStart(FileChannel channel, long from, long size, ByteBuffer buffer) throws IOException
+    {
+        long position = from;
+        while (position < size)
+        {
+            buffer.clear();
+            int read = channel.read(buffer, position);
+            if (read <= 0)
+                break;
+            for (int i = 0; i < read; i++)
+            {
+                if (buffer.get(i) == '\n')
+                    return position + i + 1;
+            }
+            position += read;
+        }
+        return size;
     }
     
 	@Override
@@ -145,6 +637,6 @@ public abstract class AbstractParser<H extends Enum<H> & ParserHeader> implement
 	 * This number is here for model snapshot storing purpose<br>
 	 * It needs to be changed when this class gets changed
 	 */ 
-	private static final long serialVersionUID = 1L;
+	private static final long serialVersionUID = 2L;
 
 }
\ No newline at end of file
@@ -0,0 +1,146 @@
+/**
+ * AliasTable
+ *
+ * Empirical discrete distribution sampled in constant time with Vose's alias method: one uniform
+ * draw picks a column and decides between the column value and its alias. Built once from the
+ * observed values, sampling allocates nothing.
+ */
+public final class AliasTable implements Serializable
+{
+    private final double[] values;
+    private final double[] aliasValues;
+    /** Probability of keeping the column value rather than its alias */
+    private final double[] keep;
+    private final double mean;
+
+    /**
+     * @param observations Observed values, repeated values weigh more (not empty)
+     */
+    public AliasTable(double[] observations)
+    {
+        if (observations.length == 0)
+            throw new IllegalArgumentException("No observation");
+        double[] sorted = observations.clone();
+        Arrays.sort(sorted);
+        int distinct = 0;
+        double[] weights = new double[sorted.length];
+        for (int i = 0; i < sorted.length; i++)
+        {
+            if (i == 0 || sorted[i] != sorted[distinct - 1])
+                sorted[distinct++] = sorted[i];
+            weights[distinct - 1]++;
+        }
+        int n = distinct;
+        double sum = 0;
+        for (double observation : observations)
+            sum += observation;
+        mean = sum / observations.length;
+        values = Arrays.copyOf(sorted, n);
+        aliasValues = new double[n];
+        keep = new double[n];
+        double[] scaled = new double[n];
+        int[] small = new int[n], large = new int[n];
+        int smallCount = 0, largeCount = 0;
+        for (int i = 0; i < n; i++)
+        {
+            scaled[i] = weights[i] * n / observations.length;
+            if (scaled[i] < 1)
+                small[smallCount++] = i;
+            else
+                large[largeCount++] = i;
+        }
+        while (smallCount > 0 && largeCount > 0)
+        {
+            int s = small[--smallCount], l = large[--largeCount];
+            keep[s] = scaled[s];
+            aliasValues[s] = values[l];
+            scaled[l] += scaled[s] - 1;
+            if (scaled[l] < 1)
+                small[smallCount++] = l;
+            else
+                large[largeCount++] = l;
+        }
+        while (largeCount > 0)
+            keep[large[--largeCount]] = 1;
+        while (smallCount > 0)
+            keep[small[--smallCount]] = 1;
+    }
+
+    private AliasTable(double[] values, double[] aliasValues, double[] keep, double mean)
+    {
+        this.values = values;
+        this.aliasValues = aliasValues;
+        this.keep = keep;
+        this.mean = mean;
+    }
+
+    /**
+     * @param random The random number generator of the model
+     * @return one of the observed values, with its observed frequency
+     */
+    public double sample(Random random)
+    {
+        double u = random.nextDouble() * values.length;
+        int column = (int) u;
+        return u - column < keep[column] ? values[column] : aliasValues[column];
+    }
+
+    /**
+     * @return the mean of the observed values
+     */
+    public double mean()
+    {
+        return mean;
+    }
+
+    /**
+     * @return number of distinct values
+     */
+    public int size()
+    {
+        return values.length;
+    }
+
+    /**
+     * Write the table to a checkpoint.
+     */
+    public void writeTo(ModelCheckpoint.Output out) throws IOException
+    {
+        out.writeInt(values.length);
+        for (int i = 0; i < values.length; i++)
+        {
+            out.writeDouble(values[i]);
+            out.writeDouble(aliasValues[i]);
+            out.writeDouble(keep[i]);
+        }
+        out.writeDouble(mean);
+    }
+
+    /**
+     * Read a table written by {@link #writeTo}.
+     */
+    public static AliasTable readFrom(ModelCheckpoint.Input in) throws IOException
+    {
+        int n = in.readInt();
+        double[] values = new double[n], aliasValues = new double[n], keep = new double[n];
+        for (int i = 0; i < n; i++)
+        {
+            values[i] = in.readDouble();
+            aliasValues[i] = in.readDouble();
+            keep[i] = in.readDouble();
+        }
+        return new AliasTable(values, aliasValues, keep, in.readDouble());
+    }
+
+	@Override
+	public String toString() {
+		return "AliasTable[" + values.length + " values]";
+	}
+
+	/**
+	 * This number is here for model snapshot storing purpose<br>
+	 * It needs to be changed when this class gets changed
+	 */
+	private static final long serialVersionUID = 2L;
+
+}
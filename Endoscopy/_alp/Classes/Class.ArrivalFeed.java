@@ -0,0 +1,204 @@
+/**
+ * ArrivalFeed
+ *
+ * Streams the patient file into the Main arrival source (arrivalType MANUAL) without loading
+ * the whole file. Patients are read in windows of lookAheadMillis of scheduled datetime, each
+ * window held as a small sorted {@link PatientStore}; a window is read only when the previous
+ * one has been released, so memory stays flat whatever the simulated horizon. When lookAheadMillis
+ * is a whole number of days, windows start at local midnight and hold whole days, so
+ * {@link #window()} gives the {@link DailyBlockScheduler} every patient of the day. All windows share
+ * the same procedure and surgeon dictionaries (see {@link PatientStore#nextWindow}), so a code
+ * means the same value in every window.
+ *
+ * Driven by one user-controlled Main event: start the feed at model startup and restart the event
+ * to {@link #nextArrivalTime()}; its action calls {@link #injectDue()} and restarts the event to the
+ * returned time. The arrival onAtExit action binds each new agent with {@link #bindNext(Patient)}.
+ *
+ * The file is expected in scheduled datetime order. A patient scheduled before arrivals that were
+ * already released is reported and injected as soon as its window is read.
+ */
+public class ArrivalFeed implements Closeable
+{
+    private static final long DAY_MILLIS = 24L * 60 * 60 * 1000;
+
+    private final Main main;
+    private final AbstractParser.RowCursor<PatientParser.Header> cursor;
+    private final long lookAheadMillis;
+
+    private PatientStore window;
+    /** Last window read, whose dictionaries the next window extends */
+    private PatientStore lastWindow;
+    /** First patient of the next window, read past the end of the current one */
+    private PatientStore.Builder carried;
+    private int position;
+    private long releasedMillis = Long.MIN_VALUE;
+    private boolean endOfFile;
+    private int injectedCount;
+
+    private final ArrayDeque<PatientStore> dueStores = new ArrayDeque<>();
+    private final ArrayDeque<Integer> dueIndices = new ArrayDeque<>();
+
+    /**
+     * @param main The Main agent owning the arrival source
+     * @param cursor Cursor over the patient file rows
+     * @param lookAheadMillis Span of scheduled datetimes held in memory at once
+     * @see PatientParser#openArrivalFeed
+     */
+    ArrivalFeed(Main main, AbstractParser.RowCursor<PatientParser.Header> cursor, long lookAheadMillis)
+    {
+        if (lookAheadMillis <= 0)
+            throw new IllegalArgumentException("Look-ahead must be positive: " + lookAheadMillis);
+        this.main = main;
+        this.cursor = cursor;
+        this.lookAheadMillis = lookAheadMillis;
+    }
+
+    /**
+     * Read the first window.
+     * @return model time of the first arrival, or Double.POSITIVE_INFINITY if the file has no patient
+     * @throws IOException on file read error
+     */
+    public double start() throws IOException
+    {
+        readWindow();
+        return nextArrivalTime();
+    }
+
+    /**
+     * @return model time of the next arrival (not before the current time), or Double.POSITIVE_INFINITY when all patients were injected
+     */
+    public double nextArrivalTime()
+    {
+        if (window == null || position >= window.size())
+            return Double.POSITIVE_INFINITY;
+        return Math.max(main.time(), DateTimeCodec.toModelTime(main, window.scheduledMillis(position)));
+    }
+
+    /**
+     * Inject all patients scheduled up to the current model time into the arrival source,
+     * reading the next window when the current one is exhausted.
+     * @return model time of the next arrival, or Double.POSITIVE_INFINITY when all patients were injected
+     * @throws IOException on file read error
+     */
+    public double injectDue() throws IOException
+    {
+        double now = main.time();
+        while (window != null)
+        {
+            while (position < window.size() && DateTimeCodec.toModelTime(main, window.scheduledMillis(position)) <= now)
+            {
+                releasedMillis = Math.max(releasedMillis, window.scheduledMillis(position));
+                dueStores.add(window);
+                dueIndices.add(position++);
+                injectedCount++;
+                main.arrival.inject(1);
+            }
+            if (position < window.size())
+                break;
+            readWindow();
+        }
+        return nextArrivalTime();
+    }
+
+    /**
+     * Pass over patients without injecting them, e.g. those already injected before a restored {@link ModelCheckpoint}.
+     * @param count Number of patients to pass over
+     * @throws IOException on file read error
+     */
+    public void skip(int count) throws IOException
+    {
+        for (int skipped = 0; skipped < count && window != null; skipped++)
+        {
+            releasedMillis = Math.max(releasedMillis, window.scheduledMillis(position++));
+            injectedCount++;
+            if (position >= window.size())
+                readWindow();
+        }
+    }
+
+    /**
+     * @return the window being injected, or null when all patients were injected
+     */
+    public PatientStore window()
+    {
+        return window;
+    }
+
+    /**
+     * Bind an agent created by the arrival source to the next injected patient.
+     * @param patient The new patient agent
+     * @throws IllegalStateException if no injected patient is waiting for its agent
+     */
+    public void bindNext(Patient patient)
+    {
+        PatientStore store = dueStores.poll();
+        if (store == null)
+            throw new IllegalStateException("Arrival without injected patient");
+        store.bind(patient, dueIndices.poll());
+    }
+
+    /**
+     * @return number of patients injected so far
+     */
+    public int injectedCount()
+    {
+        return injectedCount;
+    }
+
+    /**
+     * Replace the exhausted window with the patients of the next lookAheadMillis, or null at the end of the file.
+     * The first patient scheduled after the span is carried over to the next window.
+     */
+    private void readWindow() throws IOException
+    {
+        window = null;
+        position = 0;
+        if (endOfFile && carried == null)
+            return;
+        PatientStore.Builder patients = carried != null ? carried : new PatientStore.Builder();
+        carried = null;
+        long[] windowEnd = { patients.size() > 0 ? windowEnd(patients.lastMillis()) : Long.MAX_VALUE };
+        AbstractParser.RowHandler<PatientParser.Header> handler = row ->
+        {
+            if (!PatientParser.addPatient(row, patients))
+                return;
+            long millis = patients.lastMillis();
+            if (millis < releasedMillis)
+                row.warn("Patient " + row.get(PatientParser.Header.PATIENT_ID) + " scheduled before already released arrivals, injected late");
+            if (patients.size() == 1)
+                windowEnd[0] = windowEnd(millis);
+        };
+        while (!endOfFile && (patients.size() == 0 || patients.lastMillis() < windowEnd[0]))
+        {
+            if (!cursor.next(handler))
+                endOfFile = true;
+        }
+        if (patients.size() > 0 && patients.lastMillis() >= windowEnd[0])
+            carried = patients.takeLast();
+        if (patients.size() > 0)
+            window = lastWindow = PatientStore.nextWindow(lastWindow, patients);
+        Utils.printDebug(() -> "Arrival feed read " + (window == null ? 0 : window.size()) + " patients, " + cursor.rowCount() + " rows so far");
+    }
+
+    /**
+     * @return the end (exclusive) of the window starting with a patient scheduled at the given time
+     */
+    private long windowEnd(long firstMillis)
+    {
+        if (lookAheadMillis % DAY_MILLIS != 0)
+            return firstMillis + lookAheadMillis;
+        return DateTimeCodec.epochMillisAt(DateTimeCodec.localEpochDay(firstMillis) + lookAheadMillis / DAY_MILLIS, 0);
+    }
+
+    @Override
+    public void close() throws IOException
+    {
+        cursor.close();
+    }
+
+	@Override
+	public String toString() {
+		return "ArrivalFeed[" + injectedCount + " injected]";
+	}
+
+}
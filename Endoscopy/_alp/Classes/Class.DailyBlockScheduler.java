@@ -0,0 +1,455 @@
+/**
+ * DailyBlockScheduler
+ *
+ * Optional planning stage run at the start of each model day: the patients scheduled that day are
+ * assigned an operating room, a surgeon and a start time before they reach the seize block, which
+ * then only claims the planned units. Greedy list scheduling places patients by priority (highest
+ * first), then scheduled datetime, each at the earliest finish over the rooms and skilled surgeons
+ * on duty (the preferred surgeon when possible), with expected durations from the {@link DurationEngine}
+ * and room turnover between patients. A local search then swaps patients of equal priority in the list
+ * and keeps a swap when the decoded plan schedules more (priority weighted) patients or packs the
+ * rooms tighter, for at most maxSwaps attempts. The swaps are drawn from a generator seeded with the
+ * scheduler seed and the day, so a day gets the same plan in every run with the same seed; the wall
+ * clock budget only stops a search that runs far too long, and a plan cut by it is reported.
+ *
+ * Patients that do not fit in the day keep the greedy choice of the seize block.
+ *
+ * Wiring (when isPlanningDays): Main On startup creates the scheduler with a seed drawn from the model
+ * random generator and restarts planEvent to {@code blockScheduler.start(this, feed.window())}; planEvent
+ * restarts itself to {@code blockScheduler.advance(feed.window())} at each midnight. The feed windows hold
+ * whole days (see {@link ArrivalFeed}), so the window at midnight holds the patients of the day. The
+ * seize resource choice condition takes {@code blockScheduler.acceptsSurgeon(agent, (Surgeon) unit, surgeonSelector)}
+ * for rpSurgeons units and {@code blockScheduler.acceptsRoom(agent, unit.getIndex())} for rpOperatingRooms units.
+ * While planning, shiftEvent recalculates the seize conditions at every shift change, as a surgeon going
+ * off duty hands its planned patients to the selector, and planEvent after each new plan.
+ */
+public class DailyBlockScheduler implements Serializable
+{
+    private static final int DAY_SECONDS = 86_400;
+
+    private final List<OperatingRoomRecord> rooms;
+    private final List<SurgeonRecord> surgeons;
+    private final SurgeonSelector selector;
+    private final DurationEngine durations;
+    private final int openSecond;
+    private final int closeSecond;
+    private final int maxSwaps;
+    private final long budgetMillis;
+    private final long seed;
+
+    private Main main;
+    private long day;
+    private Plan plan;
+
+    /**
+     * @param inputs The input data of the province
+     * @param selector The surgeon selector, giving skills
+     * @param openSecond Opening time of the operating rooms, seconds since midnight
+     * @param closeSecond Closing time of the operating rooms, seconds since midnight
+     * @param maxSwaps Swap attempts of the local search each day
+     * @param budgetMillis Wall clock time after which the local search of a day stops early, a safety net
+     * @param seed Seed of the swaps, mixed with the day
+     */
+    public DailyBlockScheduler(ModelInputs inputs, SurgeonSelector selector, int openSecond, int closeSecond, int maxSwaps, long budgetMillis, long seed)
+    {
+        if (openSecond < 0 || closeSecond > DAY_SECONDS || openSecond >= closeSecond)
+            throw new IllegalArgumentException("Invalid opening hours " + openSecond + " to " + closeSecond);
+        this.rooms = inputs.operatingRooms;
+        this.surgeons = inputs.surgeons;
+        this.selector = selector;
+        this.durations = inputs.durations;
+        this.openSecond = openSecond;
+        this.closeSecond = closeSecond;
+        this.maxSwaps = maxSwaps;
+        this.budgetMillis = budgetMillis;
+        this.seed = seed;
+    }
+
+    /**
+     * Plan the current day of the model.
+     * @param main The model root, giving the current date
+     * @param window The patients of the day, the arrival feed window, or null if none is left
+     * @return model time of the next midnight, when the planning event calls {@link #advance}
+     */
+    public double start(Main main, PatientStore window)
+    {
+        this.main = main;
+        day = DateTimeCodec.localEpochDay(main.date().getTime());
+        return planCurrentDay(window);
+    }
+
+    /**
+     * Plan the day starting now. Call from the planning event.
+     * @param window The patients of the day, the arrival feed window, or null if none is left
+     * @return model time of the next midnight
+     */
+    public double advance(PatientStore window)
+    {
+        day++;
+        return planCurrentDay(window);
+    }
+
+    private double planCurrentDay(PatientStore window)
+    {
+        if (window != null)
+            planDay(window, day);
+        else
+            plan = null;
+        return DateTimeCodec.toModelTime(main, DateTimeCodec.epochMillisAt(day + 1, 0));
+    }
+
+    /**
+     * Plan the patients of the store scheduled on the given day, replacing the previous plan.
+     * @param store The patients, holding the whole day (sorted by scheduled datetime)
+     * @param localEpochDay The day, see {@link DateTimeCodec#localEpochDay}
+     * @return the plan
+     */
+    public Plan planDay(PatientStore store, long localEpochDay)
+    {
+        long start = System.currentTimeMillis();
+        int from = firstAtOrAfter(store, DateTimeCodec.epochMillisAt(localEpochDay, 0));
+        int to = firstAtOrAfter(store, DateTimeCodec.epochMillisAt(localEpochDay + 1, 0));
+        Problem problem = new Problem(store, from, to);
+        int[] order = problem.initialOrder();
+        Decoded best = problem.decode(order);
+        Random random = new Random(ReplicationRunner.seedOf(seed, (int) localEpochDay));
+        int attempts = 0, swaps = 0, improvements = 0;
+        int n = order.length;
+        boolean cut = false;
+        for (; n > 1 && attempts < maxSwaps; attempts++)
+        {
+            if ((attempts & 255) == 0 && System.currentTimeMillis() - start >= budgetMillis)
+            {
+                cut = true;
+                break;
+            }
+            int i = random.nextInt(n), j = random.nextInt(n);
+            if (i == j || problem.priority[order[i]] != problem.priority[order[j]])
+                continue;
+            swap(order, i, j);
+            swaps++;
+            Decoded candidate = problem.decode(order);
+            if (candidate.isBetterThan(best))
+            {
+                best = candidate;
+                improvements++;
+            }
+            else
+                swap(order, i, j);
+        }
+        plan = new Plan(store, from, best);
+        if (cut)
+            Utils.printWarning("Planning of day " + localEpochDay + " stopped by the time budget after " + attempts + " of " + maxSwaps + " swap attempts, the plan depends on the machine speed");
+        Utils.printUpdate("Planned day " + localEpochDay + ": " + best.scheduled + " of " + n + " patients in " + rooms.size()
+            + " rooms (" + swaps + " swaps, " + improvements + " improvements, " + (System.currentTimeMillis() - start) + " ms)");
+        return plan;
+    }
+
+    private static int firstAtOrAfter(PatientStore store, long millis)
+    {
+        int low = 0, high = store.size();
+        while (low < high)
+        {
+            int mid = (low + high) >>> 1;
+            if (store.scheduledMillis(mid) < millis)
+                low = mid + 1;
+            else
+                high = mid;
+        }
+        return low;
+    }
+
+    private static void swap(int[] array, int i, int j)
+    {
+        int t = array[i];
+        array[i] = array[j];
+        array[j] = t;
+    }
+
+    /**
+     * @return the current plan, or null before the first day is planned
+     */
+    public Plan plan()
+    {
+        return plan;
+    }
+
+    /**
+     * Resource choice for rpSurgeons: the planned surgeon while on duty, so a patient waits for it through
+     * an overrunning case; the {@link SurgeonSelector} choice for unplanned patients and for patients whose
+     * planned surgeon went off duty, rather than waiting for its next shift.
+     */
+    public boolean acceptsSurgeon(Patient patient, Surgeon surgeon, SurgeonSelector surgeonSelector)
+    {
+        int planned = plan == null ? -1 : plan.surgeon(patient);
+        if (planned >= 0 && surgeonSelector.isOnDuty(planned))
+            return planned == surgeon.getIndex();
+        return surgeonSelector.accepts(patient, surgeon);
+    }
+
+    /**
+     * Resource choice for rpOperatingRooms: the planned room, or any room for unplanned patients.
+     */
+    public boolean acceptsRoom(Patient patient, int room)
+    {
+        int planned = plan == null ? -1 : plan.room(patient);
+        return planned < 0 || planned == room;
+    }
+
+    /**
+     * Planning data of one day: patients, candidate surgeons and durations, in seconds of the day.
+     */
+    private final class Problem
+    {
+        final int size;
+        final int[] priority;
+        final int[] release;
+        final int[] preferred;
+        final int[][] candidates;
+        /** Duration by patient, then room, in seconds */
+        final int[][] duration;
+        final int[] turnover;
+        /** Duty windows by surgeon: [from1, to1, from2, to2] in seconds of the day */
+        final int[][] duty;
+        final long[] sequence;
+
+        Problem(PatientStore store, int from, int to)
+        {
+            size = to - from;
+            priority = new int[size];
+            release = new int[size];
+            preferred = new int[size];
+            candidates = new int[size][];
+            duration = new int[size][rooms.size()];
+            sequence = new long[size];
+            for (int p = 0; p < size; p++)
+            {
+                int index = from + p;
+                String procedure = store.procedure(index);
+                int skill = selector.skillCode(procedure);
+                priority[p] = store.priority(index);
+                release[p] = DateTimeCodec.localSecondOfDay(store.scheduledMillis(index));
+                sequence[p] = store.scheduledMillis(index);
+                preferred[p] = selector.indexOf(store.preferredSurgeon(index));
+                int[] skilled = new int[surgeons.size()];
+                int count = 0;
+                for (int s = 0; s < surgeons.size(); s++)
+                {
+                    if (selector.hasSkillCode(s, skill))
+                        skilled[count++] = s;
+                }
+                candidates[p] = Arrays.copyOf(skilled, count);
+                for (int r = 0; r < rooms.size(); r++)
+                    duration[p][r] = (int) Math.ceil(durations.expectedMinutes(procedure, r) * 60);
+            }
+            turnover = new int[rooms.size()];
+            for (int r = 0; r < rooms.size(); r++)
+                turnover[r] = (int) Math.ceil(rooms.get(r).turnoverMinutes * 60);
+            duty = new int[surgeons.size()][];
+            for (int s = 0; s < surgeons.size(); s++)
+            {
+                SurgeonRecord surgeon = surgeons.get(s);
+                if (surgeon.shiftStart == SurgeonRecord.NO_SHIFT)
+                    duty[s] = new int[] { 0, DAY_SECONDS, 0, 0 };
+                else if (surgeon.shiftStart < surgeon.shiftEnd)
+                    duty[s] = new int[] { surgeon.shiftStart, surgeon.shiftEnd, 0, 0 };
+                else
+                    duty[s] = new int[] { 0, surgeon.shiftEnd, surgeon.shiftStart, DAY_SECONDS };
+            }
+        }
+
+        /**
+         * @return the patients by priority (highest first), then scheduled datetime
+         */
+        int[] initialOrder()
+        {
+            Integer[] order = new Integer[size];
+            for (int p = 0; p < size; p++)
+                order[p] = p;
+            Arrays.sort(order, (a, b) -> priority[a] != priority[b] ? Integer.compare(priority[b], priority[a]) : Long.compare(sequence[a], sequence[b]));
+            int[] result = new int[size];
+            for (int p = 0; p < size; p++)
+                result[p] = order[p];
+            return result;
+        }
+
+        /**
+         * Greedy list scheduling of the patients in the given order.
+         */
+        Decoded decode(int[] order)
+        {
+            int[] roomFree = new int[rooms.size()];
+            boolean[] roomUsed = new boolean[rooms.size()];
+            Arrays.fill(roomFree, openSecond);
+            int[] surgeonFree = new int[surgeons.size()];
+            Decoded d = new Decoded(size);
+            for (int p : order)
+            {
+                int bestFinish = Integer.MAX_VALUE, bestRoom = -1, bestSurgeon = -1, bestStart = 0;
+                boolean bestPreferred = false;
+                for (int r = 0; r < roomFree.length; r++)
+                {
+                    int roomReady = Math.max(roomFree[r] + (roomUsed[r] ? turnover[r] : 0), release[p]);
+                    for (int s : candidates[p])
+                    {
+                        int start = earliestStart(s, Math.max(roomReady, surgeonFree[s]), duration[p][r]);
+                        if (start < 0)
+                            continue;
+                        int finish = start + duration[p][r];
+                        boolean isPreferred = s == preferred[p];
+                        if ((isPreferred && !bestPreferred) || (isPreferred == bestPreferred && finish < bestFinish))
+                        {
+                            bestFinish = finish;
+                            bestRoom = r;
+                            bestSurgeon = s;
+                            bestStart = start;
+                            bestPreferred = isPreferred;
+                        }
+                    }
+                }
+                if (bestRoom < 0)
+                    continue;
+                d.room[p] = bestRoom;
+                d.surgeon[p] = bestSurgeon;
+                d.start[p] = bestStart;
+                d.scheduled++;
+                d.weight += priority[p] + 1;
+                roomFree[bestRoom] = bestFinish;
+                roomUsed[bestRoom] = true;
+                surgeonFree[bestSurgeon] = bestFinish;
+            }
+            for (int r = 0; r < roomFree.length; r++)
+                d.busySpan += roomFree[r] - openSecond;
+            return d;
+        }
+
+        /**
+         * @return the earliest start from the given time within the opening hours and a duty window of the surgeon, or -1
+         */
+        private int earliestStart(int surgeon, int from, int length)
+        {
+            int[] w = duty[surgeon];
+            for (int i = 0; i < 4; i += 2)
+            {
+                int start = Math.max(from, w[i]);
+                int end = Math.min(w[i + 1], closeSecond);
+                if (start + length <= end)
+                    return start;
+            }
+            return -1;
+        }
+    }
+
+    /**
+     * One decoded plan of the day, by patient of the day.
+     */
+    private static final class Decoded
+    {
+        final int[] room;
+        final int[] surgeon;
+        final int[] start;
+        int scheduled;
+        long weight;
+        long busySpan;
+
+        Decoded(int size)
+        {
+            room = new int[size];
+            surgeon = new int[size];
+            start = new int[size];
+            Arrays.fill(room, -1);
+            Arrays.fill(surgeon, -1);
+        }
+
+        boolean isBetterThan(Decoded other)
+        {
+            return weight != other.weight ? weight > other.weight : busySpan < other.busySpan;
+        }
+    }
+
+    /**
+     * The operating room, surgeon and start time of the patients of one day.
+     */
+    public static final class Plan implements Serializable
+    {
+        private final PatientStore store;
+        private final int from;
+        private final int[] room;
+        private final int[] surgeon;
+        private final int[] startSecond;
+        private final int scheduled;
+
+        Plan(PatientStore store, int from, Decoded decoded)
+        {
+            this.store = store;
+            this.from = from;
+            this.room = decoded.room;
+            this.surgeon = decoded.surgeon;
+            this.startSecond = decoded.start;
+            this.scheduled = decoded.scheduled;
+        }
+
+        private int offset(Patient patient)
+        {
+            int offset = patient.storeIndex - from;
+            return patient.store == store && offset >= 0 && offset < room.length ? offset : -1;
+        }
+
+        /**
+         * @return the planned room index, or -1 if the patient is not planned
+         */
+        public int room(Patient patient)
+        {
+            int offset = offset(patient);
+            return offset < 0 ? -1 : room[offset];
+        }
+
+        /**
+         * @return the planned surgeon index, or -1 if the patient is not planned
+         */
+        public int surgeon(Patient patient)
+        {
+            int offset = offset(patient);
+            return offset < 0 ? -1 : surgeon[offset];
+        }
+
+        /**
+         * @return the planned start in seconds since midnight, or -1 if the patient is not planned
+         */
+        public int startSecond(Patient patient)
+        {
+            int offset = offset(patient);
+            return offset < 0 || room[offset] < 0 ? -1 : startSecond[offset];
+        }
+
+        /**
+         * @return number of patients planned
+         */
+        public int scheduledCount()
+        {
+            return scheduled;
+        }
+
+        /**
+         * @return number of patients of the day
+         */
+        public int size()
+        {
+            return room.length;
+        }
+
+        private static final long serialVersionUID = 1L;
+    }
+
+	@Override
+	public String toString() {
+		return "DailyBlockScheduler[" + rooms.size() + " rooms, " + surgeons.size() + " surgeons]";
+	}
+
+	/**
+	 * This number is here for model snapshot storing purpose<br>
+	 * It needs to be changed when this class gets changed
+	 */
+	private static final long serialVersionUID = 2L;
+
+}
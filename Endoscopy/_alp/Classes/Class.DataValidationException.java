@@ -6,11 +6,65 @@
  */	
 public class DataValidationException extends RuntimeException 
 {
+    private final String column;
+    private final String value;
+
 	/**
 	* @param message The error message.
 	*/
     public DataValidationException(String message) 
     {
         super(message);
+        column = null;
+        value = null;
     }
-}
\ No newline at end of file
+
+	/**
+	* Error of one cell. No stack trace is captured: cell errors are thrown for every bad value,
+	* caught by the parser and reported by file, line and column (see {@link ParseReport}).
+	* @param message The error reason.
+	* @param column The column name, or null if not known where the value is parsed.
+	* @param value The raw cell value.
+	*/
+    public DataValidationException(String message, String column, String value) 
+    {
+        super(message, null, false, false);
+        this.column = column;
+        this.value = value;
+    }
+
+    /**
+     * @return the message, with column and raw value for a cell error
+     */
+    @Override
+    public String getMessage()
+    {
+        if (value == null)
+            return super.getMessage();
+        return (column == null ? "" : column + ": ") + super.getMessage() + ": '" + value + "'";
+    }
+
+    /**
+     * @return the message without column and value
+     */
+    public String getReason()
+    {
+        return super.getMessage();
+    }
+
+    /**
+     * @return the column name of a cell error, or null
+     */
+    public String getColumn()
+    {
+        return column;
+    }
+
+    /**
+     * @return the raw value of a cell error, or null
+     */
+    public String getValue()
+    {
+        return value;
+    }
+}
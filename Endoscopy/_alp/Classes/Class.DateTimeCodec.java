@@ -0,0 +1,306 @@
+/**
+ * DateTimeCodec
+ *
+ * Thread-safe, formatter-free parsing and formatting of the date shapes used in input files:
+ * "yyyy-MM-dd", "yyyy-MM-dd H:mm:ss" and "yyyy-MM-dd'T'H:mm:ss'Z'" (optional ".SSS" fraction).
+ * Text is parsed straight from bytes or chars into epoch milliseconds without intermediate
+ * Strings or Date objects. As with the former SimpleDateFormat parsing, the time is read in
+ * the default time zone and 'Z' is treated as a literal; unlike it, out of range fields
+ * (e.g. month 13) are rejected instead of rolled over.
+ */
+import java.nio.charset.StandardCharsets;
+
+public final class DateTimeCodec
+{
+    /** Returned for empty or "NA" values by the callers that accept missing dates */
+    public static final long NO_DATE = Long.MIN_VALUE;
+
+    private static final long MILLIS_PER_DAY = 86_400_000L;
+    private static final int MAX_LENGTH = 64;
+
+    /** Default time zone, read once as SimpleDateFormat did at construction */
+    private static final TimeZone ZONE = TimeZone.getDefault();
+
+    private static final ThreadLocal<byte[]> SCRATCH = ThreadLocal.withInitial(() -> new byte[MAX_LENGTH]);
+
+    private DateTimeCodec()
+    {
+    }
+
+    /**
+     * Parse a date string into epoch milliseconds.
+     * @param text The date text, without quotes
+     * @return epoch milliseconds
+     * @throws DataValidationException if the text is not one of the supported shapes
+     */
+    public static long parseMillis(CharSequence text)
+    {
+        int length = text.length();
+        if (length > MAX_LENGTH)
+            throw invalid(text.toString());
+        byte[] bytes = SCRATCH.get();
+        for (int i = 0; i < length; i++)
+        {
+            char c = text.charAt(i);
+            if (c > 0x7E)
+                throw invalid(text.toString());
+            bytes[i] = (byte) c;
+        }
+        return parseMillis(bytes, 0, length);
+    }
+
+    /**
+     * Parse the ASCII date in bytes [start, end) into epoch milliseconds.
+     * @return epoch milliseconds
+     * @throws DataValidationException if the bytes are not one of the supported shapes
+     */
+    public static long parseMillis(byte[] text, int start, int end)
+    {
+        int p = start;
+        int n = digitCount(text, p, end, 4);
+        if (n != 4)
+            throw invalid(text, start, end);
+        int year = number(text, p, n);
+        p += n;
+        if (p >= end || text[p++] != '-')
+            throw invalid(text, start, end);
+        n = digitCount(text, p, end, 2);
+        if (n == 0)
+            throw invalid(text, start, end);
+        int month = number(text, p, n);
+        p += n;
+        if (p >= end || text[p++] != '-')
+            throw invalid(text, start, end);
+        n = digitCount(text, p, end, 2);
+        if (n == 0)
+            throw invalid(text, start, end);
+        int day = number(text, p, n);
+        p += n;
+        if (month < 1 || month > 12 || day < 1 || day > lengthOfMonth(year, month))
+            throw invalid(text, start, end);
+
+        int hour = 0, minute = 0, second = 0, millis = 0;
+        if (p < end)
+        {
+            if (text[p] != ' ' && text[p] != 'T')
+                throw invalid(text, start, end);
+            p++;
+            n = digitCount(text, p, end, 2);
+            if (n == 0)
+                throw invalid(text, start, end);
+            hour = number(text, p, n);
+            p += n;
+            if (p >= end || text[p++] != ':')
+                throw invalid(text, start, end);
+            n = digitCount(text, p, end, 2);
+            if (n == 0)
+                throw invalid(text, start, end);
+            minute = number(text, p, n);
+            p += n;
+            if (p >= end || text[p++] != ':')
+                throw invalid(text, start, end);
+            n = digitCount(text, p, end, 2);
+            if (n == 0)
+                throw invalid(text, start, end);
+            second = number(text, p, n);
+            p += n;
+            if (p < end && text[p] == '.')
+            {
+                p++;
+                n = digitCount(text, p, end, 9);
+                if (n == 0)
+                    throw invalid(text, start, end);
+                millis = number(text, p, Math.min(n, 3));
+                for (int i = n; i < 3; i++)
+                    millis *= 10;
+                p += n;
+            }
+            if (p < end && text[p] == 'Z')
+                p++;
+            if (p != end || hour > 23 || minute > 59 || second > 59)
+                throw invalid(text, start, end);
+        }
+        long local = epochDay(year, month, day) * MILLIS_PER_DAY
+            + ((hour * 60L + minute) * 60L + second) * 1000L + millis;
+        return localToEpochMillis(local);
+    }
+
+    /**
+     * Parse a time of day "H:mm" or "H:mm:ss" (e.g. a shift start).
+     * @param text The time text, without quotes
+     * @return seconds since midnight, from 0 to 86399
+     * @throws DataValidationException if the text is not a valid time of day
+     */
+    public static int parseSecondOfDay(CharSequence text)
+    {
+        int length = text.length();
+        int[] fields = new int[3];
+        int count = 0, digits = 0;
+        for (int i = 0; i <= length; i++)
+        {
+            char c = i < length ? text.charAt(i) : ':';
+            if (c >= '0' && c <= '9' && digits < 2 && count < 3)
+            {
+                fields[count] = fields[count] * 10 + (c - '0');
+                digits++;
+            }
+            else if (c == ':' && digits > 0 && count < 3)
+            {
+                count++;
+                digits = 0;
+            }
+            else
+                throw new DataValidationException("Unparseable time of day", null, text.toString());
+        }
+        if (count < 2 || fields[0] > 23 || fields[1] > 59 || fields[2] > 59)
+            throw new DataValidationException("Unparseable time of day", null, text.toString());
+        return (fields[0] * 60 + fields[1]) * 60 + fields[2];
+    }
+
+    /**
+     * @return days since 1970-01-01 of the date in the default time zone
+     */
+    public static long localEpochDay(long epochMillis)
+    {
+        return Math.floorDiv(epochMillis + ZONE.getOffset(epochMillis), MILLIS_PER_DAY);
+    }
+
+    /**
+     * @return seconds since local midnight of the date in the default time zone
+     */
+    public static int localSecondOfDay(long epochMillis)
+    {
+        return (int) (Math.floorMod(epochMillis + ZONE.getOffset(epochMillis), MILLIS_PER_DAY) / 1000);
+    }
+
+    /**
+     * @return epoch milliseconds of the wall-clock time, read as in {@link #parseMillis}
+     */
+    public static long epochMillisAt(long localEpochDay, int secondOfDay)
+    {
+        return localToEpochMillis(localEpochDay * MILLIS_PER_DAY + secondOfDay * 1000L);
+    }
+
+    /**
+     * Resolve a wall-clock time of the default time zone like GregorianCalendar does:
+     * times in a DST gap or overlap are read as standard time.
+     */
+    private static long localToEpochMillis(long local)
+    {
+        long standard = local - ZONE.getRawOffset();
+        int offset = ZONE.getOffset(standard);
+        if (offset == ZONE.getRawOffset())
+            return standard;
+        long daylight = local - offset;
+        return ZONE.getOffset(daylight) == offset ? daylight : standard;
+    }
+
+    /**
+     * Convert epoch milliseconds to model time (model time unit of the given agent).
+     * @param main The model root
+     * @param epochMillis The date in epoch milliseconds
+     * @return model time of the date
+     */
+    public static double toModelTime(Main main, long epochMillis)
+    {
+        return main.toModelTime(epochMillis - main.getEngine().getStartDate().getTime(), TimeUnits.MILLISECOND);
+    }
+
+    /**
+     * Format epoch milliseconds as "yyyy-MM-dd H:mm:ss", or "yyyy-MM-dd'T'H:mm:ss'Z'".
+     * @param epochMillis The date in epoch milliseconds
+     * @param withTAndZ true for the 'T' and 'Z' form
+     * @return formatted date string
+     */
+    public static String format(long epochMillis, boolean withTAndZ)
+    {
+        StringBuilder sb = new StringBuilder(20);
+        appendTo(sb, epochMillis, withTAndZ);
+        return sb.toString();
+    }
+
+    /**
+     * Append epoch milliseconds formatted as in {@link #format} to the builder, without other allocation.
+     */
+    public static void appendTo(StringBuilder sb, long epochMillis, boolean withTAndZ)
+    {
+        long local = epochMillis + ZONE.getOffset(epochMillis);
+        long epochDay = Math.floorDiv(local, MILLIS_PER_DAY);
+        int secondOfDay = (int) (Math.floorMod(local, MILLIS_PER_DAY) / 1000);
+
+        long z = epochDay + 719468;
+        long era = Math.floorDiv(z, 146097);
+        long dayOfEra = z - era * 146097;
+        long yearOfEra = (dayOfEra - dayOfEra / 1460 + dayOfEra / 36524 - dayOfEra / 146096) / 365;
+        long dayOfYear = dayOfEra - (365 * yearOfEra + yearOfEra / 4 - yearOfEra / 100);
+        long mp = (5 * dayOfYear + 2) / 153;
+        int day = (int) (dayOfYear - (153 * mp + 2) / 5 + 1);
+        int month = (int) (mp < 10 ? mp + 3 : mp - 9);
+        long year = yearOfEra + era * 400 + (month <= 2 ? 1 : 0);
+
+        if (year >= 0 && year < 1000)
+            sb.append(year < 10 ? "000" : year < 100 ? "00" : "0");
+        sb.append(year).append('-');
+        appendTwoDigits(sb, month);
+        sb.append('-');
+        appendTwoDigits(sb, day);
+        sb.append(withTAndZ ? 'T' : ' ');
+        sb.append(secondOfDay / 3600).append(':');
+        appendTwoDigits(sb, secondOfDay / 60 % 60);
+        sb.append(':');
+        appendTwoDigits(sb, secondOfDay % 60);
+        if (withTAndZ)
+            sb.append('Z');
+    }
+
+    private static void appendTwoDigits(StringBuilder sb, int value)
+    {
+        sb.append((char) ('0' + value / 10)).append((char) ('0' + value % 10));
+    }
+
+    private static int digitCount(byte[] text, int from, int end, int max)
+    {
+        int n = 0;
+        while (n < max && from + n < end && text[from + n] >= '0' && text[from + n] <= '9')
+            n++;
+        return n;
+    }
+
+    private static int number(byte[] text, int from, int count)
+    {
+        int value = 0;
+        for (int i = from; i < from + count; i++)
+            value = value * 10 + (text[i] - '0');
+        return value;
+    }
+
+    private static int lengthOfMonth(int year, int month)
+    {
+        if (month == 2)
+            return (year % 4 == 0 && (year % 100 != 0 || year % 400 == 0)) ? 29 : 28;
+        return (month == 4 || month == 6 || month == 9 || month == 11) ? 30 : 31;
+    }
+
+    /**
+     * Days since 1970-01-01 of the proleptic Gregorian date.
+     */
+    private static long epochDay(int year, int month, int day)
+    {
+        long y = month <= 2 ? year - 1 : year;
+        long era = Math.floorDiv(y, 400);
+        long yearOfEra = y - era * 400;
+        long dayOfYear = (153 * (month > 2 ? month - 3 : month + 9) + 2) / 5 + day - 1;
+        long dayOfEra = yearOfEra * 365 + yearOfEra / 4 - yearOfEra / 100 + dayOfYear;
+        return era * 146097 + dayOfEra - 719468;
+    }
+
+    private static DataValidationException invalid(byte[] text, int start, int end)
+    {
+        return invalid(new String(text, start, end - start, StandardCharsets.ISO_8859_1));
+    }
+
+    private static DataValidationException invalid(String text)
+    {
+        return new DataValidationException("Unparseable date", null, text);
+    }
+}
@@ -0,0 +1,391 @@
+/**
+ * DelimitedTokenizer
+ *
+ * Memory-mapped tokenizer for TSV/CSV input files. Lines and fields are located directly
+ * in the mapped bytes and exposed as offsets, so no String is built unless a caller asks
+ * for one. Numbers can be parsed straight from the bytes.
+ *
+ * Cleaning rules match the String based helpers: a leading BOM or other non-printable
+ * characters are skipped at the start of the file (see {@link Utils#cleanLine}), and each
+ * field is trimmed and stripped from matching leading/trailing quotes (see {@link Utils#removeQuotes}).
+ * Like the former String.split parsing, a delimiter inside quotes still splits the field.
+ */
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+
+public class DelimitedTokenizer implements Closeable
+{
+    /** Maximum mapped window, a line must fit into one window */
+    private static final long WINDOW_SIZE = 1L << 30;
+
+    private final FileChannel channel;
+    private final boolean ownsChannel;
+    private final byte delimiter;
+    private final long end;
+
+    private MappedByteBuffer buffer;
+    private long bufferStart;
+    private int bufferLimit;
+
+    private long position;
+    private int lineNumber;
+    private int lineStart;
+    private int lineEnd;
+    private int[] fieldStarts = new int[16];
+    private int[] fieldEnds = new int[16];
+    private int fieldCount;
+    private byte[] scratch = new byte[64];
+
+    /**
+     * Tokenize the byte range [start, end) of an open channel. The range must start at a line start.
+     * The channel is left open on {@link #close()}.
+     * @param channel The file channel
+     * @param start First byte of the range
+     * @param end End of the range (exclusive)
+     * @param delimiter The delimiter character ('\t' for TSV, ',' for CSV)
+     * @param firstLineNumber Line number of the first line in the range (1 for the file header)
+     */
+    public DelimitedTokenizer(FileChannel channel, long start, long end, char delimiter, int firstLineNumber)
+    {
+        this(channel, false, start, end, delimiter, firstLineNumber);
+    }
+
+    private DelimitedTokenizer(FileChannel channel, boolean ownsChannel, long start, long end, char delimiter, int firstLineNumber)
+    {
+        this.channel = channel;
+        this.ownsChannel = ownsChannel;
+        this.position = start;
+        this.end = end;
+        this.delimiter = (byte) delimiter;
+        this.lineNumber = firstLineNumber - 1;
+    }
+
+    /**
+     * Open the whole file for tokenizing, skipping a leading BOM.
+     * @param file The input file
+     * @param delimiter The delimiter character ('\t' for TSV, ',' for CSV)
+     * @return tokenizer positioned before the header line
+     * @throws IOException if the file cannot be opened
+     */
+    public static DelimitedTokenizer open(File file, char delimiter) throws IOException
+    {
+        FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+        DelimitedTokenizer tokenizer = new DelimitedTokenizer(channel, true, 0, channel.size(), delimiter, 1);
+        tokenizer.skipLeadingNonPrintable();
+        return tokenizer;
+    }
+
+    /**
+     * Skip a BOM or other non-printable characters at the current position (start of file).
+     * @throws IOException on file read error
+     */
+    public void skipLeadingNonPrintable() throws IOException
+    {
+        while (position < end)
+        {
+            map(position);
+            byte b = buffer.get((int) (position - bufferStart));
+            if ((b >= 0x20 && b <= 0x7E) || b == '\n' || b == '\r')
+                return;
+            position++;
+        }
+    }
+
+    private void map(long from) throws IOException
+    {
+        if (buffer != null && from >= bufferStart && from < bufferStart + bufferLimit)
+            return;
+        long size = Math.min(WINDOW_SIZE, end - from);
+        buffer = channel.map(FileChannel.MapMode.READ_ONLY, from, size);
+        bufferStart = from;
+        bufferLimit = (int) size;
+    }
+
+    /**
+     * Advance to the next line and locate its fields.
+     * @return false when the end of the range is reached
+     * @throws IOException on file read error
+     * @throws FileFormatException if a single line is longer than the mapping window
+     */
+    public boolean nextLine() throws IOException
+    {
+        if (position >= end)
+            return false;
+        map(position);
+        int start = (int) (position - bufferStart);
+        int newline = indexOfNewline(start);
+        if (newline < 0 && bufferStart + bufferLimit < end)
+        {
+            // line crosses the window, remap from its start
+            buffer = null;
+            map(position);
+            start = 0;
+            newline = indexOfNewline(start);
+            if (newline < 0 && bufferStart + bufferLimit < end)
+                throw new FileFormatException("Line " + (lineNumber + 1) + " is longer than " + WINDOW_SIZE + " bytes");
+        }
+        int stop = newline < 0 ? bufferLimit : newline;
+        position = bufferStart + (newline < 0 ? bufferLimit : newline + 1);
+        if (stop > start && buffer.get(stop - 1) == '\r')
+            stop--;
+        lineNumber++;
+        lineStart = start;
+        lineEnd = stop;
+        splitFields();
+        return true;
+    }
+
+    private int indexOfNewline(int from)
+    {
+        for (int i = from; i < bufferLimit; i++)
+        {
+            if (buffer.get(i) == '\n')
+                return i;
+        }
+        return -1;
+    }
+
+    private void splitFields()
+    {
+        fieldCount = 0;
+        int start = lineStart;
+        for (int i = lineStart; i < lineEnd; i++)
+        {
+            if (buffer.get(i) == delimiter)
+            {
+                addField(start, i);
+                start = i + 1;
+            }
+        }
+        addField(start, lineEnd);
+    }
+
+    private void addField(int start, int stop)
+    {
+        while (start < stop && isSpace(buffer.get(start)))
+            start++;
+        while (stop > start && isSpace(buffer.get(stop - 1)))
+            stop--;
+        if (stop - start >= 2)
+        {
+            byte first = buffer.get(start);
+            if ((first == '"' || first == '\'') && buffer.get(stop - 1) == first)
+            {
+                start++;
+                stop--;
+                while (start < stop && isSpace(buffer.get(start)))
+                    start++;
+                while (stop > start && isSpace(buffer.get(stop - 1)))
+                    stop--;
+            }
+        }
+        if (fieldCount == fieldStarts.length)
+        {
+            fieldStarts = Arrays.copyOf(fieldStarts, fieldCount * 2);
+            fieldEnds = Arrays.copyOf(fieldEnds, fieldCount * 2);
+        }
+        fieldStarts[fieldCount] = start;
+        fieldEnds[fieldCount] = stop;
+        fieldCount++;
+    }
+
+    /**
+     * Same whitespace rule as String.trim, bytes of multi-byte UTF-8 characters are not whitespace.
+     */
+    private static boolean isSpace(byte b)
+    {
+        return b >= 0 && b <= ' ';
+    }
+
+    /**
+     * @return file offset of the start of the next line
+     */
+    public long position()
+    {
+        return position;
+    }
+
+    /**
+     * @return the 1-based line number of the current line in the file
+     */
+    public int lineNumber()
+    {
+        return lineNumber;
+    }
+
+    /**
+     * @return true if the current line only holds whitespace
+     */
+    public boolean isBlankLine()
+    {
+        for (int i = lineStart; i < lineEnd; i++)
+        {
+            if (!isSpace(buffer.get(i)))
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * @return number of fields in the current line
+     */
+    public int fieldCount()
+    {
+        return fieldCount;
+    }
+
+    /**
+     * @return length in bytes of the cleaned field, 0 if the line has fewer fields
+     */
+    public int fieldLength(int field)
+    {
+        return field < fieldCount ? fieldEnds[field] - fieldStarts[field] : 0;
+    }
+
+    /**
+     * Byte at the given offset of the cleaned field.
+     */
+    public byte fieldByte(int field, int offset)
+    {
+        return buffer.get(fieldStarts[field] + offset);
+    }
+
+    /**
+     * @return true if the cleaned field is empty or "NA", or the line has fewer fields
+     */
+    public boolean isFieldNA(int field)
+    {
+        int length = fieldLength(field);
+        return length == 0 || (length == 2 && fieldByte(field, 0) == 'N' && fieldByte(field, 1) == 'A');
+    }
+
+    /**
+     * Compare the cleaned field with an ASCII string without building a String.
+     */
+    public boolean fieldEquals(int field, String value)
+    {
+        int length = fieldLength(field);
+        if (length != value.length())
+            return false;
+        for (int i = 0; i < length; i++)
+        {
+            if (fieldByte(field, i) != value.charAt(i))
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * Decode the cleaned field as a UTF-8 String.
+     * @return the field value, empty string if the line has fewer fields
+     */
+    public String fieldString(int field)
+    {
+        int length = fieldLength(field);
+        if (length == 0)
+            return "";
+        if (scratch.length < length)
+            scratch = new byte[Math.max(length, scratch.length * 2)];
+        buffer.get(fieldStarts[field], scratch, 0, length);
+        return new String(scratch, 0, length, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * @return all fields of the current line as Strings (used for the header line)
+     */
+    public List<String> fieldStrings()
+    {
+        List<String> fields = new ArrayList<>(fieldCount);
+        for (int i = 0; i < fieldCount; i++)
+            fields.add(fieldString(i));
+        return fields;
+    }
+
+    /**
+     * Parse the field as int directly from the bytes, same rules as {@link Utils#parseInteger}.
+     * @return int value, or 0 if empty or "NA"
+     * @throws DataValidationException if the field is not an integer
+     */
+    public int parseInt(int field)
+    {
+        if (isFieldNA(field))
+            return 0;
+        int length = fieldLength(field);
+        int i = 0;
+        boolean negative = false;
+        byte first = fieldByte(field, 0);
+        if (first == '-' || first == '+')
+        {
+            negative = first == '-';
+            i++;
+        }
+        if (i == length)
+            throw new DataValidationException("Invalid integer", null, fieldString(field));
+        long value = 0;
+        for (; i < length; i++)
+        {
+            int digit = fieldByte(field, i) - '0';
+            if (digit < 0 || digit > 9)
+                throw new DataValidationException("Invalid integer", null, fieldString(field));
+            value = value * 10 + digit;
+            if (value > (long) Integer.MAX_VALUE + 1)
+                throw new DataValidationException("Integer out of range", null, fieldString(field));
+        }
+        if (negative)
+            value = -value;
+        if (value > Integer.MAX_VALUE)
+            throw new DataValidationException("Integer out of range", null, fieldString(field));
+        return (int) value;
+    }
+
+    /**
+     * Parse the field as double, same rules as {@link Utils#parseDouble}.
+     * Plain integers are parsed from the bytes, other shapes fall back to Double.parseDouble.
+     * @return double value, or 0.0 if empty or "NA"
+     * @throws DataValidationException if the field is not a number
+     */
+    public double parseDouble(int field)
+    {
+        if (isFieldNA(field))
+            return 0.0;
+        int length = fieldLength(field);
+        if (length < 10)
+        {
+            boolean digitsOnly = true;
+            for (int i = 0; i < length && digitsOnly; i++)
+            {
+                byte b = fieldByte(field, i);
+                digitsOnly = b >= '0' && b <= '9';
+            }
+            if (digitsOnly)
+                return parseInt(field);
+        }
+        return Utils.parseDouble(fieldString(field));
+    }
+
+    /**
+     * Parse the field as a date directly from the bytes, same rules as {@link Utils#millisFromString}.
+     * @return epoch milliseconds, or DateTimeCodec.NO_DATE if empty or "NA"
+     * @throws DataValidationException if the field is not a date
+     */
+    public long parseDateMillis(int field)
+    {
+        if (isFieldNA(field))
+            return DateTimeCodec.NO_DATE;
+        int length = fieldLength(field);
+        if (scratch.length < length)
+            scratch = new byte[Math.max(length, scratch.length * 2)];
+        buffer.get(fieldStarts[field], scratch, 0, length);
+        return DateTimeCodec.parseMillis(scratch, 0, length);
+    }
+
+    @Override
+    public void close() throws IOException
+    {
+        buffer = null;
+        if (ownsChannel)
+            channel.close();
+    }
+}
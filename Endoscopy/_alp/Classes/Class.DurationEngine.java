@@ -0,0 +1,306 @@
+/**
+ * DurationEngine
+ *
+ * Procedure durations by procedure and operating room type, and room turnover times, for the
+ * delay and release blocks of Main. Historical durations (see {@link ProcedureDurationParser}) are
+ * compiled once into one {@link AliasTable} per procedure x room type, with a table per procedure
+ * over all room types as fallback when a pair has fewer than {@link #MIN_SAMPLES} observations,
+ * and a fixed duration for procedures without history. The table of every procedure x room is
+ * resolved at build time into a flat array, so a sample is two array reads and one uniform draw.
+ *
+ * Rooms are indexed by their position in the operatingRooms population (the load order of
+ * {@link OperatingRoomParser#loadOperatingRooms}). Procedure codes of a {@link PatientStore} are
+ * translated to engine codes once per procedure dictionary: the windows of an {@link ArrivalFeed}
+ * share one dictionary, so a new window only translates the procedures it added.
+ *
+ * Wiring: delay delayTime {@code inputs.durations.sampleMinutes(agent, room, getDefaultRandomGenerator())}
+ * minutes, with room {@code agent.resourceUnitOfPool(rpOperatingRooms).getIndex()}, the operating
+ * room seized by the patient; the room cleaning of {@code turnoverMinutes(room)} minutes is held by
+ * {@link RoomTurnover} from the release block.
+ */
+public final class DurationEngine implements Serializable
+{
+    /** Observations needed for a procedure x room type table, below it the procedure table is used */
+    public static final int MIN_SAMPLES = 30;
+    /**
+     * Duration used for all procedures when no history is loaded: the former constant delay of 2 days.
+     * With a history, procedures missing from it take the mean of all observations instead, a length
+     * the {@link DailyBlockScheduler} can fit in a day.
+     */
+    public static final double DEFAULT_MINUTES = 2 * 24 * 60;
+
+    private final StringDictionary procedures;
+    private final AliasTable[] tables;
+    /** Table index by procedure code * roomCount + room */
+    private final int[] tableByProcedureRoom;
+    private final int roomCount;
+    private final double[] turnoverMinutes;
+    private final double defaultMinutes;
+
+    private transient volatile StoreCodes storeCodes;
+
+    private DurationEngine(StringDictionary procedures, AliasTable[] tables, int[] tableByProcedureRoom, double[] turnoverMinutes, double defaultMinutes)
+    {
+        this.procedures = procedures;
+        this.tables = tables;
+        this.tableByProcedureRoom = tableByProcedureRoom;
+        this.roomCount = turnoverMinutes.length;
+        this.turnoverMinutes = turnoverMinutes;
+        this.defaultMinutes = defaultMinutes;
+    }
+
+    /**
+     * @return the engine code of a procedure, or -1 if it has no history
+     */
+    public int procedureCode(String procedure)
+    {
+        return procedures.codeOf(procedure);
+    }
+
+    /**
+     * Sample the duration of a patient's procedure.
+     * @param patient The patient, bound to its {@link PatientStore}
+     * @param room Population index of the operating room
+     * @param random The random number generator of the model
+     * @return duration in minutes
+     */
+    public double sampleMinutes(Patient patient, int room, Random random)
+    {
+        int procedure = patient.store.procedureCode(patient.storeIndex);
+        StoreCodes codes = storeCodes;
+        if (codes == null || codes.dictionary != patient.store.procedures() || procedure >= codes.codes.length)
+            storeCodes = codes = new StoreCodes(patient.store.procedures(), codes, procedures);
+        return sampleMinutes(codes.codes[procedure], room, random);
+    }
+
+    /**
+     * @param procedure Engine code of the procedure, -1 for the default duration
+     * @param room Population index of the operating room
+     * @param random The random number generator of the model
+     * @return duration in minutes
+     */
+    public double sampleMinutes(int procedure, int room, Random random)
+    {
+        if (procedure < 0)
+            return defaultMinutes;
+        return tables[tableByProcedureRoom[procedure * roomCount + room]].sample(random);
+    }
+
+    /**
+     * Expected duration, for planning.
+     * @param procedure The procedure
+     * @param room Population index of the operating room
+     * @return mean duration in minutes
+     */
+    public double expectedMinutes(String procedure, int room)
+    {
+        int code = procedures.codeOf(procedure);
+        return code < 0 ? defaultMinutes : tables[tableByProcedureRoom[code * roomCount + room]].mean();
+    }
+
+    /**
+     * @param room Population index of the operating room
+     * @return cleaning time after each patient, in minutes
+     */
+    public double turnoverMinutes(int room)
+    {
+        return turnoverMinutes[room];
+    }
+
+    /**
+     * Translation of the procedure codes of one store dictionary to engine codes. Immutable, so it can
+     * be replaced without locking when replications share the engine.
+     */
+    private static final class StoreCodes
+    {
+        final StringDictionary dictionary;
+        final int[] codes;
+
+        /**
+         * @param previous The translation to extend if it is of the same dictionary, which only grows, or null
+         */
+        StoreCodes(StringDictionary dictionary, StoreCodes previous, StringDictionary procedures)
+        {
+            this.dictionary = dictionary;
+            int known = previous != null && previous.dictionary == dictionary ? previous.codes.length : 0;
+            codes = known > 0 ? Arrays.copyOf(previous.codes, dictionary.size()) : new int[dictionary.size()];
+            for (int i = known; i < codes.length; i++)
+                codes[i] = procedures.codeOf(dictionary.valueOf(i));
+        }
+    }
+
+    /**
+     * Collects historical durations, then compiles the engine for a set of rooms.
+     */
+    public static final class Builder
+    {
+        private final StringDictionary procedures = new StringDictionary();
+        private final StringDictionary roomTypes = new StringDictionary();
+        /** Observations by procedure code, then by room type code + 1 (0 for all room types) */
+        private final List<List<Observations>> observations = new ArrayList<>();
+
+        /**
+         * @param procedure The procedure
+         * @param roomType The room type, or null if unknown
+         * @param minutes The observed duration, in minutes
+         */
+        public void add(String procedure, String roomType, double minutes)
+        {
+            int p = procedures.intern(procedure);
+            if (p == observations.size())
+                observations.add(new ArrayList<>());
+            List<Observations> byRoomType = observations.get(p);
+            add(byRoomType, 0, minutes);
+            if (roomType != null)
+                add(byRoomType, roomTypes.intern(roomType) + 1, minutes);
+        }
+
+        private static void add(List<Observations> byRoomType, int slot, double minutes)
+        {
+            while (byRoomType.size() <= slot)
+                byRoomType.add(null);
+            if (byRoomType.get(slot) == null)
+                byRoomType.set(slot, new Observations());
+            byRoomType.get(slot).add(minutes);
+        }
+
+        /**
+         * @return number of observations
+         */
+        public long size()
+        {
+            long size = 0;
+            for (List<Observations> byRoomType : observations)
+                size += byRoomType.get(0).count;
+            return size;
+        }
+
+        /**
+         * @return mean of all observed durations in minutes, NaN without observations
+         */
+        public double meanMinutes()
+        {
+            double sum = 0;
+            long count = 0;
+            for (List<Observations> byRoomType : observations)
+            {
+                Observations all = byRoomType.get(0);
+                for (int i = 0; i < all.count; i++)
+                    sum += all.values[i];
+                count += all.count;
+            }
+            return count == 0 ? Double.NaN : sum / count;
+        }
+
+        /**
+         * @param rooms Operating rooms in population order
+         * @param defaultMinutes Duration of procedures without history
+         * @return the engine
+         */
+        public DurationEngine build(List<OperatingRoomRecord> rooms, double defaultMinutes)
+        {
+            List<AliasTable> tables = new ArrayList<>();
+            int[] procedureTable = new int[procedures.size()];
+            Map<Long, Integer> roomTypeTable = new HashMap<>();
+            for (int p = 0; p < procedures.size(); p++)
+            {
+                List<Observations> byRoomType = observations.get(p);
+                procedureTable[p] = tables.size();
+                tables.add(byRoomType.get(0).toTable());
+                for (int t = 1; t < byRoomType.size(); t++)
+                {
+                    Observations o = byRoomType.get(t);
+                    if (o != null && o.count >= MIN_SAMPLES)
+                    {
+                        roomTypeTable.put((long) p << 32 | (t - 1), tables.size());
+                        tables.add(o.toTable());
+                    }
+                }
+            }
+            int[] tableByProcedureRoom = new int[procedures.size() * rooms.size()];
+            double[] turnover = new double[rooms.size()];
+            for (int r = 0; r < rooms.size(); r++)
+            {
+                OperatingRoomRecord room = rooms.get(r);
+                turnover[r] = room.turnoverMinutes;
+                int roomType = room.roomType == null ? -1 : roomTypes.codeOf(room.roomType);
+                for (int p = 0; p < procedures.size(); p++)
+                {
+                    Integer table = roomType < 0 ? null : roomTypeTable.get((long) p << 32 | roomType);
+                    tableByProcedureRoom[p * rooms.size() + r] = table == null ? procedureTable[p] : table;
+                }
+            }
+            Utils.printUpdate("Compiled " + tables.size() + " duration tables for " + procedures.size() + " procedures and " + rooms.size() + " rooms");
+            return new DurationEngine(procedures, tables.toArray(new AliasTable[0]), tableByProcedureRoom, turnover, defaultMinutes);
+        }
+    }
+
+    /**
+     * Growable array of observed durations.
+     */
+    private static final class Observations
+    {
+        double[] values = new double[16];
+        int count;
+
+        void add(double value)
+        {
+            if (count == values.length)
+                values = Arrays.copyOf(values, count * 2);
+            values[count++] = value;
+        }
+
+        AliasTable toTable()
+        {
+            return new AliasTable(Arrays.copyOf(values, count));
+        }
+    }
+
+    /**
+     * Write the compiled tables to a checkpoint.
+     */
+    public void writeTo(ModelCheckpoint.Output out) throws IOException
+    {
+        procedures.writeTo(out);
+        out.writeInt(tables.length);
+        for (AliasTable table : tables)
+            table.writeTo(out);
+        out.writeInt(tableByProcedureRoom.length);
+        for (int table : tableByProcedureRoom)
+            out.writeInt(table);
+        out.writeInt(turnoverMinutes.length);
+        for (double turnover : turnoverMinutes)
+            out.writeDouble(turnover);
+        out.writeDouble(defaultMinutes);
+    }
+
+    /**
+     * Read an engine written by {@link #writeTo}.
+     */
+    public static DurationEngine readFrom(ModelCheckpoint.Input in) throws IOException
+    {
+        StringDictionary procedures = StringDictionary.readFrom(in);
+        AliasTable[] tables = new AliasTable[in.readInt()];
+        for (int i = 0; i < tables.length; i++)
+            tables[i] = AliasTable.readFrom(in);
+        int[] tableByProcedureRoom = new int[in.readInt()];
+        for (int i = 0; i < tableByProcedureRoom.length; i++)
+            tableByProcedureRoom[i] = in.readInt();
+        double[] turnover = new double[in.readInt()];
+        for (int i = 0; i < turnover.length; i++)
+            turnover[i] = in.readDouble();
+        return new DurationEngine(procedures, tables, tableByProcedureRoom, turnover, in.readDouble());
+    }
+
+	@Override
+	public String toString() {
+		return "DurationEngine[" + procedures.size() + " procedures, " + tables.length + " tables, " + roomCount + " rooms]";
+	}
+
+	/**
+	 * This number is here for model snapshot storing purpose<br>
+	 * It needs to be changed when this class gets changed
+	 */
+	private static final long serialVersionUID = 1L;
+
+}
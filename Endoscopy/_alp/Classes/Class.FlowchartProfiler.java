@@ -0,0 +1,315 @@
+/**
+ * FlowchartProfiler
+ *
+ * Event counts and wall clock time of the Main flowchart callbacks, resource choices and logging,
+ * to tell which of them slows a scenario down. Counters are lock-free ({@link LongAdder}) so probes
+ * cost two clock reads and two adds; when the profiler is disabled a probe is one volatile read.
+ * Events per wall clock second are also recorded for each model day; a snapshot includes the day in
+ * progress, up to its last event. A {@link Snapshot} can be written as CSV or JSON at the end of the
+ * run, or periodically from a background thread.
+ *
+ * Wiring: Main creates the profiler On startup, enabled by isProfiling, and writes profileFile On
+ * destroy. Each probed callback, e.g. queue onEnter, is wrapped as
+ * <pre>
+ * long t = profiler.start();
+ * ... existing action ...
+ * profiler.stop(FlowchartProfiler.Probe.QUEUE_ENTER, t);
+ * </pre>
+ * and each pool's part of the seize resource choice condition as
+ * {@code profiler.choice(FlowchartProfiler.Probe.SURGEON_CHOICE, profiler.start(), surgeonSelector.accepts(agent, (Surgeon) unit))}.
+ * The seize block asks the condition once per free unit; {@link SurgeonSelector#accepts(Patient, Surgeon)}
+ * selects the patient's surgeon on the first call and compares indexes on the others, so the probe
+ * counts one selection plus O(1) checks per seize attempt, not a scan per unit.
+ * Logging is probed once the profiler is given to {@link Utils#setProfiler}.
+ */
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+public class FlowchartProfiler implements Closeable
+{
+    /**
+     * The probed callbacks.
+     */
+    public enum Probe
+    {
+        ARRIVAL_EXIT("arrival", "onAtExit"),
+        QUEUE_ENTER("queue", "onEnter"),
+        QUEUE_EXIT("queue", "onExit"),
+        SEIZE_ENTER("seize", "onEnter"),
+        SEIZE_SEIZE("seize", "onSeizeUnit"),
+        SEIZE_EXIT("seize", "onExit"),
+        DELAY_ENTER("delay", "onEnter"),
+        DELAY_EXIT("delay", "onExit"),
+        RELEASE_ENTER("release", "onEnter"),
+        RELEASE_RELEASE("release", "onReleaseUnit"),
+        RELEASE_EXIT("release", "onExit"),
+        SINK_ENTER("sink", "onEnter"),
+        SURGEON_CHOICE("rpSurgeons", "resourceChoice"),
+        OPERATING_ROOM_CHOICE("rpOperatingRooms", "resourceChoice"),
+        LOG("Utils", "print");
+
+        public final String block;
+        public final String callback;
+
+        Probe(String block, String callback)
+        {
+            this.block = block;
+            this.callback = callback;
+        }
+    }
+
+    private final Main main;
+    private final double dayLength;
+    private final LongAdder[] counts = new LongAdder[Probe.values().length];
+    private final LongAdder[] nanos = new LongAdder[Probe.values().length];
+    private volatile boolean enabled = true;
+
+    /** Closed days; also guards the change of the open day, so a snapshot sees each day once */
+    private final List<double[]> days = new ArrayList<>();
+    private volatile long day = Long.MIN_VALUE;
+    private volatile long dayEvents;
+    private volatile long dayStartNanos;
+    private volatile long lastEventNanos;
+
+    private ScheduledExecutorService dumper;
+
+    /**
+     * @param main The model root, giving the model time
+     * @param dayLength Length of a model day in model time units, for the events per second of each day
+     */
+    public FlowchartProfiler(Main main, double dayLength)
+    {
+        this.main = main;
+        this.dayLength = dayLength;
+        for (int i = 0; i < counts.length; i++)
+        {
+            counts[i] = new LongAdder();
+            nanos[i] = new LongAdder();
+        }
+    }
+
+    public void setEnabled(boolean enabled)
+    {
+        this.enabled = enabled;
+    }
+
+    /**
+     * @return the start of a probed callback, to pass to {@link #stop}
+     */
+    public long start()
+    {
+        return enabled ? System.nanoTime() : 0;
+    }
+
+    /**
+     * Count the callback and its time since {@link #start}.
+     */
+    public void stop(Probe probe, long start)
+    {
+        if (start == 0)
+            return;
+        long end = System.nanoTime();
+        counts[probe.ordinal()].increment();
+        nanos[probe.ordinal()].add(end - start);
+        if (probe != Probe.LOG)
+            countEvent(end);
+    }
+
+    /**
+     * Stop a resource choice probe.
+     * @return the choice, unchanged
+     */
+    public boolean choice(Probe probe, long start, boolean accepted)
+    {
+        stop(probe, start);
+        return accepted;
+    }
+
+    /**
+     * Count the events of the current model day, on the model thread only.
+     */
+    private void countEvent(long now)
+    {
+        long currentDay = (long) Math.floor(main.time() / dayLength);
+        if (currentDay != day)
+        {
+            synchronized (days)
+            {
+                if (day != Long.MIN_VALUE)
+                    days.add(dayRow(now));
+                day = currentDay;
+                dayEvents = 0;
+                dayStartNanos = now;
+            }
+        }
+        dayEvents++;
+        lastEventNanos = now;
+    }
+
+    /**
+     * @return the row of the open day: day number, events, events per wall clock second up to the given time
+     */
+    private double[] dayRow(long now)
+    {
+        long events = dayEvents;
+        double seconds = (now - dayStartNanos) / 1e9;
+        return new double[] { day, events, seconds > 0 ? events / seconds : Double.NaN };
+    }
+
+    /**
+     * @return the counters at this time; may be taken from any thread
+     */
+    public Snapshot snapshot()
+    {
+        Probe[] probes = Probe.values();
+        long[] c = new long[probes.length], n = new long[probes.length];
+        for (int i = 0; i < probes.length; i++)
+        {
+            c[i] = counts[i].sum();
+            n[i] = nanos[i].sum();
+        }
+        List<double[]> d;
+        synchronized (days)
+        {
+            d = new ArrayList<>(days);
+            if (day != Long.MIN_VALUE)
+                d.add(dayRow(lastEventNanos));
+        }
+        return new Snapshot(c, n, d);
+    }
+
+    /**
+     * Write a snapshot to the file every period, from a daemon thread, until {@link #close}.
+     * @param file The snapshot file, CSV if its name ends with ".csv", JSON otherwise
+     * @param periodSeconds Wall clock seconds between two snapshots
+     */
+    public synchronized void dumpPeriodically(File file, long periodSeconds)
+    {
+        if (dumper != null)
+            dumper.shutdownNow();
+        dumper = Executors.newSingleThreadScheduledExecutor(task ->
+        {
+            Thread thread = new Thread(task, "profiler-dump");
+            thread.setDaemon(true);
+            return thread;
+        });
+        dumper.scheduleAtFixedRate(() ->
+        {
+            try
+            {
+                snapshot().write(file);
+            }
+            catch (IOException e)
+            {
+                Utils.printWarning("profiler", () -> "Cannot write profile " + file + ": " + e.getMessage());
+            }
+        }, periodSeconds, periodSeconds, TimeUnit.SECONDS);
+    }
+
+    /**
+     * Stop the periodic snapshots.
+     */
+    @Override
+    public synchronized void close()
+    {
+        if (dumper != null)
+            dumper.shutdownNow();
+        dumper = null;
+    }
+
+    /**
+     * Counters of all probes at one time.
+     */
+    public static final class Snapshot
+    {
+        private final long[] counts;
+        private final long[] nanos;
+        /** Per model day, the last one still open: day number, events, events per wall clock second */
+        private final List<double[]> days;
+
+        Snapshot(long[] counts, long[] nanos, List<double[]> days)
+        {
+            this.counts = counts;
+            this.nanos = nanos;
+            this.days = days;
+        }
+
+        public long count(Probe probe)
+        {
+            return counts[probe.ordinal()];
+        }
+
+        /**
+         * @return the total wall clock time of the probe, in nanoseconds
+         */
+        public long nanos(Probe probe)
+        {
+            return nanos[probe.ordinal()];
+        }
+
+        /**
+         * @param file CSV if its name ends with ".csv", JSON otherwise
+         * @throws IOException if the file cannot be written
+         */
+        public void write(File file) throws IOException
+        {
+            File partial = new File(file.getPath() + ".tmp");
+            try (Writer out = new BufferedWriter(new FileWriter(partial)))
+            {
+                if (file.getName().endsWith(".csv"))
+                    writeCsv(out);
+                else
+                    writeJson(out);
+            }
+            if (!partial.renameTo(file) && !(file.delete() && partial.renameTo(file)))
+                throw new IOException("Cannot replace " + file);
+        }
+
+        private void writeCsv(Writer out) throws IOException
+        {
+            out.write("block,callback,count,total_ms,mean_ns\n");
+            for (Probe probe : Probe.values())
+                out.write(probe.block + "," + probe.callback + "," + count(probe) + "," + nanos(probe) / 1e6 + "," + meanNanos(probe) + "\n");
+            out.write("\nmodel_day,events,events_per_second\n");
+            for (double[] d : days)
+                out.write((long) d[0] + "," + (long) d[1] + "," + d[2] + "\n");
+        }
+
+        private void writeJson(Writer out) throws IOException
+        {
+            out.write("{\"probes\":[");
+            Probe[] probes = Probe.values();
+            for (int i = 0; i < probes.length; i++)
+            {
+                Probe probe = probes[i];
+                out.write((i == 0 ? "" : ",") + "\n{\"block\":\"" + probe.block + "\",\"callback\":\"" + probe.callback + "\",\"count\":" + count(probe)
+                    + ",\"totalMs\":" + nanos(probe) / 1e6 + ",\"meanNs\":" + json(meanNanos(probe)) + "}");
+            }
+            out.write("\n],\"days\":[");
+            for (int i = 0; i < days.size(); i++)
+            {
+                double[] d = days.get(i);
+                out.write((i == 0 ? "" : ",") + "\n{\"modelDay\":" + (long) d[0] + ",\"events\":" + (long) d[1] + ",\"eventsPerSecond\":" + json(d[2]) + "}");
+            }
+            out.write("\n]}\n");
+        }
+
+        private double meanNanos(Probe probe)
+        {
+            return count(probe) == 0 ? Double.NaN : (double) nanos(probe) / count(probe);
+        }
+
+        private static String json(double value)
+        {
+            return Double.isNaN(value) || Double.isInfinite(value) ? "null" : Double.toString(value);
+        }
+    }
+
+	@Override
+	public String toString() {
+		return "FlowchartProfiler[" + (enabled ? "enabled" : "disabled") + "]";
+	}
+
+}
@@ -0,0 +1,376 @@
+/**
+ * FlowchartStats
+ *
+ * KPIs of the queue -> seize -> delay -> release -> sink flowchart of Main, by procedure and priority
+ * and in total: waiting time (mean, standard deviation, p50/p95/p99), time in operating room, time in
+ * system, time-weighted queue length, and operating room utilization (time average and per period
+ * quantiles). All estimators are streaming ({@link RunningStats}, {@link P2Quantile},
+ * {@link TimeWeightedStats}), so memory grows with the number of procedure x priority groups and
+ * the patients currently in the flowchart, not with the number of patients simulated.
+ *
+ * Wiring: queue onEnter {@code flowchartStats.queued(agent)}, seize onExit {@code flowchartStats.seized(agent)},
+ * release onEnter {@code flowchartStats.released(agent)}, sink onEnter {@code flowchartStats.exited(agent)}.
+ * Main creates it On startup with one-day utilization periods and writes {@link #writeReport} On destroy
+ * to its kpiFile parameter, if set.
+ * Waiting times and times in system are also given to the {@link RunController} of the run, if any,
+ * and the waiting patients to the {@link ModelCheckpoint} written by Main checkpointEvent.
+ */
+public class FlowchartStats implements Serializable
+{
+    private static final double[] QUANTILES = { 0.5, 0.95, 0.99 };
+
+    private final Main main;
+    private final int roomCount;
+    private final double periodLength;
+
+    private final StringDictionary procedures = new StringDictionary();
+    /** Groups by procedure code << 8 | priority */
+    private final Map<Integer, Group> groups = new TreeMap<>();
+    private final Group total;
+    private final Map<Patient, InFlight> inFlight = new IdentityHashMap<>();
+    /** Number of patients queued so far, orders the patients in flight */
+    private long queuedCount;
+
+    private TimeWeightedStats busyRooms;
+    private RunningStats periodUtilization;
+    private P2Quantile periodUtilizationP5;
+    private P2Quantile periodUtilizationP95;
+    private double periodEnd;
+    private double periodStartIntegral;
+    /** Model time the statistics start from, later than the start of the run after a warm-up truncation */
+    private double statisticsStart;
+
+    private RunController controller;
+
+    /**
+     * @param main The model root, giving the model time
+     * @param roomCount Number of operating rooms, for the utilization
+     * @param periodLength Length in model time of the periods whose utilization is sampled for quantiles (e.g. one day)
+     */
+    public FlowchartStats(Main main, int roomCount, double periodLength)
+    {
+        if (roomCount < 1 || !(periodLength > 0))
+            throw new IllegalArgumentException("Invalid room count " + roomCount + " or period length " + periodLength);
+        this.main = main;
+        this.roomCount = roomCount;
+        this.periodLength = periodLength;
+        double now = main.time();
+        total = new Group(null, -1, now);
+        busyRooms = new TimeWeightedStats(now);
+        resetPeriods(now);
+    }
+
+    private void resetPeriods(double now)
+    {
+        periodUtilization = new RunningStats();
+        periodUtilizationP5 = new P2Quantile(0.05);
+        periodUtilizationP95 = new P2Quantile(0.95);
+        periodEnd = now + periodLength;
+        periodStartIntegral = 0;
+        statisticsStart = now;
+    }
+
+    /**
+     * @param controller The controller receiving waiting times and times in system, or null
+     */
+    public void setRunController(RunController controller)
+    {
+        this.controller = controller;
+    }
+
+    /**
+     * Discard the statistics collected so far, e.g. at the end of the warm-up. Patients in the
+     * flowchart are kept and their waits are counted when they end; queue lengths and busy rooms
+     * carry on from their current level.
+     */
+    public void resetStatistics()
+    {
+        double now = main.time();
+        for (Group group : groups.values())
+            group.reset(now);
+        total.reset(now);
+        TimeWeightedStats busy = new TimeWeightedStats(now);
+        busy.update(now, busyRooms.level());
+        busyRooms = busy;
+        resetPeriods(now);
+        Utils.printUpdate("Flowchart statistics reset at time " + now + ", " + inFlight.size() + " patients in flowchart");
+    }
+
+    /**
+     * The patient entered the queue.
+     */
+    public void queued(Patient patient)
+    {
+        queued(patient, patient.store.procedure(patient.storeIndex), patient.store.priority(patient.storeIndex));
+    }
+
+    /**
+     * @param patient The patient, only used as the key of its timings
+     * @param procedure The procedure of the patient
+     * @param priority The priority of the patient
+     */
+    public void queued(Patient patient, String procedure, int priority)
+    {
+        double now = main.time();
+        // a group first seen now had an empty queue since the statistics start, its time averages cover the same span
+        Group group = groups.computeIfAbsent(procedures.intern(procedure) << 8 | priority, k -> new Group(procedure, priority, statisticsStart));
+        if (inFlight.put(patient, new InFlight(group, now, queuedCount++)) != null)
+            Utils.printWarning("flowchart-stats", () -> "Patient " + patient + " queued twice");
+        group.arrivals++;
+        total.arrivals++;
+        group.queueLength.add(now, 1);
+        total.queueLength.add(now, 1);
+    }
+
+    /**
+     * The patient seized its resources and leaves the queue.
+     */
+    public void seized(Patient patient)
+    {
+        InFlight f = inFlight.get(patient);
+        if (f == null)
+            return;
+        double now = main.time();
+        f.seizedTime = now;
+        f.group.addWait(now - f.queuedTime);
+        total.addWait(now - f.queuedTime);
+        if (controller != null)
+            controller.observe(RunController.Kpi.WAIT, now - f.queuedTime);
+        f.group.queueLength.add(now, -1);
+        total.queueLength.add(now, -1);
+        closePeriods(now);
+        busyRooms.add(now, 1);
+    }
+
+    /**
+     * The patient released its resources.
+     */
+    public void released(Patient patient)
+    {
+        InFlight f = inFlight.get(patient);
+        if (f == null || Double.isNaN(f.seizedTime))
+            return;
+        double now = main.time();
+        f.group.serviceTime.add(now - f.seizedTime);
+        total.serviceTime.add(now - f.seizedTime);
+        f.seizedTime = Double.NaN;
+        closePeriods(now);
+        busyRooms.add(now, -1);
+    }
+
+    /**
+     * The patient left the flowchart.
+     */
+    public void exited(Patient patient)
+    {
+        InFlight f = inFlight.remove(patient);
+        if (f == null)
+            return;
+        double now = main.time();
+        f.group.timeInSystem.add(now - f.queuedTime);
+        total.timeInSystem.add(now - f.queuedTime);
+        if (controller != null)
+            controller.observe(RunController.Kpi.TIME_IN_SYSTEM, now - f.queuedTime);
+    }
+
+    /**
+     * Sample the utilization of every period ended by the given time. Called before each change of
+     * the busy room count, so the count was constant since the last change.
+     */
+    private void closePeriods(double time)
+    {
+        while (periodEnd <= time)
+        {
+            double integral = busyRooms.integral(periodEnd);
+            double utilization = (integral - periodStartIntegral) / (periodLength * roomCount);
+            periodUtilization.add(utilization);
+            periodUtilizationP5.add(utilization);
+            periodUtilizationP95.add(utilization);
+            periodStartIntegral = integral;
+            periodEnd += periodLength;
+        }
+    }
+
+    /**
+     * @return time average of the operating room utilization up to now
+     */
+    public double utilization()
+    {
+        return busyRooms.mean(main.time()) / roomCount;
+    }
+
+    /**
+     * @return number of patients currently in the flowchart
+     */
+    public int inFlightCount()
+    {
+        return inFlight.size();
+    }
+
+    /**
+     * @return the patients waiting for their resources, in the order they entered the queue
+     */
+    public List<Patient> waiting()
+    {
+        List<Map.Entry<Patient, InFlight>> entries = new ArrayList<>();
+        for (Map.Entry<Patient, InFlight> entry : inFlight.entrySet())
+            if (Double.isNaN(entry.getValue().seizedTime))
+                entries.add(entry);
+        entries.sort((a, b) -> Long.compare(a.getValue().sequence, b.getValue().sequence));
+        List<Patient> waiting = new ArrayList<>(entries.size());
+        for (Map.Entry<Patient, InFlight> entry : entries)
+            waiting.add(entry.getKey());
+        return waiting;
+    }
+
+    /**
+     * @return model time the patient entered the queue, or NaN if it is not in the flowchart
+     */
+    public double queuedTime(Patient patient)
+    {
+        InFlight f = inFlight.get(patient);
+        return f == null ? Double.NaN : f.queuedTime;
+    }
+
+    /**
+     * @return the total KPIs by name, followed by those of the {@link RunController} if any, e.g. as the
+     * result of a {@link ReplicationRunner.Replication}
+     */
+    public Map<String, Double> kpis()
+    {
+        double now = main.time();
+        closePeriods(now);
+        Map<String, Double> kpis = new LinkedHashMap<>();
+        kpis.put("statistics_start", statisticsStart);
+        kpis.put("arrivals", (double) total.arrivals);
+        kpis.put("completed", (double) total.timeInSystem.count());
+        kpis.put("wait_mean", total.wait.mean());
+        for (int i = 0; i < QUANTILES.length; i++)
+            kpis.put("wait_p" + Math.round(QUANTILES[i] * 100), total.waitQuantiles[i].value());
+        kpis.put("time_in_system_mean", total.timeInSystem.mean());
+        kpis.put("queue_length_mean", total.queueLength.mean(now));
+        kpis.put("utilization", utilization());
+        kpis.put("period_utilization_p5", periodUtilizationP5.value());
+        kpis.put("period_utilization_p95", periodUtilizationP95.value());
+        if (controller != null)
+            kpis.putAll(controller.kpis());
+        return kpis;
+    }
+
+    /**
+     * Write the KPIs of every procedure x priority group and the total, tab-separated.
+     * @param file The report file
+     * @throws IOException if the file cannot be written
+     */
+    public void writeReport(File file) throws IOException
+    {
+        double now = main.time();
+        closePeriods(now);
+        try (Writer out = new BufferedWriter(new FileWriter(file)))
+        {
+            out.write("procedure\tpriority\tarrivals\tcompleted\twait_mean\twait_sd\twait_p50\twait_p95\twait_p99\twait_max"
+                + "\tservice_mean\ttime_in_system_mean\tqueue_length_mean\tqueue_length_max\n");
+            for (Group group : groups.values())
+                group.write(out, now);
+            total.write(out, now);
+            out.write("\nstatistics_start\t" + statisticsStart + "\n");
+            out.write("utilization\t" + utilization() + "\n");
+            out.write("period_utilization_mean\t" + periodUtilization.mean() + "\n");
+            out.write("period_utilization_p5\t" + periodUtilizationP5.value() + "\n");
+            out.write("period_utilization_p95\t" + periodUtilizationP95.value() + "\n");
+            if (controller != null)
+            {
+                for (Map.Entry<String, Double> kpi : controller.kpis().entrySet())
+                    out.write(kpi.getKey() + "\t" + kpi.getValue() + "\n");
+            }
+        }
+        Utils.printUpdate("Wrote flowchart KPIs of " + groups.size() + " groups to " + file.getName());
+    }
+
+    /**
+     * KPIs of one procedure x priority group, or of all patients when the procedure is null.
+     */
+    private static final class Group implements Serializable
+    {
+        final String procedure;
+        final int priority;
+        long arrivals;
+        RunningStats wait;
+        final P2Quantile[] waitQuantiles = new P2Quantile[QUANTILES.length];
+        RunningStats serviceTime;
+        RunningStats timeInSystem;
+        TimeWeightedStats queueLength;
+
+        Group(String procedure, int priority, double startTime)
+        {
+            this.procedure = procedure;
+            this.priority = priority;
+            queueLength = new TimeWeightedStats(startTime);
+            reset(startTime);
+        }
+
+        /**
+         * Restart the statistics at the given time, the queue length carries on from its current level.
+         */
+        void reset(double time)
+        {
+            arrivals = 0;
+            wait = new RunningStats();
+            for (int i = 0; i < QUANTILES.length; i++)
+                waitQuantiles[i] = new P2Quantile(QUANTILES[i]);
+            serviceTime = new RunningStats();
+            timeInSystem = new RunningStats();
+            TimeWeightedStats length = new TimeWeightedStats(time);
+            length.update(time, queueLength.level());
+            queueLength = length;
+        }
+
+        void addWait(double value)
+        {
+            wait.add(value);
+            for (P2Quantile quantile : waitQuantiles)
+                quantile.add(value);
+        }
+
+        void write(Writer out, double now) throws IOException
+        {
+            out.write((procedure == null ? "TOTAL\t" : procedure + "\t" + priority) + "\t" + arrivals + "\t" + timeInSystem.count()
+                + "\t" + wait.mean() + "\t" + wait.stdDev());
+            for (P2Quantile quantile : waitQuantiles)
+                out.write("\t" + quantile.value());
+            out.write("\t" + wait.max() + "\t" + serviceTime.mean() + "\t" + timeInSystem.mean()
+                + "\t" + queueLength.mean(now) + "\t" + queueLength.max() + "\n");
+        }
+
+        private static final long serialVersionUID = 2L;
+    }
+
+    private static final class InFlight implements Serializable
+    {
+        final Group group;
+        final double queuedTime;
+        final long sequence;
+        double seizedTime = Double.NaN;
+
+        InFlight(Group group, double queuedTime, long sequence)
+        {
+            this.group = group;
+            this.queuedTime = queuedTime;
+            this.sequence = sequence;
+        }
+
+        private static final long serialVersionUID = 2L;
+    }
+
+	@Override
+	public String toString() {
+		return "FlowchartStats[" + groups.size() + " groups, " + total.arrivals + " arrivals, " + inFlight.size() + " in flowchart]";
+	}
+
+	/**
+	 * This number is here for model snapshot storing purpose<br>
+	 * It needs to be changed when this class gets changed
+	 */
+	private static final long serialVersionUID = 3L;
+
+}
@@ -0,0 +1,226 @@
+/**
+ * HeaderResolver
+ *
+ * Resolves file column names to the constants of a {@link ParserHeader} enum. Built once per
+ * enum class and cached: exact base names and prefix base names (ending with "_", matched by
+ * prefix followed by digits such as "skill_1") are kept in hash maps, so resolving a column is
+ * a hash lookup instead of a regex per enum constant.
+ */
+import java.util.concurrent.ConcurrentHashMap;
+
+public final class HeaderResolver<H extends Enum<H> & ParserHeader>
+{
+    private static final Map<Class<?>, HeaderResolver<?>> CACHE = new ConcurrentHashMap<>();
+
+    private final H[] headers;
+    private final Map<String, H> exactNames = new HashMap<>();
+    private final Map<String, H> prefixNames = new HashMap<>();
+
+    private HeaderResolver(Class<H> headerEnum)
+    {
+        headers = headerEnum.getEnumConstants();
+        for (H h : headers)
+        {
+            String base = h.baseName();
+            if (base == null)
+                continue;
+            exactNames.putIfAbsent(base, h);
+            if (base.endsWith("_"))
+                prefixNames.putIfAbsent(base, h);
+        }
+    }
+
+    /**
+     * @param headerEnum The header enum class
+     * @return the cached resolver of the enum
+     */
+    @SuppressWarnings("unchecked")
+    public static <H extends Enum<H> & ParserHeader> HeaderResolver<H> of(Class<H> headerEnum)
+    {
+        return (HeaderResolver<H>) CACHE.computeIfAbsent(headerEnum, c -> new HeaderResolver<>(headerEnum));
+    }
+
+    /**
+     * Determine whether the given column name matches the header, without regex.
+     * @param header The header enum constant to test against
+     * @param columnName Column name read from file header
+     * @return true if columnName equals the base name, or is the prefix base name followed by digits
+     */
+    public boolean matches(H header, String columnName)
+    {
+        if (columnName == null)
+            return false;
+        String name = Utils.removeQuotes(columnName).trim();
+        String base = header.baseName();
+        if (name.equals(base))
+            return true;
+        return base != null && base.endsWith("_") && name.length() > base.length()
+            && name.startsWith(base) && digitsFrom(name, base.length()) == base.length();
+    }
+
+    /**
+     * Resolve a column name to its header, exact base names first, then prefix groups.
+     * @param columnName Column name read from file header
+     * @return the header, or null if the column is not used
+     */
+    public H resolve(String columnName)
+    {
+        if (columnName == null)
+            return null;
+        String name = Utils.removeQuotes(columnName).trim();
+        H header = exactNames.get(name);
+        if (header != null || prefixNames.isEmpty())
+            return header;
+        int digitsStart = digitsFrom(name, 0);
+        if (digitsStart <= 0 || digitsStart == name.length() || name.charAt(digitsStart - 1) != '_')
+            return null;
+        return prefixNames.get(name.substring(0, digitsStart));
+    }
+
+    /**
+     * @return start of the trailing run of ASCII digits of name, not before from
+     */
+    private static int digitsFrom(String name, int from)
+    {
+        int i = name.length();
+        while (i > from && name.charAt(i - 1) >= '0' && name.charAt(i - 1) <= '9')
+            i--;
+        return i;
+    }
+
+    /**
+     * Resolve all columns of a file header.
+     * @param headerNames list of column names from the file header (in order)
+     * @return the column to header mapping
+     */
+    public Mapping<H> map(List<String> headerNames)
+    {
+        return new Mapping<>(this, headerNames);
+    }
+
+    /**
+     * Column to header mapping of one file, with every column of repeated prefix groups.
+     */
+    public static final class Mapping<H extends Enum<H> & ParserHeader>
+    {
+        private static final int[] NO_COLUMNS = new int[0];
+
+        private final H[] headers;
+        private final List<String> headerNames;
+        private final Object[] columnHeaders;
+        private final int[][] columnsByHeader;
+
+        private Mapping(HeaderResolver<H> resolver, List<String> headerNames)
+        {
+            this.headers = resolver.headers;
+            this.headerNames = headerNames;
+            columnHeaders = new Object[headerNames.size()];
+            int[] groupSizes = new int[headers.length];
+            for (int i = 0; i < columnHeaders.length; i++)
+            {
+                H h = resolver.resolve(headerNames.get(i));
+                columnHeaders[i] = h;
+                if (h != null)
+                    groupSizes[h.ordinal()]++;
+            }
+            columnsByHeader = new int[headers.length][];
+            for (int i = 0; i < headers.length; i++)
+                columnsByHeader[i] = groupSizes[i] == 0 ? NO_COLUMNS : new int[groupSizes[i]];
+            Arrays.fill(groupSizes, 0);
+            for (int i = 0; i < columnHeaders.length; i++)
+            {
+                if (columnHeaders[i] == null)
+                    continue;
+                int ordinal = ((Enum<?>) columnHeaders[i]).ordinal();
+                columnsByHeader[ordinal][groupSizes[ordinal]++] = i;
+            }
+        }
+
+        /**
+         * @return all constants of the header enum
+         */
+        public H[] headerEnumConstants()
+        {
+            return headers;
+        }
+
+        /**
+         * @return number of columns of the file header
+         */
+        public int columnCount()
+        {
+            return columnHeaders.length;
+        }
+
+        /**
+         * @return column names of the file header, in column order
+         */
+        public List<String> headerNames()
+        {
+            return headerNames;
+        }
+
+        /**
+         * @return the header of the column, or null if the column is not used
+         */
+        @SuppressWarnings("unchecked")
+        public H headerAt(int column)
+        {
+            return (H) columnHeaders[column];
+        }
+
+        /**
+         * @return the cleaned name of the column in the file header
+         */
+        public String columnName(int column)
+        {
+            return Utils.removeQuotes(headerNames.get(column)).trim();
+        }
+
+        /**
+         * @return the columns of the header in file order (several for a prefix group), empty if absent
+         */
+        public int[] columns(H header)
+        {
+            return columnsByHeader[header.ordinal()];
+        }
+
+        /**
+         * @return the first column of the header, -1 if absent
+         */
+        public int firstColumn(H header)
+        {
+            int[] columns = columnsByHeader[header.ordinal()];
+            return columns.length == 0 ? -1 : columns[0];
+        }
+
+        /**
+         * @return base names of the non-optional headers without any column
+         */
+        public List<String> missingRequired()
+        {
+            List<String> missing = new ArrayList<>();
+            for (H h : headers)
+            {
+                if (!h.optional() && columnsByHeader[h.ordinal()].length == 0)
+                    missing.add(h.baseName());
+            }
+            return missing;
+        }
+
+        /**
+         * @return non-empty column names that match no header
+         */
+        public List<String> unusedColumns()
+        {
+            List<String> unused = new ArrayList<>();
+            for (int i = 0; i < columnHeaders.length; i++)
+            {
+                String col = headerNames.get(i);
+                if (columnHeaders[i] == null && col != null && !col.trim().isEmpty())
+                    unused.add(col);
+            }
+            return unused;
+        }
+    }
+}
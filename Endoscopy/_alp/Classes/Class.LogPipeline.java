@@ -0,0 +1,196 @@
+/**
+ * LogPipeline
+ *
+ * Asynchronous sink behind the Utils print methods. Callers only check the level, apply the
+ * per key limit and queue the message with the model time; a daemon thread formats the lines
+ * and writes them to a file or to the process console (System.out, warnings to System.err),
+ * so bulk loads do not wait on console I/O. The drain thread never calls into the model: the
+ * AnyLogic console (traceln) is only safe from the model thread. The queue is bounded: when it
+ * is full, messages are dropped and counted instead of blocking the model.
+ */
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+public class LogPipeline implements Closeable
+{
+    /** Queue capacity, messages beyond it are dropped */
+    private static final int CAPACITY = 8192;
+    /** Default number of messages printed per key before the key is suppressed */
+    public static final int DEFAULT_KEY_LIMIT = 100;
+
+    public enum Level
+    {
+        UPDATE, WARNING, DEBUG
+    }
+
+    private final Main main;
+    private final Writer file;
+    private final ArrayBlockingQueue<Entry> queue = new ArrayBlockingQueue<>(CAPACITY);
+    private final Map<String, AtomicInteger> keyCounts = new ConcurrentHashMap<>();
+    private final AtomicInteger dropped = new AtomicInteger();
+    /** Model time of the last queued message, stamped on the drop report by the drain thread */
+    private volatile double lastTime;
+    private final Thread drainer;
+    private volatile int keyLimit = DEFAULT_KEY_LIMIT;
+    private volatile FlowchartProfiler profiler;
+    private volatile boolean closed;
+
+    /**
+     * Start the pipeline and its drain thread.
+     * @param main The model root, giving the model time
+     * @param logFile The file receiving the lines, or null for the process console
+     * @throws IOException if the file cannot be opened
+     */
+    public LogPipeline(Main main, File logFile) throws IOException
+    {
+        this.main = main;
+        this.file = logFile == null ? null : new BufferedWriter(new FileWriter(logFile));
+        drainer = new Thread(this::drain, "log-pipeline");
+        drainer.setDaemon(true);
+        drainer.start();
+    }
+
+    /**
+     * @param limit Number of messages printed per key before the key is suppressed until {@link #flushSuppressed}
+     */
+    public void setKeyLimit(int limit)
+    {
+        keyLimit = limit;
+    }
+
+    /**
+     * @param profiler Profiler receiving the time spent by callers in {@link #log}, or null
+     */
+    public void setProfiler(FlowchartProfiler profiler)
+    {
+        this.profiler = profiler;
+    }
+
+    /**
+     * Queue a message.
+     * @param level The message level, already checked as enabled
+     * @param key The rate limit key, or null for no limit
+     * @param message The message
+     */
+    public void log(Level level, String key, String message)
+    {
+        FlowchartProfiler p = profiler;
+        long start = p == null ? 0 : p.start();
+        if (key == null || allow(key))
+            enqueue(level, message);
+        if (p != null)
+            p.stop(FlowchartProfiler.Probe.LOG, start);
+    }
+
+    /**
+     * Queue a message built only if it passes the key limit. The message is built on the calling thread.
+     * @param level The message level, already checked as enabled
+     * @param key The rate limit key, or null for no limit
+     * @param message Builds the message
+     */
+    public void log(Level level, String key, Supplier<String> message)
+    {
+        FlowchartProfiler p = profiler;
+        long start = p == null ? 0 : p.start();
+        if (key == null || allow(key))
+            enqueue(level, message.get());
+        if (p != null)
+            p.stop(FlowchartProfiler.Probe.LOG, start);
+    }
+
+    private boolean allow(String key)
+    {
+        return keyCounts.computeIfAbsent(key, k -> new AtomicInteger()).incrementAndGet() <= keyLimit;
+    }
+
+    private void enqueue(Level level, String message)
+    {
+        double time = lastTime = main.time();
+        if (closed || !queue.offer(new Entry(level, time, message)))
+            dropped.incrementAndGet();
+    }
+
+    /**
+     * Report how many messages of the key were suppressed, and reset its limit.
+     * @param key The rate limit key
+     */
+    public void flushSuppressed(String key)
+    {
+        AtomicInteger count = keyCounts.remove(key);
+        int suppressed = count == null ? 0 : count.get() - keyLimit;
+        if (suppressed > 0)
+            enqueue(Level.WARNING, suppressed + " more messages suppressed: " + key);
+    }
+
+    private void drain()
+    {
+        try
+        {
+            while (!closed || !queue.isEmpty())
+            {
+                Entry entry = queue.poll(100, TimeUnit.MILLISECONDS);
+                if (entry != null)
+                    write(entry);
+                else if (file != null)
+                    file.flush();
+            }
+            int lost = dropped.get();
+            if (lost > 0)
+                write(new Entry(Level.WARNING, lastTime, lost + " messages dropped, log queue full"));
+            if (file != null)
+                file.close();
+        }
+        catch (InterruptedException | IOException e)
+        {
+            // the log is best effort, stop draining
+        }
+    }
+
+    private void write(Entry entry) throws IOException
+    {
+        String line = entry.level + " (time " + String.format("%.2f", entry.time) + "): " + entry.message;
+        if (file != null)
+        {
+            file.write(line);
+            file.write(System.lineSeparator());
+        }
+        else if (entry.level == Level.WARNING)
+            System.err.println(line);
+        else
+            System.out.println(line);
+    }
+
+    /**
+     * Stop accepting messages, write the queued ones and wait for the drain thread.
+     */
+    @Override
+    public void close()
+    {
+        closed = true;
+        try
+        {
+            drainer.join();
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static final class Entry
+    {
+        final Level level;
+        final double time;
+        final String message;
+
+        Entry(Level level, double time, String message)
+        {
+            this.level = level;
+            this.time = time;
+            this.message = message;
+        }
+    }
+}
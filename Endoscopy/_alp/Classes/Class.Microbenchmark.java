@@ -0,0 +1,157 @@
+/**
+ * Microbenchmark
+ *
+ * Minimal benchmark harness for the load paths: each benchmark runs warm-up iterations, then
+ * measured iterations of a fixed duration, and reports the time per operation (mean, standard
+ * deviation and best over the iterations). Results of the operations are folded into a volatile
+ * sink so the JIT cannot drop the work. Single-shot benchmarks (whole file parses) time one
+ * operation per iteration.
+ */
+public class Microbenchmark
+{
+    /**
+     * One benchmarked operation.
+     */
+    public interface Operation
+    {
+        /**
+         * @param invocation Invocation number, to vary the input
+         * @return any value derived from the work
+         * @throws Exception if the operation fails, the benchmark is aborted
+         */
+        long run(int invocation) throws Exception;
+    }
+
+    private final int warmupIterations;
+    private final int measuredIterations;
+    private final long iterationNanos;
+    private final List<Result> results = new ArrayList<>();
+    private volatile long sink;
+
+    /**
+     * @param warmupIterations Iterations run before measuring
+     * @param measuredIterations Iterations measured
+     * @param iterationMillis Duration of each iteration of a repeated benchmark
+     */
+    public Microbenchmark(int warmupIterations, int measuredIterations, long iterationMillis)
+    {
+        if (measuredIterations < 1 || iterationMillis < 1)
+            throw new IllegalArgumentException("Invalid benchmark iterations " + measuredIterations + " of " + iterationMillis + " ms");
+        this.warmupIterations = warmupIterations;
+        this.measuredIterations = measuredIterations;
+        this.iterationNanos = iterationMillis * 1_000_000L;
+    }
+
+    /**
+     * Benchmark a short operation, repeated for the iteration duration.
+     * @param name The benchmark name
+     * @param operation The operation
+     * @return the result
+     * @throws Exception if the operation fails
+     */
+    public Result run(String name, Operation operation) throws Exception
+    {
+        RunningStats nanosPerOp = new RunningStats();
+        int invocation = 0;
+        for (int i = 0; i < warmupIterations + measuredIterations; i++)
+        {
+            long folded = 0, ops = 0;
+            long start = System.nanoTime(), elapsed;
+            do
+            {
+                for (int k = 0; k < 64; k++)
+                    folded += operation.run(invocation++);
+                ops += 64;
+                elapsed = System.nanoTime() - start;
+            }
+            while (elapsed < iterationNanos);
+            sink += folded;
+            if (i >= warmupIterations)
+                nanosPerOp.add((double) elapsed / ops);
+        }
+        return record(name, nanosPerOp);
+    }
+
+    /**
+     * Benchmark a long operation, one invocation per iteration.
+     * @param name The benchmark name
+     * @param operation The operation
+     * @return the result
+     * @throws Exception if the operation fails
+     */
+    public Result runSingleShot(String name, Operation operation) throws Exception
+    {
+        RunningStats nanosPerOp = new RunningStats();
+        for (int i = 0; i < warmupIterations + measuredIterations; i++)
+        {
+            long start = System.nanoTime();
+            sink += operation.run(i);
+            long elapsed = System.nanoTime() - start;
+            if (i >= warmupIterations)
+                nanosPerOp.add(elapsed);
+        }
+        return record(name, nanosPerOp);
+    }
+
+    private Result record(String name, RunningStats nanosPerOp)
+    {
+        Result result = new Result(name, nanosPerOp.mean(), nanosPerOp.stdDev(), nanosPerOp.min());
+        results.add(result);
+        Utils.printUpdate(result.toString());
+        return result;
+    }
+
+    /**
+     * @return the results, in run order
+     */
+    public List<Result> results()
+    {
+        return Collections.unmodifiableList(results);
+    }
+
+    /**
+     * Write the results, tab-separated, for comparison between versions.
+     * @param file The result file
+     * @throws IOException if the file cannot be written
+     */
+    public void writeResults(File file) throws IOException
+    {
+        try (Writer out = new BufferedWriter(new FileWriter(file)))
+        {
+            out.write("benchmark\tns_per_op\tstd_dev\tbest\n");
+            for (Result result : results)
+                out.write(result.name + "\t" + result.nanosPerOp + "\t" + result.stdDev + "\t" + result.best + "\n");
+        }
+    }
+
+    /**
+     * Time per operation of one benchmark, in nanoseconds.
+     */
+    public static final class Result
+    {
+        public final String name;
+        public final double nanosPerOp;
+        public final double stdDev;
+        public final double best;
+
+        Result(String name, double nanosPerOp, double stdDev, double best)
+        {
+            this.name = name;
+            this.nanosPerOp = nanosPerOp;
+            this.stdDev = stdDev;
+            this.best = best;
+        }
+
+        @Override
+        public String toString()
+        {
+            return String.format("%s: %.1f ns/op (sd %.1f, best %.1f)", name, nanosPerOp, stdDev, best);
+        }
+    }
+
+	@Override
+	public String toString() {
+		return "Microbenchmark[" + results.size() + " results]";
+	}
+
+}
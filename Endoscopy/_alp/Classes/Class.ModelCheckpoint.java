@@ -0,0 +1,809 @@
+/**
+ * ModelCheckpoint
+ *
+ * Compact checkpoint of a warmed-up run, so that replications start from a steady state instead of
+ * simulating the warm-up period again. It holds the patients in flight (waiting in queue, or in delay
+ * with their operating room, surgeon and remaining time), the arrival position, the rooms still being
+ * cleaned ({@link RoomTurnover}) and, optionally, the parsed {@link ModelInputs} and the states of the
+ * pool units.
+ *
+ * The checkpoint is written record by record as the flowchart is walked, with explicit encoding
+ * rather than default serialization: integers as varints (signed ones zigzag encoded), scheduled
+ * datetimes as deltas, and procedures and surgeon ids as codes into a string table built while
+ * writing. The stream can also be deflated. It is written to a temporary file and moved in place.
+ *
+ * A restored run starts with its start date set to {@link Restored#dateMillis()}: in-flight times are
+ * stored relative to the checkpoint time. The random number generator is not part of the checkpoint,
+ * so each replication continues the steady state with its own seed. Other run state is rebuilt rather
+ * than stored: the surgeon duty states by {@link ShiftTimeline#start} from the start date, the queue
+ * order from the priority and scheduled datetime of the restored patients (in their captured order for
+ * equal keys), and the statistics start afresh. The {@link DailyBlockScheduler} plan is not stored, so
+ * Main rejects a restore while isPlanningDays.
+ *
+ * Wiring: Main checkpointEvent, restarted On startup to checkpointDays when checkpointFile is set, writes
+ * <pre>
+ * try (ModelCheckpoint.Writer w = ModelCheckpoint.create(new File(checkpointFile), true, time(), date().getTime(), feed.injectedCount()))
+ * {
+ *     w.inputs(inputs);
+ *     for (int i = 0; i < delay.size(); i++) w.inDelay(delay.get(i), room, surgeon, delay.getRemainingTime(delay.get(i)));
+ *     for (Patient p : flowchartStats.waiting()) w.queued(p, time() - flowchartStats.queuedTime(p));
+ *     w.roomTurnover(roomTurnover, time());
+ *     w.commit();
+ * }
+ * </pre>
+ * On startup with restoreFile set, {@code restored = ModelCheckpoint.read(file)} gives the inputs, then
+ * {@code feed.skip(restored.arrivalCount())}, {@code roomTurnover = restored.roomTurnover(time())} and
+ * {@code restored.injectAll(this)}; arrival onAtExit binds with {@link Restored#bindNext} while
+ * {@link Restored#pendingCount()} is positive, the seize resource choice keeps {@link Restored#plannedRoom} and
+ * {@link Restored#plannedSurgeon} and refuses the units still held to the other patients until seize onExit
+ * calls {@link Restored#seized}, and delay delayTime uses {@link Restored#remainingDelay} when it is not NaN.
+ */
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+public final class ModelCheckpoint
+{
+    private static final int MAGIC = 0x454E4443;
+    private static final int VERSION = 2;
+    private static final int FLAG_DEFLATED = 1;
+
+    private static final int TAG_END = 0;
+    private static final int TAG_INPUTS = 1;
+    private static final int TAG_QUEUED = 2;
+    private static final int TAG_IN_DELAY = 3;
+    private static final int TAG_UNITS = 4;
+    private static final int TAG_TURNOVER = 5;
+
+    /** Unit states of {@link Writer#units} */
+    public static final byte UNIT_IDLE = 0;
+    public static final byte UNIT_BUSY = 1;
+    public static final byte UNIT_OFF_DUTY = 2;
+
+    private ModelCheckpoint()
+    {
+    }
+
+    /**
+     * Start a checkpoint.
+     * @param file The checkpoint file
+     * @param deflate True to compress the stream
+     * @param modelTime Model time of the checkpoint
+     * @param dateMillis Model date of the checkpoint, in epoch milliseconds
+     * @param arrivalCount Number of patients already injected by the arrival source
+     * @return the writer, to commit once every record is written
+     * @throws IOException if the file cannot be written
+     */
+    public static Writer create(File file, boolean deflate, double modelTime, long dateMillis, int arrivalCount) throws IOException
+    {
+        return new Writer(file, deflate, modelTime, dateMillis, arrivalCount);
+    }
+
+    /**
+     * Streams the records of a checkpoint.
+     */
+    public static final class Writer implements Closeable
+    {
+        private final File file;
+        private final File partial;
+        private final Output out;
+        private int queuedCount;
+        private int inDelayCount;
+        private boolean closed;
+
+        private Writer(File file, boolean deflate, double modelTime, long dateMillis, int arrivalCount) throws IOException
+        {
+            this.file = file;
+            this.partial = new File(file.getPath() + ".tmp");
+            OutputStream stream = new FileOutputStream(partial);
+            try
+            {
+                DataOutputStream prelude = new DataOutputStream(stream);
+                prelude.writeInt(MAGIC);
+                prelude.writeByte(VERSION);
+                prelude.writeByte(deflate ? FLAG_DEFLATED : 0);
+                if (deflate)
+                    stream = new DeflaterOutputStream(stream, new Deflater(Deflater.BEST_SPEED), 1 << 16);
+                out = new Output(new BufferedOutputStream(stream, 1 << 16));
+                out.writeDouble(modelTime);
+                out.writeSignedLong(dateMillis);
+                out.writeInt(arrivalCount);
+            }
+            catch (IOException e)
+            {
+                stream.close();
+                throw e;
+            }
+        }
+
+        /**
+         * Write the parsed input data, to restore without parsing the input files. Patients streamed
+         * by an {@link ArrivalFeed} (no patient store) are read from the patient file again.
+         */
+        public void inputs(ModelInputs inputs) throws IOException
+        {
+            out.writeInt(TAG_INPUTS);
+            out.writeInt(inputs.patients == null ? 0 : 1);
+            if (inputs.patients != null)
+                inputs.patients.writeTo(out);
+            out.writeInt(inputs.surgeons.size());
+            for (SurgeonRecord surgeon : inputs.surgeons)
+            {
+                out.writeString(surgeon.surgeonId);
+                out.writeString(surgeon.name);
+                out.writeInt(surgeon.skills.size());
+                for (String skill : surgeon.skills)
+                    out.writeToken(skill);
+                out.writeSignedInt(surgeon.shiftStart);
+                out.writeSignedInt(surgeon.shiftEnd);
+            }
+            out.writeInt(inputs.operatingRooms.size());
+            for (OperatingRoomRecord room : inputs.operatingRooms)
+            {
+                out.writeString(room.orId);
+                out.writeToken(room.roomType);
+                out.writeDouble(room.turnoverMinutes);
+            }
+            inputs.durations.writeTo(out);
+        }
+
+        /**
+         * Write a patient waiting in queue.
+         * @param waited Model time the patient has waited so far
+         */
+        public void queued(Patient patient, double waited) throws IOException
+        {
+            out.writeInt(TAG_QUEUED);
+            writePatient(patient);
+            out.writeDouble(waited);
+            queuedCount++;
+        }
+
+        /**
+         * Write a patient in delay, holding its operating room and surgeon.
+         * @param room Population index of the operating room
+         * @param surgeon Population index of the surgeon
+         * @param remaining Model time left in delay
+         */
+        public void inDelay(Patient patient, int room, int surgeon, double remaining) throws IOException
+        {
+            out.writeInt(TAG_IN_DELAY);
+            writePatient(patient);
+            out.writeInt(room);
+            out.writeInt(surgeon);
+            out.writeDouble(remaining);
+            inDelayCount++;
+        }
+
+        /**
+         * Write the unit states of a resource pool.
+         * @param pool The pool name
+         * @param states One of UNIT_IDLE, UNIT_BUSY or UNIT_OFF_DUTY per unit, by unit index
+         */
+        public void units(String pool, byte[] states) throws IOException
+        {
+            out.writeInt(TAG_UNITS);
+            out.writeString(pool);
+            out.writeInt(states.length);
+            out.write(states);
+        }
+
+        /**
+         * Write the rooms being cleaned, with the time left until each is ready.
+         * @param now The current model time
+         */
+        public void roomTurnover(RoomTurnover turnover, double now) throws IOException
+        {
+            double[] remaining = turnover.remaining(now);
+            out.writeInt(TAG_TURNOVER);
+            out.writeInt(remaining.length);
+            for (double time : remaining)
+                out.writeDouble(time);
+        }
+
+        private void writePatient(Patient patient) throws IOException
+        {
+            PatientStore store = patient.store;
+            int index = patient.storeIndex;
+            out.writeString(store.patientId(index));
+            out.writeSignedLong(store.scheduledMillis(index));
+            out.writeToken(store.procedure(index));
+            out.writeToken(store.preferredSurgeon(index));
+            out.writeInt(store.priority(index));
+        }
+
+        /**
+         * End the checkpoint and move it in place.
+         * @throws IOException if the checkpoint cannot be written, it is then discarded
+         */
+        public void commit() throws IOException
+        {
+            if (closed)
+                throw new IllegalStateException("Checkpoint already closed: " + file);
+            closed = true;
+            try
+            {
+                out.writeInt(TAG_END);
+                out.close();
+                try
+                {
+                    Files.move(partial.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                }
+                catch (AtomicMoveNotSupportedException e)
+                {
+                    Files.move(partial.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+                }
+            }
+            finally
+            {
+                partial.delete();
+            }
+            Utils.printUpdate("Checkpoint " + file.getName() + ": " + inDelayCount + " patients in delay, " + queuedCount
+                + " in queue, " + file.length() + " bytes");
+        }
+
+        /**
+         * Discard the checkpoint unless it was committed, the previous checkpoint file is left unchanged.
+         */
+        @Override
+        public void close() throws IOException
+        {
+            if (closed)
+                return;
+            closed = true;
+            try
+            {
+                out.close();
+            }
+            finally
+            {
+                partial.delete();
+            }
+        }
+    }
+
+    /**
+     * Read a checkpoint.
+     * @param file The checkpoint file
+     * @return the restored state
+     * @throws FileFormatException if the file is not a checkpoint of this version
+     * @throws IOException on read error
+     */
+    public static Restored read(File file) throws IOException
+    {
+        InputStream stream = new FileInputStream(file);
+        try
+        {
+            DataInputStream prelude = new DataInputStream(stream);
+            if (prelude.readInt() != MAGIC)
+                throw new FileFormatException("Not a checkpoint: " + file.getName());
+            int version = prelude.readUnsignedByte();
+            if (version != VERSION)
+                throw new FileFormatException("Unsupported checkpoint version " + version + ": " + file.getName());
+            if ((prelude.readUnsignedByte() & FLAG_DEFLATED) != 0)
+                stream = new InflaterInputStream(stream, new Inflater(), 1 << 16);
+            return new Restored(new Input(new BufferedInputStream(stream, 1 << 16)));
+        }
+        finally
+        {
+            stream.close();
+        }
+    }
+
+    /**
+     * The state read from a checkpoint. Patients in flight are injected again with {@link #injectAll},
+     * patients in delay first so they take back their units before the queue is served.
+     */
+    public static final class Restored
+    {
+        private final double modelTime;
+        private final long dateMillis;
+        private final int arrivalCount;
+        private ModelInputs inputs;
+        private final Map<String, byte[]> units = new LinkedHashMap<>();
+        /** Time left until each room is ready, or null if not written */
+        private double[] turnover;
+
+        /** Patients in flight, bound in injection order: in delay, then queued */
+        private final PatientStore store;
+        private final int[] injectionOrder;
+        private final int[] room;
+        private final int[] surgeon;
+        /** Remaining delay, NaN for queued patients */
+        private final double[] remaining;
+        private final double[] waited;
+        private int bound;
+        /** Units of the patients in delay not seized again yet, refused to the other patients */
+        private final BitSet heldRooms = new BitSet();
+        private final BitSet heldSurgeons = new BitSet();
+
+        private Restored(Input in) throws IOException
+        {
+            modelTime = in.readDouble();
+            dateMillis = in.readSignedLong();
+            arrivalCount = in.readInt();
+            PatientStore.Builder patients = new PatientStore.Builder();
+            List<Flight> flights = new ArrayList<>();
+            int inDelayCount = 0;
+            for (int tag = in.readInt(); tag != TAG_END; tag = in.readInt())
+            {
+                switch (tag)
+                {
+                    case TAG_INPUTS:
+                        inputs = readInputs(in);
+                        break;
+                    case TAG_QUEUED:
+                    case TAG_IN_DELAY:
+                        Flight flight = new Flight(flights.size(), in.readString(), in.readSignedLong());
+                        patients.add(flight.patientId, flight.scheduledMillis, in.readToken(), in.readToken(), in.readInt());
+                        if (tag == TAG_QUEUED)
+                            flight.waited = in.readDouble();
+                        else
+                        {
+                            flight.room = in.readInt();
+                            flight.surgeon = in.readInt();
+                            flight.remaining = in.readDouble();
+                            inDelayCount++;
+                        }
+                        flights.add(flight);
+                        break;
+                    case TAG_UNITS:
+                        String pool = in.readString();
+                        byte[] states = new byte[in.readInt()];
+                        in.readFully(states);
+                        units.put(pool, states);
+                        break;
+                    case TAG_TURNOVER:
+                        turnover = new double[in.readInt()];
+                        for (int r = 0; r < turnover.length; r++)
+                            turnover[r] = in.readDouble();
+                        break;
+                    default:
+                        throw new FileFormatException("Corrupted checkpoint, unknown record " + tag);
+                }
+            }
+            store = PatientStore.merge(Collections.singletonList(patients));
+
+            // the merge sorts stably by scheduled datetime, then id: sorting the records the same way gives their store index
+            List<Flight> sorted = new ArrayList<>(flights);
+            sorted.sort(Comparator.<Flight>comparingLong(f -> f.scheduledMillis).thenComparing(f -> f.patientId));
+            int size = flights.size();
+            room = new int[size];
+            surgeon = new int[size];
+            remaining = new double[size];
+            waited = new double[size];
+            int[] indexOfRecord = new int[size];
+            for (int i = 0; i < size; i++)
+            {
+                Flight flight = sorted.get(i);
+                indexOfRecord[flight.record] = i;
+                room[i] = flight.room;
+                surgeon[i] = flight.surgeon;
+                remaining[i] = flight.remaining;
+                waited[i] = flight.waited;
+                if (flight.room >= 0)
+                    heldRooms.set(flight.room);
+                if (flight.surgeon >= 0)
+                    heldSurgeons.set(flight.surgeon);
+            }
+            injectionOrder = new int[size];
+            int next = 0;
+            for (Flight flight : flights)
+            {
+                if (!Double.isNaN(flight.remaining))
+                    injectionOrder[next++] = indexOfRecord[flight.record];
+            }
+            for (Flight flight : flights)
+            {
+                if (Double.isNaN(flight.remaining))
+                    injectionOrder[next++] = indexOfRecord[flight.record];
+            }
+            Utils.printUpdate("Restored checkpoint at time " + modelTime + ": " + inDelayCount + " patients in delay, " + (size - inDelayCount) + " in queue");
+        }
+
+        /**
+         * A patient in flight while it is read.
+         */
+        private static final class Flight
+        {
+            final int record;
+            final String patientId;
+            final long scheduledMillis;
+            int room = -1;
+            int surgeon = -1;
+            double remaining = Double.NaN;
+            double waited;
+
+            Flight(int record, String patientId, long scheduledMillis)
+            {
+                this.record = record;
+                this.patientId = patientId;
+                this.scheduledMillis = scheduledMillis;
+            }
+        }
+
+        private static ModelInputs readInputs(Input in) throws IOException
+        {
+            PatientStore patients = in.readInt() != 0 ? PatientStore.readFrom(in) : null;
+            List<SurgeonRecord> surgeons = new ArrayList<>();
+            for (int s = in.readInt(); s > 0; s--)
+            {
+                String id = in.readString();
+                String name = in.readString();
+                List<String> skills = new ArrayList<>();
+                for (int k = in.readInt(); k > 0; k--)
+                    skills.add(in.readToken());
+                surgeons.add(new SurgeonRecord(id, name, skills, in.readSignedInt(), in.readSignedInt()));
+            }
+            List<OperatingRoomRecord> rooms = new ArrayList<>();
+            for (int r = in.readInt(); r > 0; r--)
+                rooms.add(new OperatingRoomRecord(in.readString(), in.readToken(), in.readDouble()));
+            return new ModelInputs(patients, surgeons, rooms, DurationEngine.readFrom(in));
+        }
+
+        /**
+         * @return model time of the checkpoint in the run that wrote it
+         */
+        public double modelTime()
+        {
+            return modelTime;
+        }
+
+        /**
+         * @return model date of the checkpoint in epoch milliseconds, the start date of the restored run
+         */
+        public long dateMillis()
+        {
+            return dateMillis;
+        }
+
+        /**
+         * @return number of patients the arrival source had injected, to skip
+         */
+        public int arrivalCount()
+        {
+            return arrivalCount;
+        }
+
+        /**
+         * @return the parsed input data, or null if the checkpoint does not hold it
+         */
+        public ModelInputs inputs()
+        {
+            return inputs;
+        }
+
+        /**
+         * @param now The current model time of the restored run
+         * @return the rooms being cleaned at the checkpoint, with their ready times moved to now, or null if not written
+         */
+        public RoomTurnover roomTurnover(double now)
+        {
+            return turnover == null ? null : RoomTurnover.restore(turnover, now);
+        }
+
+        /**
+         * @return the unit states of the pool by unit index, or null if the pool was not written
+         */
+        public byte[] units(String pool)
+        {
+            return units.get(pool);
+        }
+
+        /**
+         * Inject the patients in flight into the arrival source.
+         */
+        public void injectAll(Main main)
+        {
+            if (injectionOrder.length > bound)
+                main.arrival.inject(injectionOrder.length - bound);
+        }
+
+        /**
+         * @return number of injected patients not bound yet
+         */
+        public int pendingCount()
+        {
+            return injectionOrder.length - bound;
+        }
+
+        /**
+         * Bind an agent created by the arrival source to the next patient in flight.
+         * @throws IllegalStateException if every patient in flight is bound
+         */
+        public void bindNext(Patient patient)
+        {
+            if (bound == injectionOrder.length)
+                throw new IllegalStateException("All restored patients are bound");
+            store.bind(patient, injectionOrder[bound++]);
+        }
+
+        private int index(Patient patient)
+        {
+            return patient.store == store ? patient.storeIndex : -1;
+        }
+
+        /**
+         * @return true if the patient was in flight at the checkpoint
+         */
+        public boolean isRestored(Patient patient)
+        {
+            return index(patient) >= 0;
+        }
+
+        /**
+         * @return the operating room held by the patient in delay, or -1
+         */
+        public int plannedRoom(Patient patient)
+        {
+            int index = index(patient);
+            return index < 0 ? -1 : room[index];
+        }
+
+        /**
+         * @return the surgeon held by the patient in delay, or -1
+         */
+        public int plannedSurgeon(Patient patient)
+        {
+            int index = index(patient);
+            return index < 0 ? -1 : surgeon[index];
+        }
+
+        /**
+         * @return true if the operating room is held by a patient in delay that has not seized it again
+         */
+        public boolean isRoomHeld(int room)
+        {
+            return heldRooms.get(room);
+        }
+
+        /**
+         * @return true if the surgeon is held by a patient in delay that has not seized it again
+         */
+        public boolean isSurgeonHeld(int surgeon)
+        {
+            return heldSurgeons.get(surgeon);
+        }
+
+        /**
+         * The patient seized its units, those it held at the checkpoint are no longer refused to the others.
+         */
+        public void seized(Patient patient)
+        {
+            int index = index(patient);
+            if (index < 0)
+                return;
+            if (room[index] >= 0)
+                heldRooms.clear(room[index]);
+            if (surgeon[index] >= 0)
+                heldSurgeons.clear(surgeon[index]);
+        }
+
+        /**
+         * @return the model time left in delay, or NaN if the patient was not in delay
+         */
+        public double remainingDelay(Patient patient)
+        {
+            int index = index(patient);
+            return index < 0 ? Double.NaN : remaining[index];
+        }
+
+        /**
+         * @return the model time the patient had waited in queue, 0 if it was not queued
+         */
+        public double waitedBefore(Patient patient)
+        {
+            int index = index(patient);
+            return index < 0 ? 0 : waited[index];
+        }
+
+        @Override
+        public String toString()
+        {
+            return "ModelCheckpoint.Restored[time " + modelTime + ", " + injectionOrder.length + " patients in flight]";
+        }
+    }
+
+    /**
+     * Varint encoding of a checkpoint stream. Tokens (repeated strings) are written once and then
+     * referred to by their code.
+     */
+    public static final class Output implements Closeable
+    {
+        private final OutputStream out;
+        private final Map<String, Integer> tokens = new HashMap<>();
+
+        Output(OutputStream out)
+        {
+            this.out = out;
+        }
+
+        /**
+         * Write a non-negative int in 1 to 5 bytes.
+         */
+        public void writeInt(int value) throws IOException
+        {
+            writeLong(value & 0xFFFFFFFFL);
+        }
+
+        /**
+         * Write a non-negative long in 1 to 10 bytes.
+         */
+        public void writeLong(long value) throws IOException
+        {
+            while ((value & ~0x7FL) != 0)
+            {
+                out.write((int) (value & 0x7F) | 0x80);
+                value >>>= 7;
+            }
+            out.write((int) value);
+        }
+
+        public void writeSignedInt(int value) throws IOException
+        {
+            writeInt((value << 1) ^ (value >> 31));
+        }
+
+        public void writeSignedLong(long value) throws IOException
+        {
+            writeLong((value << 1) ^ (value >> 63));
+        }
+
+        public void writeDouble(double value) throws IOException
+        {
+            long bits = Double.doubleToRawLongBits(value);
+            for (int shift = 56; shift >= 0; shift -= 8)
+                out.write((int) (bits >>> shift));
+        }
+
+        public void write(byte[] bytes) throws IOException
+        {
+            out.write(bytes);
+        }
+
+        /**
+         * Write a string in UTF-8, preceded by its length.
+         */
+        public void writeString(String value) throws IOException
+        {
+            byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+            writeInt(bytes.length);
+            out.write(bytes);
+        }
+
+        /**
+         * Write a repeated string (or null): 0 for null, its code + 1 if already written, otherwise a new code followed by the string.
+         */
+        public void writeToken(String value) throws IOException
+        {
+            if (value == null)
+            {
+                writeInt(0);
+                return;
+            }
+            Integer code = tokens.get(value);
+            if (code != null)
+            {
+                writeInt(code + 1);
+                return;
+            }
+            code = tokens.size();
+            tokens.put(value, code);
+            writeInt(code + 1);
+            writeString(value);
+        }
+
+        @Override
+        public void close() throws IOException
+        {
+            out.close();
+        }
+    }
+
+    /**
+     * Decoding of an {@link Output} stream.
+     */
+    public static final class Input
+    {
+        private final InputStream in;
+        private final List<String> tokens = new ArrayList<>();
+
+        Input(InputStream in)
+        {
+            this.in = in;
+        }
+
+        private int readByte() throws IOException
+        {
+            int b = in.read();
+            if (b < 0)
+                throw new EOFException("Truncated checkpoint");
+            return b;
+        }
+
+        public int readInt() throws IOException
+        {
+            long value = readLong();
+            if (value >>> 32 != 0)
+                throw new FileFormatException("Corrupted checkpoint, int out of range " + value);
+            return (int) value;
+        }
+
+        public long readLong() throws IOException
+        {
+            long value = 0;
+            for (int shift = 0; shift < 64; shift += 7)
+            {
+                int b = readByte();
+                value |= (long) (b & 0x7F) << shift;
+                if ((b & 0x80) == 0)
+                    return value;
+            }
+            throw new FileFormatException("Corrupted checkpoint, varint too long");
+        }
+
+        public int readSignedInt() throws IOException
+        {
+            int value = readInt();
+            return (value >>> 1) ^ -(value & 1);
+        }
+
+        public long readSignedLong() throws IOException
+        {
+            long value = readLong();
+            return (value >>> 1) ^ -(value & 1);
+        }
+
+        public double readDouble() throws IOException
+        {
+            long bits = 0;
+            for (int i = 0; i < 8; i++)
+                bits = bits << 8 | readByte();
+            return Double.longBitsToDouble(bits);
+        }
+
+        public void readFully(byte[] bytes) throws IOException
+        {
+            int offset = 0;
+            while (offset < bytes.length)
+            {
+                int count = in.read(bytes, offset, bytes.length - offset);
+                if (count < 0)
+                    throw new EOFException("Truncated checkpoint");
+                offset += count;
+            }
+        }
+
+        public String readString() throws IOException
+        {
+            byte[] bytes = new byte[readInt()];
+            readFully(bytes);
+            return new String(bytes, StandardCharsets.UTF_8);
+        }
+
+        public String readToken() throws IOException
+        {
+            int code = readInt();
+            if (code == 0)
+                return null;
+            if (code <= tokens.size())
+                return tokens.get(code - 1);
+            if (code != tokens.size() + 1)
+                throw new FileFormatException("Corrupted checkpoint, token " + code + " of " + tokens.size());
+            String value = readString();
+            tokens.add(value);
+            return value;
+        }
+    }
+
+	@Override
+	public String toString() {
+		return "ModelCheckpoint";
+	}
+
+}
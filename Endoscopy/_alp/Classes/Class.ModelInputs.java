@@ -0,0 +1,169 @@
+/**
+ * ModelInputs
+ *
+ * Parsed input data of one province: patients, surgeons, operating rooms and procedure durations. Loaded once and
+ * never modified, so it is shared read-only by all replications of a batch run instead of being
+ * parsed again for each one. Mutable per run state (e.g. {@link SurgeonSelector}, {@link ShiftTimeline})
+ * is built from it by each replication.
+ *
+ * Parser options (see {@link LoadOptions}) are applied to every parser of a load; Main builds them from
+ * its parameters and applies them to the patient parser of its {@link ArrivalFeed} as well.
+ */
+public final class ModelInputs implements Serializable
+{
+    /** Loaded patients, null when they are streamed by an {@link ArrivalFeed} */
+    public final PatientStore patients;
+    public final List<SurgeonRecord> surgeons;
+    public final List<OperatingRoomRecord> operatingRooms;
+    public final DurationEngine durations;
+
+    /**
+     * Parser options applied to every file of a load.
+     */
+    public static final class LoadOptions implements Serializable
+    {
+        private boolean snapshotCache;
+        private boolean tailCache;
+        private int errorBudget;
+
+        /**
+         * @param enabled true to read and write binary snapshots of the files, see {@link AbstractParser#setSnapshotCacheEnabled};
+         *                files streamed through a row cursor, such as the patients of an {@link ArrivalFeed}, are always parsed
+         * @return this
+         */
+        public LoadOptions snapshotCache(boolean enabled)
+        {
+            snapshotCache = enabled;
+            return this;
+        }
+
+        /**
+         * @param enabled true to load the patient file with {@link PatientParser#loadPatientsIncremental}, parsing only the rows
+         *                appended since the last load; it takes precedence over the snapshot cache for that file, and patients
+         *                streamed by an {@link ArrivalFeed} are always parsed
+         * @return this
+         */
+        public LoadOptions tailCache(boolean enabled)
+        {
+            tailCache = enabled;
+            return this;
+        }
+
+        /**
+         * @param budget Invalid rows skipped per file before the load fails, see {@link AbstractParser#setErrorBudget}; 0 to stop at the first
+         * @return this
+         */
+        public LoadOptions errorBudget(int budget)
+        {
+            if (budget < 0)
+                throw new IllegalArgumentException("Negative error budget: " + budget);
+            errorBudget = budget;
+            return this;
+        }
+
+        /**
+         * Configure a parser with these options.
+         * @return the parser
+         */
+        public <P extends AbstractParser<?>> P apply(P parser)
+        {
+            parser.setSnapshotCacheEnabled(snapshotCache);
+            parser.setErrorBudget(errorBudget);
+            return parser;
+        }
+
+        @Override
+        public String toString()
+        {
+            return "ModelInputs.LoadOptions[snapshot cache " + snapshotCache + ", tail cache " + tailCache + ", error budget " + errorBudget + "]";
+        }
+
+        private static final long serialVersionUID = 2L;
+    }
+
+    public ModelInputs(PatientStore patients, List<SurgeonRecord> surgeons, List<OperatingRoomRecord> operatingRooms, DurationEngine durations)
+    {
+        this.patients = patients;
+        this.surgeons = Collections.unmodifiableList(new ArrayList<>(surgeons));
+        this.operatingRooms = Collections.unmodifiableList(new ArrayList<>(operatingRooms));
+        this.durations = durations;
+    }
+
+    /**
+     * Parse the three input files of a province.
+     * @param main The model root, or null outside of a model run
+     * @param province The province, or null
+     * @param patientFile The patient file
+     * @param surgeonFile The surgeon file
+     * @param operatingRoomFile The operating room file
+     * @param durationFile The procedure duration history file, or null to use {@link DurationEngine#DEFAULT_MINUTES} for all procedures;
+     *                     procedures missing from the history take the mean of all observed durations
+     * @param delimiter The delimiter character ('\t' for TSV, ',' for CSV)
+     * @return the inputs
+     * @throws IOException on file read error
+     * @throws DataValidationException on invalid data
+     */
+    public static ModelInputs load(Main main, Province province, File patientFile, File surgeonFile, File operatingRoomFile, File durationFile, char delimiter) throws IOException
+    {
+        return load(main, province, patientFile, surgeonFile, operatingRoomFile, durationFile, delimiter, new LoadOptions());
+    }
+
+    /**
+     * Parse the three input files of a province with the given parser options.
+     * @see #load(Main, Province, File, File, File, File, char)
+     */
+    public static ModelInputs load(Main main, Province province, File patientFile, File surgeonFile, File operatingRoomFile, File durationFile, char delimiter,
+                                   LoadOptions options) throws IOException
+    {
+        PatientParser parser = options.apply(new PatientParser(main, province));
+        PatientStore patients = options.tailCache
+            ? parser.loadPatientsIncremental(patientFile, delimiter)
+            : parser.loadPatients(patientFile, delimiter);
+        return load(main, province, patients, surgeonFile, operatingRoomFile, durationFile, delimiter, options);
+    }
+
+    /**
+     * Parse the surgeon, operating room and duration files of a province, for a run whose patients
+     * are streamed by an {@link ArrivalFeed} instead of loaded: {@link #patients} is null.
+     * @see #load(Main, Province, File, File, File, File, char)
+     */
+    public static ModelInputs loadResources(Main main, Province province, File surgeonFile, File operatingRoomFile, File durationFile, char delimiter) throws IOException
+    {
+        return loadResources(main, province, surgeonFile, operatingRoomFile, durationFile, delimiter, new LoadOptions());
+    }
+
+    /**
+     * Parse the surgeon, operating room and duration files of a province with the given parser options.
+     * @see #loadResources(Main, Province, File, File, File, char)
+     */
+    public static ModelInputs loadResources(Main main, Province province, File surgeonFile, File operatingRoomFile, File durationFile, char delimiter,
+                                            LoadOptions options) throws IOException
+    {
+        return load(main, province, (PatientStore) null, surgeonFile, operatingRoomFile, durationFile, delimiter, options);
+    }
+
+    private static ModelInputs load(Main main, Province province, PatientStore patients, File surgeonFile, File operatingRoomFile, File durationFile, char delimiter,
+                                    LoadOptions options) throws IOException
+    {
+        List<OperatingRoomRecord> operatingRooms = options.apply(new OperatingRoomParser(main, province)).loadOperatingRooms(operatingRoomFile, delimiter);
+        DurationEngine.Builder durations = durationFile == null ? new DurationEngine.Builder()
+            : options.apply(new ProcedureDurationParser(main, province)).loadDurations(durationFile, delimiter);
+        return new ModelInputs(
+            patients,
+            options.apply(new SurgeonParser(main, province)).loadSurgeons(surgeonFile, delimiter),
+            operatingRooms,
+            durations.build(operatingRooms, durations.size() > 0 ? durations.meanMinutes() : DurationEngine.DEFAULT_MINUTES));
+    }
+
+	@Override
+	public String toString() {
+		return "ModelInputs[" + (patients == null ? "streamed" : patients.size()) + " patients, " + surgeons.size() + " surgeons, " + operatingRooms.size() + " operating rooms]";
+	}
+
+	/**
+	 * This number is here for model snapshot storing purpose<br>
+	 * It needs to be changed when this class gets changed
+	 */
+	private static final long serialVersionUID = 1L;
+
+}
@@ -1,7 +1,12 @@
 /**
  * OperatingRoomParser
  */	
-public class OperatingRoomParser extends endoscopy.AbstractParser implements Serializable 
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+public class OperatingRoomParser extends endoscopy.AbstractParser<OperatingRoomParser.Header> implements Serializable 
 {
     public OperatingRoomParser(Main main, Province province) 
     {
@@ -39,6 +44,31 @@ public class OperatingRoomParser extends endoscopy.AbstractParser implements Ser
         return Header.class;
     }
 
+    /**
+     * Load all operating rooms of the file, in file order.
+     * @param file The operating room file
+     * @param delimiter The delimiter character ('\t' for TSV, ',' for CSV)
+     * @return operating rooms in file order, which must also be the order of the operatingRooms population
+     * @throws IOException on file read error
+     * @throws DataValidationException on the first invalid row
+     */
+    public List<OperatingRoomRecord> loadOperatingRooms(File file, char delimiter) throws IOException
+    {
+        List<OperatingRoomRecord> rooms = new ArrayList<>();
+        parseRows(file, delimiter, row ->
+        {
+            String orId = row.get(Header.OR_ID);
+            if (orId.isEmpty())
+                throw new DataValidationException("Missing or_id", Header.OR_ID.baseName(), orId);
+            double turnover = row.getDouble(Header.TURNOVER_TIME);
+            if (turnover < 0)
+                throw new DataValidationException("Negative turnover time", Header.TURNOVER_TIME.baseName(), row.get(Header.TURNOVER_TIME));
+            rooms.add(new OperatingRoomRecord(orId, row.isEmpty(Header.ROOM_TYPE) ? null : row.get(Header.ROOM_TYPE), turnover));
+        });
+        Utils.printUpdate("Loaded " + rooms.size() + " operating rooms from " + file.getName());
+        return rooms;
+    }
+
 	@Override
 	public String toString() {
 		return super.toString();
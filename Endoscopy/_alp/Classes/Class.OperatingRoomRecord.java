@@ -0,0 +1,32 @@
+/**
+ * OperatingRoomRecord
+ *
+ * One operating room row loaded by {@link OperatingRoomParser}.
+ */
+public class OperatingRoomRecord implements Serializable
+{
+    public final String orId;
+    /** Room type, or null if not given */
+    public final String roomType;
+    /** Turnover time between two patients, in minutes */
+    public final double turnoverMinutes;
+
+    public OperatingRoomRecord(String orId, String roomType, double turnoverMinutes)
+    {
+        this.orId = orId;
+        this.roomType = roomType;
+        this.turnoverMinutes = turnoverMinutes;
+    }
+
+	@Override
+	public String toString() {
+		return "OperatingRoomRecord[" + orId + ", " + roomType + ", " + turnoverMinutes + " min]";
+	}
+
+	/**
+	 * This number is here for model snapshot storing purpose<br>
+	 * It needs to be changed when this class gets changed
+	 */
+	private static final long serialVersionUID = 1L;
+
+}
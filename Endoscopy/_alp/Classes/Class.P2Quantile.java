@@ -0,0 +1,130 @@
+/**
+ * P2Quantile
+ *
+ * Streaming estimate of one quantile (e.g. the 95th percentile of waiting times) with the P-square
+ * algorithm of Jain and Chlamtac: five markers whose heights are adjusted with a piecewise
+ * parabolic formula as values arrive, in constant memory whatever the number of values.
+ * Exact up to five values.
+ */
+public class P2Quantile implements Serializable
+{
+    private final double p;
+    /** Marker heights */
+    private final double[] q = new double[5];
+    /** Marker positions, from 1 */
+    private final double[] n = new double[5];
+    /** Desired marker positions */
+    private final double[] desired = new double[5];
+    /** Increments of the desired positions */
+    private final double[] increment;
+    private long count;
+
+    /**
+     * @param p The quantile, strictly between 0 and 1 (0.95 for the 95th percentile)
+     */
+    public P2Quantile(double p)
+    {
+        if (!(p > 0 && p < 1))
+            throw new IllegalArgumentException("Quantile must be between 0 and 1: " + p);
+        this.p = p;
+        increment = new double[] { 0, p / 2, p, (1 + p) / 2, 1 };
+    }
+
+    /**
+     * @param value The next value, NaN values are ignored
+     */
+    public void add(double value)
+    {
+        if (Double.isNaN(value))
+            return;
+        if (count < 5)
+        {
+            q[(int) count++] = value;
+            if (count == 5)
+            {
+                Arrays.sort(q);
+                for (int i = 0; i < 5; i++)
+                {
+                    n[i] = i + 1;
+                    desired[i] = 1 + 4 * increment[i];
+                }
+            }
+            return;
+        }
+        count++;
+        int k;
+        if (value < q[0])
+        {
+            q[0] = value;
+            k = 0;
+        }
+        else if (value >= q[4])
+        {
+            q[4] = value;
+            k = 3;
+        }
+        else
+        {
+            k = 0;
+            while (value >= q[k + 1])
+                k++;
+        }
+        for (int i = k + 1; i < 5; i++)
+            n[i]++;
+        for (int i = 0; i < 5; i++)
+            desired[i] += increment[i];
+        for (int i = 1; i < 4; i++)
+        {
+            double d = desired[i] - n[i];
+            if ((d >= 1 && n[i + 1] - n[i] > 1) || (d <= -1 && n[i - 1] - n[i] < -1))
+            {
+                int sign = d > 0 ? 1 : -1;
+                double height = parabolic(i, sign);
+                if (q[i - 1] < height && height < q[i + 1])
+                    q[i] = height;
+                else
+                    q[i] += sign * (q[i + sign] - q[i]) / (n[i + sign] - n[i]);
+                n[i] += sign;
+            }
+        }
+    }
+
+    private double parabolic(int i, int sign)
+    {
+        return q[i] + sign / (n[i + 1] - n[i - 1])
+            * ((n[i] - n[i - 1] + sign) * (q[i + 1] - q[i]) / (n[i + 1] - n[i])
+             + (n[i + 1] - n[i] - sign) * (q[i] - q[i - 1]) / (n[i] - n[i - 1]));
+    }
+
+    /**
+     * @return the estimated quantile, NaN without values
+     */
+    public double value()
+    {
+        if (count == 0)
+            return Double.NaN;
+        // with exactly five values the markers are the sorted values, q[2] is their median whatever p
+        if (count > 5)
+            return q[2];
+        double[] sorted = Arrays.copyOf(q, (int) count);
+        Arrays.sort(sorted);
+        return sorted[(int) Math.min(count - 1, Math.round(p * (count - 1)))];
+    }
+
+    public long count()
+    {
+        return count;
+    }
+
+	@Override
+	public String toString() {
+		return "P2Quantile[p=" + p + ", n=" + count + ", value=" + value() + "]";
+	}
+
+	/**
+	 * This number is here for model snapshot storing purpose<br>
+	 * It needs to be changed when this class gets changed
+	 */
+	private static final long serialVersionUID = 1L;
+
+}
@@ -0,0 +1,248 @@
+/**
+ * ParseReport
+ *
+ * Collects the row count, warnings and first data error of a file (or of one chunk of a file
+ * parsed on a worker thread). Nothing is printed from workers: chunk reports are appended in
+ * file order on the loading thread, so line numbers and counts come out exactly as in a
+ * sequential parse.
+ *
+ * With an error budget, invalid rows are collected (line, column, raw value, reason) and skipped
+ * instead of stopping the parse, until more than the budget are found. They are reported at the
+ * end as one aggregated summary and a tab-separated error file.
+ */
+public class ParseReport
+{
+    private final String fileName;
+    private int rowCount;
+    private int[] warningLines = new int[16];
+    private final List<String> warningMessages = new ArrayList<>();
+    private int errorLine = -1;
+    private String errorMessage;
+    private final int errorBudget;
+    private int[] invalidLines = new int[16];
+    private final List<String> invalidColumns = new ArrayList<>();
+    private final List<String> invalidValues = new ArrayList<>();
+    private final List<String> invalidReasons = new ArrayList<>();
+
+    /**
+     * Fail-fast report: the first data error stops the parse.
+     * @param fileName The file name used as prefix of reported messages
+     */
+    public ParseReport(String fileName)
+    {
+        this(fileName, 0);
+    }
+
+    /**
+     * @param fileName The file name used as prefix of reported messages
+     * @param errorBudget Number of invalid rows skipped before the parse stops, 0 to stop at the first
+     */
+    public ParseReport(String fileName, int errorBudget)
+    {
+        this.fileName = fileName;
+        this.errorBudget = errorBudget;
+    }
+
+    /**
+     * Count one handled data row.
+     */
+    public void addRow()
+    {
+        rowCount++;
+    }
+
+    /**
+     * Record a non-fatal issue (e.g. skipped row) at the given line.
+     */
+    public void warning(int line, String message)
+    {
+        int index = warningMessages.size();
+        if (index == warningLines.length)
+            warningLines = Arrays.copyOf(warningLines, index * 2);
+        warningLines[index] = line;
+        warningMessages.add(message);
+    }
+
+    /**
+     * Record the data error that stopped the parse at the given line.
+     * Only the first error is kept.
+     */
+    public void error(int line, String message)
+    {
+        if (errorMessage != null)
+            return;
+        errorLine = line;
+        errorMessage = message;
+    }
+
+    /**
+     * Record the data error of a row. Without error budget the error stops the parse; with one,
+     * the row is collected as invalid and the parse continues until the budget is exceeded.
+     * @param line The line of the row
+     * @param e The data error thrown for the row
+     * @return true if the parse continues with the next row
+     */
+    public boolean rowError(int line, DataValidationException e)
+    {
+        if (errorBudget == 0)
+        {
+            error(line, e.getMessage());
+            return false;
+        }
+        return addInvalid(line, e.getColumn(), e.getValue(), e.getReason());
+    }
+
+    private boolean addInvalid(int line, String column, String value, String reason)
+    {
+        int index = invalidReasons.size();
+        if (index == invalidLines.length)
+            invalidLines = Arrays.copyOf(invalidLines, index * 2);
+        invalidLines[index] = line;
+        invalidColumns.add(column);
+        invalidValues.add(value);
+        invalidReasons.add(reason);
+        if (index < errorBudget)
+            return true;
+        error(line, "error budget of " + errorBudget + " invalid rows exceeded");
+        return false;
+    }
+
+    /**
+     * @return number of collected invalid rows
+     */
+    public int invalidCount()
+    {
+        return invalidReasons.size();
+    }
+
+    /**
+     * @return true if a data error stopped the parse
+     */
+    public boolean hasError()
+    {
+        return errorMessage != null;
+    }
+
+    /**
+     * @return number of handled data rows
+     */
+    public int rowCount()
+    {
+        return rowCount;
+    }
+
+    /**
+     * @return number of recorded warnings
+     */
+    public int warningCount()
+    {
+        return warningMessages.size();
+    }
+
+    /**
+     * Append the report of the next chunk of the same file.
+     * Chunks after the first error are ignored, as a sequential parse would have stopped there.
+     * @param chunk The chunk report, with line numbers relative to the chunk
+     * @param lineOffset Number of file lines before the chunk
+     */
+    public void append(ParseReport chunk, int lineOffset)
+    {
+        if (hasError())
+            return;
+        rowCount += chunk.rowCount;
+        for (int i = 0; i < chunk.warningMessages.size(); i++)
+            warning(chunk.warningLines[i] + lineOffset, chunk.warningMessages.get(i));
+        for (int i = 0; i < chunk.invalidReasons.size() && !hasError(); i++)
+            addInvalid(chunk.invalidLines[i] + lineOffset, chunk.invalidColumns.get(i), chunk.invalidValues.get(i), chunk.invalidReasons.get(i));
+        if (chunk.hasError())
+            error(chunk.errorLine + lineOffset, chunk.errorMessage);
+    }
+
+    /**
+     * Print all recorded warnings in line order through {@link Utils#printWarning}, rate limited
+     * per file, followed by the count of suppressed warnings.
+     */
+    public void printWarnings()
+    {
+        emitWarnings();
+        Utils.flushSuppressed(fileName);
+    }
+
+    /**
+     * Print the recorded warnings and discard them, so a file streamed over a long run
+     * does not accumulate its warnings in memory. The rate limit of the file is kept.
+     */
+    public void flushWarnings()
+    {
+        emitWarnings();
+        warningMessages.clear();
+    }
+
+    private void emitWarnings()
+    {
+        for (int i = 0; i < warningMessages.size(); i++)
+        {
+            int index = i;
+            Utils.printWarning(fileName, () -> fileName + " line " + warningLines[index] + ": " + warningMessages.get(index));
+        }
+    }
+
+    /**
+     * Report the collected invalid rows: one warning with the counts by column and reason, and
+     * the rows in a tab-separated error file (file, line, column, value, reason).
+     * Without invalid rows, a stale error file is deleted.
+     * @param errorFile The error file to write
+     */
+    public void reportInvalidRows(File errorFile)
+    {
+        if (invalidReasons.isEmpty())
+        {
+            errorFile.delete();
+            return;
+        }
+        Map<String, Integer> counts = new LinkedHashMap<>();
+        for (int i = 0; i < invalidReasons.size(); i++)
+        {
+            String column = invalidColumns.get(i);
+            counts.merge((column == null ? "" : column + ": ") + invalidReasons.get(i), 1, Integer::sum);
+        }
+        StringBuilder summary = new StringBuilder();
+        summary.append(fileName).append(": ").append(invalidReasons.size()).append(" invalid rows ")
+            .append(hasError() ? "before stop" : "skipped").append(", see ").append(errorFile.getName());
+        for (Map.Entry<String, Integer> count : counts.entrySet())
+            summary.append(System.lineSeparator()).append("    ").append(count.getValue()).append(" x ").append(count.getKey());
+        Utils.printWarning(summary.toString());
+        try (Writer out = new BufferedWriter(new FileWriter(errorFile)))
+        {
+            out.write("file\tline\tcolumn\tvalue\treason\n");
+            for (int i = 0; i < invalidReasons.size(); i++)
+            {
+                out.write(escape(fileName) + '\t' + invalidLines[i] + '\t' + escape(invalidColumns.get(i)) + '\t'
+                    + escape(invalidValues.get(i)) + '\t' + escape(invalidReasons.get(i)) + '\n');
+            }
+        }
+        catch (IOException e)
+        {
+            Utils.printWarning("Could not write error file " + errorFile.getName() + ": " + e.getMessage());
+        }
+    }
+
+    /**
+     * @return the value with backslash, tab and line breaks escaped, empty for null
+     */
+    private static String escape(String value)
+    {
+        if (value == null)
+            return "";
+        return value.replace("\\", "\\\\").replace("\t", "\\t").replace("\n", "\\n").replace("\r", "\\r");
+    }
+
+    /**
+     * @throws DataValidationException with file and line prefix if a data error was recorded
+     */
+    public void throwIfFailed()
+    {
+        if (hasError())
+            throw new DataValidationException(fileName + " line " + errorLine + ": " + errorMessage);
+    }
+}
@@ -0,0 +1,271 @@
+/**
+ * ParserBenchmarks
+ *
+ * Regression numbers for the load paths, run with {@link Microbenchmark}: the Utils parsing helpers,
+ * header matching and validation, and the full parse of the patient, surgeon and operating room
+ * files on synthetic files of the given sizes (10k, 1M and 10M rows by default). Results are
+ * written to a TSV file to compare before and after a change of a load path.
+ *
+ * The {@link PatientQueue} run is also its correctness check: 60k patients with random priorities,
+ * schedules, reprioritizations and removals are drained and compared with a reference sort of the
+ * same keys, and the run fails on the first patient out of order. The {@link TrajectoryWriter} runs
+ * likewise write 2M patients in each format through a small ring and small parts, so the model
+ * waits for the writer and the files rotate, and compare every record read back with the one written.
+ *
+ * Run from a Custom Experiment or any code with a Main root, e.g.
+ * {@code ParserBenchmarks.run(root, new File("bench"), ParserBenchmarks.DEFAULT_ROW_COUNTS, new File("bench/results.tsv"))}.
+ * Parses print their usual updates, and a Main with update printing disabled keeps the
+ * console out of the numbers.
+ */
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+
+public final class ParserBenchmarks
+{
+    public static final int[] DEFAULT_ROW_COUNTS = { 10_000, 1_000_000, 10_000_000 };
+    /** Patients of the queue check */
+    public static final int QUEUE_PATIENTS = 60_000;
+    /** Patients of the trajectory read-back check */
+    public static final int TRAJECTORY_PATIENTS = 2_000_000;
+
+    private static final String[] DATES = { "2025-01-06 08:30:00", "2025-02-14T13:05:00Z", "2025-12-31 23:59:59" };
+    private static final String[] INTEGERS = { "0", "7", "127", "-42", "1234567" };
+    private static final String[] DOUBLES = { "0", "12.5", "-3.25", "1e3", "45.125" };
+    private static final String[] QUOTED = { "\"colonoscopy\"", "gastroscopy", "\"ERCP\"", "'bronchoscopy'" };
+    private static final String[] LINES = { "P1\t2025-01-06 08:30:00\tcolonoscopy\t2\r", "\uFEFFpatient_id\tprocedure", "S1,Dr A,colo;gastro" };
+
+    private ParserBenchmarks()
+    {
+    }
+
+    /**
+     * Run all benchmarks.
+     * @param main The model root the parsers are created with
+     * @param directory Directory receiving the synthetic files, reused when already complete
+     * @param rowCounts Row counts of the synthetic files
+     * @param resultFile File receiving the results
+     * @return the results
+     * @throws Exception on file error or failed benchmark
+     */
+    public static List<Microbenchmark.Result> run(Main main, File directory, int[] rowCounts, File resultFile) throws Exception
+    {
+        Microbenchmark bench = new Microbenchmark(3, 5, 200);
+        runUtils(bench);
+        runHeaders(bench, main, directory);
+        runQueue(bench);
+        runTrajectories(bench, directory);
+        for (int rows : rowCounts)
+            runParsers(bench, main, directory, rows);
+        bench.writeResults(resultFile);
+        return bench.results();
+    }
+
+    private static void runUtils(Microbenchmark bench) throws Exception
+    {
+        bench.run("Utils.dateFromString", i -> Utils.dateFromString(DATES[i % DATES.length]).getTime());
+        bench.run("Utils.parseInteger", i -> Utils.parseInteger(INTEGERS[i % INTEGERS.length]));
+        bench.run("Utils.parseDouble", i -> (long) Utils.parseDouble(DOUBLES[i % DOUBLES.length]));
+        bench.run("Utils.removeQuotes", i -> Utils.removeQuotes(QUOTED[i % QUOTED.length]).length());
+        bench.run("Utils.cleanLine", i -> Utils.cleanLine(LINES[i % LINES.length]).length());
+        bench.run("Utils.toUpperUnderscore", i -> Utils.toUpperUnderscore(QUOTED[i % QUOTED.length]).length());
+    }
+
+    private static void runHeaders(Microbenchmark bench, Main main, File directory) throws Exception
+    {
+        PatientParser parser = new PatientParser(main, null);
+        PatientParser.Header[] headers = PatientParser.Header.values();
+        String[] columns = { "patient_id", "Scheduled Datetime", "PROCEDURE", "preferred_surgeon", "unknown_column" };
+        bench.run("AbstractParser.headerMatches", i -> parser.headerMatches(headers[i % headers.length], columns[i % columns.length]) ? 1 : 0);
+        File file = patientFile(directory, 10);
+        bench.run("AbstractParser.validateHeader", i ->
+        {
+            parser.validateHeader(file, '\t');
+            return i;
+        });
+    }
+
+    private static void runQueue(Microbenchmark bench) throws Exception
+    {
+        Patient[] patients = new Patient[QUEUE_PATIENTS];
+        for (int i = 0; i < patients.length; i++)
+            patients[i] = new Patient();
+        bench.runSingleShot("PatientQueue " + patients.length, i -> checkQueue(patients, new Random(i)));
+    }
+
+    /**
+     * Fill, reprioritize and trim a queue, then drain it against a reference sort (priority descending,
+     * scheduled datetime, then arrival).
+     * @return number of patients drained
+     * @throws IllegalStateException if the queue order differs from the reference
+     */
+    private static long checkQueue(Patient[] patients, Random random)
+    {
+        int count = patients.length;
+        PatientQueue queue = new PatientQueue();
+        int[] priorities = new int[count];
+        long[] scheduled = new long[count];
+        boolean[] removed = new boolean[count];
+        for (int i = 0; i < count; i++)
+        {
+            priorities[i] = random.nextInt(5);
+            scheduled[i] = random.nextInt(1000) * 60_000L;
+            queue.add(patients[i], priorities[i], scheduled[i]);
+        }
+        for (int k = 0; k < count / 10; k++)
+        {
+            int i = random.nextInt(count);
+            priorities[i] = random.nextInt(5);
+            queue.reprioritize(patients[i], priorities[i]);
+        }
+        for (int k = 0; k < count / 10; k++)
+        {
+            int i = random.nextInt(count);
+            removed[i] = true;
+            queue.remove(patients[i]);
+        }
+        List<Integer> expected = new ArrayList<>(count);
+        for (int i = 0; i < count; i++)
+            if (!removed[i])
+                expected.add(i);
+        expected.sort(Comparator.<Integer>comparingInt(i -> -priorities[i]).thenComparingLong(i -> scheduled[i]).thenComparingInt(i -> i));
+        if (queue.size() != expected.size())
+            throw new IllegalStateException("PatientQueue holds " + queue.size() + " patients, expected " + expected.size());
+        for (int n = 0; n < expected.size(); n++)
+        {
+            int i = expected.get(n);
+            if (n + 1 < expected.size() && !queue.precedes(patients[i], patients[expected.get(n + 1)]))
+                throw new IllegalStateException("PatientQueue.precedes differs from the reference sort at position " + n);
+            if (queue.poll() != patients[i])
+                throw new IllegalStateException("PatientQueue order differs from the reference sort at position " + n);
+        }
+        return expected.size();
+    }
+
+    private static void runTrajectories(Microbenchmark bench, File directory) throws Exception
+    {
+        Patient[] patients = new Patient[1024];
+        for (int i = 0; i < patients.length; i++)
+            patients[i] = new Patient();
+        for (TrajectoryWriter.Format format : TrajectoryWriter.Format.values())
+            bench.runSingleShot("TrajectoryWriter " + format + " " + TRAJECTORY_PATIENTS, i -> checkTrajectories(patients, new File(directory, "trajectories" + format.extension), format));
+    }
+
+    /**
+     * Send patients through a writer, patient n arriving at time n with some steps not reached,
+     * then read the parts back and compare each record with the one sent.
+     * @return number of patients read back
+     * @throws IllegalStateException if a record read back differs
+     */
+    private static long checkTrajectories(Patient[] patients, File file, TrajectoryWriter.Format format) throws IOException
+    {
+        double[] now = new double[1];
+        TrajectoryWriter writer = new TrajectoryWriter(() -> now[0], file, format, 1024, 4L << 20);
+        for (int n = 0; n < TRAJECTORY_PATIENTS; n++)
+        {
+            Patient patient = patients[n % patients.length];
+            patient.id = "P" + n;
+            now[0] = n;
+            writer.arrived(patient);
+            now[0] = n + 0.25;
+            writer.seized(patient, n % 37, n % 101 - 1);
+            if (n % 7 != 0)
+            {
+                now[0] = n + 0.5;
+                writer.delayStarted(patient);
+                now[0] = n + 0.75;
+                writer.delayEnded(patient);
+            }
+            now[0] = n + 1.0 / 3;
+            writer.released(patient);
+            writer.exited(patient);
+        }
+        writer.close();
+        long[] read = new long[1];
+        for (File part : writer.files())
+        {
+            TrajectoryWriter.read(part, format, record ->
+            {
+                long n = read[0]++;
+                boolean delayed = n % 7 != 0;
+                if (!record.patientId.equals("P" + n) || record.times[0] != n || record.times[1] != n + 0.25
+                    || (delayed ? record.times[2] != n + 0.5 || record.times[3] != n + 0.75 : !Double.isNaN(record.times[2]) || !Double.isNaN(record.times[3]))
+                    || record.times[4] != n + 1.0 / 3 || record.room != n % 37 || record.surgeon != n % 101 - 1)
+                    throw new IllegalStateException("Trajectory " + n + " read back from " + part.getName() + " differs: " + record);
+            });
+            part.delete();
+        }
+        if (read[0] != TRAJECTORY_PATIENTS)
+            throw new IllegalStateException("Read back " + read[0] + " trajectories, wrote " + TRAJECTORY_PATIENTS);
+        return read[0];
+    }
+
+    private static void runParsers(Microbenchmark bench, Main main, File directory, int rows) throws Exception
+    {
+        File patients = patientFile(directory, rows);
+        File surgeons = surgeonFile(directory, rows);
+        File rooms = operatingRoomFile(directory, rows);
+        bench.runSingleShot("PatientParser.loadPatients " + rows, i -> new PatientParser(main, null).loadPatients(patients, '\t').size());
+        bench.runSingleShot("SurgeonParser.loadSurgeons " + rows, i -> new SurgeonParser(main, null).loadSurgeons(surgeons, '\t').size());
+        bench.runSingleShot("OperatingRoomParser.loadOperatingRooms " + rows, i -> new OperatingRoomParser(main, null).loadOperatingRooms(rooms, '\t').size());
+    }
+
+    private static File patientFile(File directory, int rows) throws IOException
+    {
+        File file = new File(directory, "bench_patients_" + rows + ".tsv");
+        if (!hasRows(file, rows))
+            generator(directory).writePatients(file, rows);
+        return file;
+    }
+
+    private static File surgeonFile(File directory, int rows) throws IOException
+    {
+        File file = new File(directory, "bench_surgeons_" + rows + ".tsv");
+        if (!hasRows(file, rows))
+            generator(directory).writeSurgeons(file, rows);
+        return file;
+    }
+
+    private static File operatingRoomFile(File directory, int rows) throws IOException
+    {
+        File file = new File(directory, "bench_operating_rooms_" + rows + ".tsv");
+        if (!hasRows(file, rows))
+            generator(directory).writeOperatingRooms(file, rows);
+        return file;
+    }
+
+    /**
+     * A synthetic file is reused only if it holds the header and all its rows, so a file left by
+     * another row count or an older interrupted run is generated again.
+     * @return true if the file exists with rows + 1 lines
+     */
+    private static boolean hasRows(File file, long rows) throws IOException
+    {
+        if (!file.isFile())
+            return false;
+        long lines = 0;
+        ByteBuffer buffer = ByteBuffer.allocate(1 << 20);
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ))
+        {
+            while (channel.read(buffer) > 0)
+            {
+                buffer.flip();
+                while (buffer.hasRemaining())
+                    if (buffer.get() == '\n')
+                        lines++;
+                buffer.clear();
+            }
+        }
+        return lines == rows + 1;
+    }
+
+    /**
+     * @return the generator of the synthetic files, reused when complete since the seed is fixed
+     */
+    private static SyntheticDataGenerator generator(File directory)
+    {
+        directory.mkdirs();
+        return new SyntheticDataGenerator(1);
+    }
+
+}
@@ -0,0 +1,239 @@
+/**
+ * ParserRow
+ *
+ * Reusable view over one data row of a parsed input file. Column positions are resolved
+ * once per file, so looking up a header value is a plain array access.
+ * The same instance is refilled for every row and must not be kept by callers.
+ * Rows are read either from the text file ({@link Tokenized}) or from its binary snapshot
+ * ({@link SnapshotCache}).
+ */
+public abstract class ParserRow<H extends Enum<H> & ParserHeader>
+{
+    private final HeaderResolver.Mapping<H> mapping;
+    private final int[] columnIndex;
+    private ParseReport report;
+
+    /**
+     * @param mapping Column to header mapping of the file
+     */
+    ParserRow(HeaderResolver.Mapping<H> mapping)
+    {
+        this.mapping = mapping;
+        H[] headers = mapping.headerEnumConstants();
+        columnIndex = new int[headers.length];
+        for (H h : headers)
+            columnIndex[h.ordinal()] = mapping.firstColumn(h);
+    }
+
+    /**
+     * @param report The report receiving warnings of the rows
+     */
+    void setReport(ParseReport report)
+    {
+        this.report = report;
+    }
+
+    /**
+     * Record a non-fatal issue for this row (e.g. row skipped).
+     * Warnings are printed with their line number once the whole file is parsed,
+     * which keeps them in file order when chunks are parsed in parallel.
+     * @param message The warning message
+     */
+    public void warn(String message)
+    {
+        report.warning(lineNumber(), message);
+    }
+
+    /**
+     * @return the 1-based line number of this row in the file
+     */
+    public abstract int lineNumber();
+
+    /** Cleaned value of the column, empty string if the row is shorter */
+    protected abstract String columnString(int column);
+
+    /** True if the column value is empty or "NA", or the row is shorter */
+    protected abstract boolean columnIsNA(int column);
+
+    /** @see Utils#parseInteger(String) */
+    protected abstract int columnInt(int column);
+
+    /** @see Utils#parseDouble(String) */
+    protected abstract double columnDouble(int column);
+
+    /** @see Utils#millisFromString(String) */
+    protected abstract long columnDateMillis(int column);
+
+    /**
+     * @return true if the column of the given header is present in the file
+     */
+    public boolean has(H header)
+    {
+        return columnIndex[header.ordinal()] >= 0;
+    }
+
+    /**
+     * @return true if the value of the given header is empty or "NA", or the column is not present
+     */
+    public boolean isEmpty(H header)
+    {
+        int index = columnIndex[header.ordinal()];
+        return index < 0 || columnIsNA(index);
+    }
+
+    /**
+     * Retrieves the cleaned (unquoted, trimmed) value of the given header in this row.
+     * @param header The header to retrieve
+     * @return The value, empty string if the row is shorter than the header, or null if the column is not present
+     */
+    public String get(H header)
+    {
+        int index = columnIndex[header.ordinal()];
+        if (index < 0)
+            return null;
+        return columnString(index);
+    }
+
+    /**
+     * @return number of columns of the header, several for a prefix group (e.g. "skill_1".."skill_n")
+     */
+    public int groupSize(H header)
+    {
+        return mapping.columns(header).length;
+    }
+
+    /**
+     * Retrieves the cleaned value of the i-th column of a prefix group, in file column order.
+     * @param header The prefix group header
+     * @param i Index in the group, from 0 to {@link #groupSize} - 1
+     * @return The value, empty string if the row is shorter than the column
+     */
+    public String get(H header, int i)
+    {
+        return columnString(mapping.columns(header)[i]);
+    }
+
+    /**
+     * Parsed without building a String.
+     * @see Utils#parseInteger(String)
+     */
+    public int getInt(H header)
+    {
+        int index = columnIndex[header.ordinal()];
+        if (index < 0)
+            return 0;
+        try
+        {
+            return columnInt(index);
+        }
+        catch (DataValidationException e)
+        {
+            throw cellError(index, e);
+        }
+    }
+
+    /**
+     * @see Utils#parseDouble(String)
+     */
+    public double getDouble(H header)
+    {
+        int index = columnIndex[header.ordinal()];
+        if (index < 0)
+            return 0.0;
+        try
+        {
+            return columnDouble(index);
+        }
+        catch (DataValidationException e)
+        {
+            throw cellError(index, e);
+        }
+    }
+
+    /**
+     * @see Utils#dateFromString(String)
+     */
+    public Date getDate(H header)
+    {
+        long millis = getDateMillis(header);
+        return millis == DateTimeCodec.NO_DATE ? null : new Date(millis);
+    }
+
+    /**
+     * Parsed without building a String or a Date.
+     * @return epoch milliseconds, or DateTimeCodec.NO_DATE if empty or the column is not present
+     * @see Utils#millisFromString(String)
+     */
+    public long getDateMillis(H header)
+    {
+        int index = columnIndex[header.ordinal()];
+        if (index < 0)
+            return DateTimeCodec.NO_DATE;
+        try
+        {
+            return columnDateMillis(index);
+        }
+        catch (DataValidationException e)
+        {
+            throw cellError(index, e);
+        }
+    }
+
+    /**
+     * @return the error of a value of the column, with the column name and raw value
+     */
+    private DataValidationException cellError(int column, DataValidationException e)
+    {
+        return new DataValidationException(e.getReason(), mapping.columnName(column), columnString(column));
+    }
+
+    /**
+     * Row over the current line of a {@link DelimitedTokenizer}, values are read from the mapped bytes.
+     */
+    static final class Tokenized<H extends Enum<H> & ParserHeader> extends ParserRow<H>
+    {
+        private final DelimitedTokenizer tokenizer;
+
+        Tokenized(HeaderResolver.Mapping<H> mapping, DelimitedTokenizer tokenizer)
+        {
+            super(mapping);
+            this.tokenizer = tokenizer;
+        }
+
+        @Override
+        public int lineNumber()
+        {
+            return tokenizer.lineNumber();
+        }
+
+        @Override
+        protected String columnString(int column)
+        {
+            return tokenizer.fieldString(column);
+        }
+
+        @Override
+        protected boolean columnIsNA(int column)
+        {
+            return tokenizer.isFieldNA(column);
+        }
+
+        @Override
+        protected int columnInt(int column)
+        {
+            return tokenizer.parseInt(column);
+        }
+
+        @Override
+        protected double columnDouble(int column)
+        {
+            return tokenizer.parseDouble(column);
+        }
+
+        @Override
+        protected long columnDateMillis(int column)
+        {
+            return tokenizer.parseDateMillis(column);
+        }
+    }
+}
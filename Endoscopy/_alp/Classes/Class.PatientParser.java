@@ -3,12 +3,12 @@
  */	
 import java.io.File;
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
 
-public class PatientParser extends endoscopy.AbstractParser implements Serializable 
+public class PatientParser extends endoscopy.AbstractParser<PatientParser.Header> implements Serializable 
 {
-
     public PatientParser(Main main, Province province) 
     {
     	super(main, province);
@@ -49,6 +49,133 @@ public class PatientParser extends endoscopy.AbstractParser implements Serializa
         return Header.class;
     }
 
+    /**
+     * Load all patients of the file, parsing line-aligned chunks of the file on all cores.
+     * Rows without scheduled datetime are skipped with a warning.
+     * @param file The patient file
+     * @param delimiter The delimiter character ('\t' for TSV, ',' for CSV)
+     * @return columnar store of the patients, sorted by scheduled datetime, then patient id
+     * @throws IOException on file read error
+     * @throws DataValidationException on the first invalid row (in file order)
+     */
+    public PatientStore loadPatients(File file, char delimiter) throws IOException
+    {
+        List<PatientCollector> chunks = parseRowsParallel(file, delimiter, PatientCollector::new);
+        List<PatientStore.Builder> builders = new ArrayList<>(chunks.size());
+        for (PatientCollector chunk : chunks)
+            builders.add(chunk.patients);
+        PatientStore patients = PatientStore.merge(builders);
+        Utils.printUpdate("Loaded " + patients.size() + " patients from " + file.getName());
+        return patients;
+    }
+
+    /**
+     * Load the patients of a file that only grows by appended rows, such as a daily referral export.
+     * After each load the parsed store is kept in "&lt;file&gt;.tail" with a {@link TailCheckpoint};
+     * when the file still starts with the checkpointed content, only the appended rows are parsed and
+     * merged into the kept store. A changed header, configuration or earlier content, or an unreadable
+     * cache, means a full parse.
+     * {@link ModelInputs#load} uses it when its {@link ModelInputs.LoadOptions#tailCache} option is set.
+     * @param file The patient file
+     * @param delimiter The delimiter character ('\t' for TSV, ',' for CSV)
+     * @return columnar store of the patients, sorted by scheduled datetime, then patient id
+     * @throws IOException on file read error
+     * @throws DataValidationException on the first invalid row (in file order)
+     */
+    public PatientStore loadPatientsIncremental(File file, char delimiter) throws IOException
+    {
+        File cacheFile = TailCheckpoint.cacheFile(file);
+        TailCheckpoint previous = TailCheckpoint.read(cacheFile);
+        PatientStore base = null;
+        AbstractParser.TailParse<PatientCollector> parse = parseRowsIncremental(file, delimiter, previous, PatientCollector::new);
+        if (parse.appended)
+        {
+            try
+            {
+                base = previous.readPayload(PatientStore::readFrom);
+            }
+            catch (IOException e)
+            {
+                Utils.printWarning("Could not read cached patients of " + file.getName() + ", parsing all rows: " + e.getMessage());
+                parse = parseRowsIncremental(file, delimiter, null, PatientCollector::new);
+            }
+        }
+        List<PatientStore.Builder> builders = new ArrayList<>(parse.handlers.size());
+        for (PatientCollector chunk : parse.handlers)
+            builders.add(chunk.patients);
+        PatientStore patients = PatientStore.merge(base, builders);
+        if (parse.checkpoint != null)
+        {
+            try
+            {
+                parse.checkpoint.write(cacheFile, patients::writeTo);
+            }
+            catch (IOException e)
+            {
+                Utils.printWarning("Could not write tail checkpoint of " + file.getName() + ": " + e.getMessage());
+            }
+        }
+        if (base != null)
+            Utils.printUpdate("Loaded " + patients.size() + " patients from " + file.getName() + ", " + (patients.size() - base.size()) + " appended");
+        else
+            Utils.printUpdate("Loaded " + patients.size() + " patients from " + file.getName());
+        return patients;
+    }
+
+    /**
+     * Open a streaming feed of the patients of the file, see {@link ArrivalFeed}.
+     * The error budget of this parser applies to the feed; its invalid rows are reported at the
+     * end of the file or when the feed is closed.
+     * @param file The patient file, sorted by scheduled datetime
+     * @param delimiter The delimiter character ('\t' for TSV, ',' for CSV)
+     * @param lookAheadMillis Span of scheduled datetimes held in memory at once
+     * @return the feed, to be started and closed by the caller
+     * @throws IOException on file read error
+     */
+    public ArrivalFeed openArrivalFeed(File file, char delimiter, long lookAheadMillis) throws IOException
+    {
+        return new ArrivalFeed(main, openRowCursor(file, delimiter), lookAheadMillis);
+    }
+
+    /**
+     * Add the patient of a row to the builder.
+     * Rows without scheduled datetime are skipped with a warning.
+     * @return false if the row was skipped
+     * @throws DataValidationException if the patient id is missing or the priority out of range
+     */
+    static boolean addPatient(ParserRow<Header> row, PatientStore.Builder patients)
+    {
+        String patientId = row.get(Header.PATIENT_ID);
+        if (patientId.isEmpty())
+            throw new DataValidationException("Missing patient_id", Header.PATIENT_ID.baseName(), patientId);
+        if (row.isEmpty(Header.SCHEDULED_DATETIME))
+        {
+            row.warn("Patient " + patientId + " skipped, no scheduled_datetime");
+            return false;
+        }
+        patients.add(
+            patientId,
+            row.getDateMillis(Header.SCHEDULED_DATETIME),
+            row.get(Header.PROCEDURE),
+            row.isEmpty(Header.PREFERRED_SURGEON) ? null : row.get(Header.PREFERRED_SURGEON),
+            row.getInt(Header.PRIORITY));
+        return true;
+    }
+
+    /**
+     * Collects the patients of one chunk of the file.
+     */
+    private static class PatientCollector implements RowHandler<Header>
+    {
+        private final PatientStore.Builder patients = new PatientStore.Builder();
+
+        @Override
+        public void handleRow(ParserRow<Header> row)
+        {
+            addPatient(row, patients);
+        }
+    }
+
 	@Override
 	public String toString() {
 		return super.toString();
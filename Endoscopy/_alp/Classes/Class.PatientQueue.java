@@ -0,0 +1,244 @@
+/**
+ * PatientQueue
+ *
+ * Waiting patients ordered by priority (highest first, as in the AnyLogic priority-based queue),
+ * then scheduled datetime, then arrival order, so equal keys are served first in, first out.
+ * Indexed binary heap: insertion, removal of the head or of any patient, and reprioritization of
+ * a waiting patient are O(log n), with no rescan of the queue.
+ *
+ * The heap serves code that holds its own waiting line. The Main queue block orders its agents
+ * itself when they enter and never polls a heap, so it does not keep one alongside: its queuing is
+ * "agent comparison" with comparison (agent1 is preferred to agent2)
+ * {@code PatientQueue.servedBefore(agent1, agent2)}, the same order read from the keys bound on the
+ * two patients. Equal keys are not preferred, so the block keeps them in arrival order.
+ */
+public class PatientQueue implements Serializable
+{
+    private Entry[] heap = new Entry[64];
+    private int size;
+    private long sequence;
+    private final Map<Patient, Entry> entries = new IdentityHashMap<>();
+
+    /**
+     * Add a patient with the priority and scheduled datetime of its {@link PatientStore} row.
+     */
+    public void add(Patient patient)
+    {
+        add(patient, patient.store.priority(patient.storeIndex), patient.store.scheduledMillis(patient.storeIndex));
+    }
+
+    /**
+     * @param patient The patient, not already in the queue
+     * @param priority The priority, higher first
+     * @param scheduledMillis The scheduled datetime, earlier first among equal priorities
+     * @throws IllegalStateException if the patient is already in the queue
+     */
+    public void add(Patient patient, int priority, long scheduledMillis)
+    {
+        Entry entry = new Entry(patient, priority, scheduledMillis, sequence++);
+        if (entries.putIfAbsent(patient, entry) != null)
+            throw new IllegalStateException("Patient already queued: " + patient);
+        if (size == heap.length)
+            heap = Arrays.copyOf(heap, size * 2);
+        entry.index = size;
+        heap[size++] = entry;
+        siftUp(entry.index);
+    }
+
+    /**
+     * @return the first patient, or null if the queue is empty
+     */
+    public Patient peek()
+    {
+        return size == 0 ? null : heap[0].patient;
+    }
+
+    /**
+     * Remove and return the first patient.
+     * @return the first patient, or null if the queue is empty
+     */
+    public Patient poll()
+    {
+        if (size == 0)
+            return null;
+        Patient first = heap[0].patient;
+        removeAt(0);
+        return first;
+    }
+
+    /**
+     * @return true if the patient was in the queue
+     */
+    public boolean remove(Patient patient)
+    {
+        Entry entry = entries.get(patient);
+        if (entry == null)
+            return false;
+        removeAt(entry.index);
+        return true;
+    }
+
+    /**
+     * Change the priority of a waiting patient. Among patients of the new priority it is ordered by
+     * its scheduled datetime and original arrival, as if it had arrived with that priority.
+     * @return true if the patient was in the queue
+     */
+    public boolean reprioritize(Patient patient, int priority)
+    {
+        Entry entry = entries.get(patient);
+        if (entry == null)
+            return false;
+        int previous = entry.priority;
+        entry.priority = priority;
+        if (priority > previous)
+            siftUp(entry.index);
+        else
+            siftDown(entry.index);
+        return true;
+    }
+
+    /**
+     * @return true if the first patient is served before the second, the order of {@link #poll}
+     * @throws NoSuchElementException if a patient is not in the queue
+     */
+    public boolean precedes(Patient first, Patient second)
+    {
+        return entry(first).precedes(entry(second));
+    }
+
+    /**
+     * Order of the keys bound on two patients by {@link PatientStore#bind}: priority, then scheduled
+     * datetime; arrival order is left to the caller.
+     * @return true if the first patient is served before the second, false for equal keys
+     */
+    public static boolean servedBefore(Patient first, Patient second)
+    {
+        int priority = first.store.priority(first.storeIndex);
+        int otherPriority = second.store.priority(second.storeIndex);
+        if (priority != otherPriority)
+            return priority > otherPriority;
+        return first.store.scheduledMillis(first.storeIndex) < second.store.scheduledMillis(second.storeIndex);
+    }
+
+    public boolean contains(Patient patient)
+    {
+        return entries.containsKey(patient);
+    }
+
+    /**
+     * @return the priority of a waiting patient
+     * @throws NoSuchElementException if the patient is not in the queue
+     */
+    public int priority(Patient patient)
+    {
+        return entry(patient).priority;
+    }
+
+    private Entry entry(Patient patient)
+    {
+        Entry entry = entries.get(patient);
+        if (entry == null)
+            throw new NoSuchElementException("Patient not queued: " + patient);
+        return entry;
+    }
+
+    public int size()
+    {
+        return size;
+    }
+
+    public boolean isEmpty()
+    {
+        return size == 0;
+    }
+
+    private void removeAt(int index)
+    {
+        Entry removed = heap[index];
+        entries.remove(removed.patient);
+        Entry last = heap[--size];
+        heap[size] = null;
+        if (index == size)
+            return;
+        heap[index] = last;
+        last.index = index;
+        siftDown(index);
+        if (last.index == index)
+            siftUp(index);
+    }
+
+    private void siftUp(int index)
+    {
+        Entry entry = heap[index];
+        while (index > 0)
+        {
+            int parent = (index - 1) >>> 1;
+            if (!entry.precedes(heap[parent]))
+                break;
+            heap[index] = heap[parent];
+            heap[index].index = index;
+            index = parent;
+        }
+        heap[index] = entry;
+        entry.index = index;
+    }
+
+    private void siftDown(int index)
+    {
+        Entry entry = heap[index];
+        int half = size >>> 1;
+        while (index < half)
+        {
+            int child = 2 * index + 1;
+            if (child + 1 < size && heap[child + 1].precedes(heap[child]))
+                child++;
+            if (!heap[child].precedes(entry))
+                break;
+            heap[index] = heap[child];
+            heap[index].index = index;
+            index = child;
+        }
+        heap[index] = entry;
+        entry.index = index;
+    }
+
+    private static final class Entry implements Serializable
+    {
+        final Patient patient;
+        int priority;
+        final long scheduledMillis;
+        final long sequence;
+        int index;
+
+        Entry(Patient patient, int priority, long scheduledMillis, long sequence)
+        {
+            this.patient = patient;
+            this.priority = priority;
+            this.scheduledMillis = scheduledMillis;
+            this.sequence = sequence;
+        }
+
+        boolean precedes(Entry other)
+        {
+            if (priority != other.priority)
+                return priority > other.priority;
+            if (scheduledMillis != other.scheduledMillis)
+                return scheduledMillis < other.scheduledMillis;
+            return sequence < other.sequence;
+        }
+
+        private static final long serialVersionUID = 1L;
+    }
+
+	@Override
+	public String toString() {
+		return "PatientQueue[" + size + " patients]";
+	}
+
+	/**
+	 * This number is here for model snapshot storing purpose<br>
+	 * It needs to be changed when this class gets changed
+	 */
+	private static final long serialVersionUID = 1L;
+
+}
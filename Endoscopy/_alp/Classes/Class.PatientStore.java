@@ -0,0 +1,389 @@
+/**
+ * PatientStore
+ *
+ * Columnar (structure of arrays) store of the patients loaded by {@link PatientParser},
+ * sorted by scheduled datetime, then patient id. Each patient is an index into primitive
+ * arrays; procedure and preferred surgeon are interned into dictionaries and kept as int codes.
+ * Patient agents are only created when they arrive, and are bound to their index with {@link #bind}.
+ */
+public class PatientStore implements Serializable
+{
+    /** Code of a missing preferred surgeon */
+    public static final int NO_SURGEON = -1;
+
+    private final String[] patientIds;
+    private final long[] scheduledMillis;
+    private final int[] procedureCodes;
+    private final int[] preferredSurgeonCodes;
+    private final byte[] priorities;
+    private final StringDictionary procedures;
+    private final StringDictionary surgeons;
+
+    private PatientStore(String[] patientIds, long[] scheduledMillis, int[] procedureCodes, int[] preferredSurgeonCodes,
+                         byte[] priorities, StringDictionary procedures, StringDictionary surgeons)
+    {
+        this.patientIds = patientIds;
+        this.scheduledMillis = scheduledMillis;
+        this.procedureCodes = procedureCodes;
+        this.preferredSurgeonCodes = preferredSurgeonCodes;
+        this.priorities = priorities;
+        this.procedures = procedures;
+        this.surgeons = surgeons;
+    }
+
+    /**
+     * @return number of patients
+     */
+    public int size()
+    {
+        return patientIds.length;
+    }
+
+    public String patientId(int index)
+    {
+        return patientIds[index];
+    }
+
+    /**
+     * @return scheduled datetime in epoch milliseconds
+     */
+    public long scheduledMillis(int index)
+    {
+        return scheduledMillis[index];
+    }
+
+    /**
+     * @return code of the procedure in {@link #procedures()}
+     */
+    public int procedureCode(int index)
+    {
+        return procedureCodes[index];
+    }
+
+    public String procedure(int index)
+    {
+        return procedures.valueOf(procedureCodes[index]);
+    }
+
+    /**
+     * @return code of the preferred surgeon in {@link #surgeons()}, or NO_SURGEON
+     */
+    public int preferredSurgeonCode(int index)
+    {
+        return preferredSurgeonCodes[index];
+    }
+
+    /**
+     * @return the preferred surgeon id, or null if none
+     */
+    public String preferredSurgeon(int index)
+    {
+        int code = preferredSurgeonCodes[index];
+        return code == NO_SURGEON ? null : surgeons.valueOf(code);
+    }
+
+    public int priority(int index)
+    {
+        return priorities[index];
+    }
+
+    /**
+     * @return dictionary of the procedure codes
+     */
+    public StringDictionary procedures()
+    {
+        return procedures;
+    }
+
+    /**
+     * @return dictionary of the preferred surgeon codes
+     */
+    public StringDictionary surgeons()
+    {
+        return surgeons;
+    }
+
+    /**
+     * Bind a newly created patient agent to its record.
+     * @param patient The patient agent
+     * @param index The index of the patient in this store
+     */
+    public void bind(Patient patient, int index)
+    {
+        patient.set_id(patientIds[index]);
+        patient.set_store(this);
+        patient.set_storeIndex(index);
+    }
+
+    /**
+     * Write the store to a checkpoint, column by column, scheduled datetimes as deltas.
+     */
+    public void writeTo(ModelCheckpoint.Output out) throws IOException
+    {
+        int size = size();
+        out.writeInt(size);
+        procedures.writeTo(out);
+        surgeons.writeTo(out);
+        for (String id : patientIds)
+            out.writeString(id);
+        long previous = 0;
+        for (long millis : scheduledMillis)
+        {
+            out.writeSignedLong(millis - previous);
+            previous = millis;
+        }
+        for (int code : procedureCodes)
+            out.writeInt(code);
+        for (int code : preferredSurgeonCodes)
+            out.writeInt(code + 1);
+        out.write(priorities);
+    }
+
+    /**
+     * Read a store written by {@link #writeTo}.
+     */
+    public static PatientStore readFrom(ModelCheckpoint.Input in) throws IOException
+    {
+        int size = in.readInt();
+        StringDictionary procedures = StringDictionary.readFrom(in);
+        StringDictionary surgeons = StringDictionary.readFrom(in);
+        String[] ids = new String[size];
+        for (int i = 0; i < size; i++)
+            ids[i] = in.readString();
+        long[] millis = new long[size];
+        long previous = 0;
+        for (int i = 0; i < size; i++)
+            previous = millis[i] = previous + in.readSignedLong();
+        int[] procedureCodes = new int[size];
+        for (int i = 0; i < size; i++)
+            procedureCodes[i] = in.readInt();
+        int[] surgeonCodes = new int[size];
+        for (int i = 0; i < size; i++)
+            surgeonCodes[i] = in.readInt() - 1;
+        byte[] priorities = new byte[size];
+        in.readFully(priorities);
+        return new PatientStore(ids, millis, procedureCodes, surgeonCodes, priorities, procedures, surgeons);
+    }
+
+    /**
+     * Merge the chunk builders into one store sorted by scheduled datetime, then patient id.
+     * Dictionary codes of the chunks are remapped to shared dictionaries.
+     * @param chunks The builders in file order
+     * @return the sorted store
+     */
+    public static PatientStore merge(List<Builder> chunks)
+    {
+        return merge(null, chunks);
+    }
+
+    /**
+     * Merge the chunk builders of rows appended to a file into the store of its earlier rows,
+     * see {@link PatientParser#loadPatientsIncremental}. The codes of the store are kept.
+     * @param base The store of the earlier rows, or null
+     * @param chunks The builders of the appended rows, in file order
+     * @return the sorted store of all rows
+     */
+    public static PatientStore merge(PatientStore base, List<Builder> chunks)
+    {
+        return merge(base, chunks, new StringDictionary(), new StringDictionary());
+    }
+
+    /**
+     * Build the store of the next window of a streamed patient file (see {@link ArrivalFeed}), sorted
+     * as with {@link #merge}. The window shares and extends the dictionaries of the previous window:
+     * dictionaries only grow, so the codes of earlier windows stay valid while their patients are in
+     * flight, and translations cached per dictionary (see {@link DurationEngine}) are kept.
+     * @param previous The store of the previous window, or null for the first window
+     * @param chunk The patients of the window
+     * @return the sorted store of the window
+     */
+    public static PatientStore nextWindow(PatientStore previous, Builder chunk)
+    {
+        if (previous == null)
+            return merge(null, Collections.singletonList(chunk));
+        return merge(null, Collections.singletonList(chunk), previous.procedures, previous.surgeons);
+    }
+
+    private static PatientStore merge(PatientStore base, List<Builder> chunks, StringDictionary procedures, StringDictionary surgeons)
+    {
+        int offset = base == null ? 0 : base.size();
+        int total = offset;
+        for (Builder chunk : chunks)
+            total += chunk.size;
+        String[] ids = new String[total];
+        long[] millis = new long[total];
+        int[] procedureCodes = new int[total];
+        int[] surgeonCodes = new int[total];
+        byte[] priorities = new byte[total];
+        if (base != null)
+        {
+            remap(base.procedures, procedures);
+            remap(base.surgeons, surgeons);
+            System.arraycopy(base.patientIds, 0, ids, 0, offset);
+            System.arraycopy(base.scheduledMillis, 0, millis, 0, offset);
+            System.arraycopy(base.procedureCodes, 0, procedureCodes, 0, offset);
+            System.arraycopy(base.preferredSurgeonCodes, 0, surgeonCodes, 0, offset);
+            System.arraycopy(base.priorities, 0, priorities, 0, offset);
+        }
+        for (Builder chunk : chunks)
+        {
+            int[] procedureRemap = remap(chunk.procedures, procedures);
+            int[] surgeonRemap = remap(chunk.surgeons, surgeons);
+            for (int i = 0; i < chunk.size; i++)
+            {
+                ids[offset + i] = chunk.patientIds[i];
+                millis[offset + i] = chunk.scheduledMillis[i];
+                procedureCodes[offset + i] = procedureRemap[chunk.procedureCodes[i]];
+                int surgeon = chunk.preferredSurgeonCodes[i];
+                surgeonCodes[offset + i] = surgeon == NO_SURGEON ? NO_SURGEON : surgeonRemap[surgeon];
+                priorities[offset + i] = chunk.priorities[i];
+            }
+            offset += chunk.size;
+        }
+
+        int[] order = new int[total];
+        for (int i = 0; i < total; i++)
+            order[i] = i;
+        sortBySchedule(order, new int[total], 0, total, millis, ids);
+
+        String[] sortedIds = new String[total];
+        long[] sortedMillis = new long[total];
+        int[] sortedProcedures = new int[total];
+        int[] sortedSurgeons = new int[total];
+        byte[] sortedPriorities = new byte[total];
+        for (int i = 0; i < total; i++)
+        {
+            int from = order[i];
+            sortedIds[i] = ids[from];
+            sortedMillis[i] = millis[from];
+            sortedProcedures[i] = procedureCodes[from];
+            sortedSurgeons[i] = surgeonCodes[from];
+            sortedPriorities[i] = priorities[from];
+        }
+        return new PatientStore(sortedIds, sortedMillis, sortedProcedures, sortedSurgeons, sortedPriorities, procedures, surgeons);
+    }
+
+    private static int[] remap(StringDictionary local, StringDictionary shared)
+    {
+        int[] remap = new int[local.size()];
+        for (int i = 0; i < remap.length; i++)
+            remap[i] = shared.intern(local.valueOf(i));
+        return remap;
+    }
+
+    /**
+     * Stable merge sort of the index range [from, to) by scheduled millis, then patient id, without boxing.
+     */
+    private static void sortBySchedule(int[] order, int[] buffer, int from, int to, long[] millis, String[] ids)
+    {
+        if (to - from < 2)
+            return;
+        int middle = (from + to) >>> 1;
+        sortBySchedule(order, buffer, from, middle, millis, ids);
+        sortBySchedule(order, buffer, middle, to, millis, ids);
+        if (compare(order[middle - 1], order[middle], millis, ids) <= 0)
+            return;
+        System.arraycopy(order, from, buffer, from, to - from);
+        int left = from, right = middle;
+        for (int i = from; i < to; i++)
+        {
+            if (right >= to || (left < middle && compare(buffer[left], buffer[right], millis, ids) <= 0))
+                order[i] = buffer[left++];
+            else
+                order[i] = buffer[right++];
+        }
+    }
+
+    private static int compare(int a, int b, long[] millis, String[] ids)
+    {
+        int result = Long.compare(millis[a], millis[b]);
+        return result != 0 ? result : ids[a].compareTo(ids[b]);
+    }
+
+    /**
+     * Collects the patients of one chunk of the patient file into growable primitive arrays.
+     */
+    public static class Builder
+    {
+        private String[] patientIds = new String[1024];
+        private long[] scheduledMillis = new long[1024];
+        private int[] procedureCodes = new int[1024];
+        private int[] preferredSurgeonCodes = new int[1024];
+        private byte[] priorities = new byte[1024];
+        private final StringDictionary procedures = new StringDictionary();
+        private final StringDictionary surgeons = new StringDictionary();
+        private int size;
+
+        /**
+         * @return number of added patients
+         */
+        public int size()
+        {
+            return size;
+        }
+
+        /**
+         * @return scheduled millis of the last added patient
+         */
+        public long lastMillis()
+        {
+            return scheduledMillis[size - 1];
+        }
+
+        /**
+         * Move the last added patient to a new builder, e.g. a patient read past the end of a window.
+         * @return a builder holding only that patient
+         */
+        public Builder takeLast()
+        {
+            int last = --size;
+            int surgeon = preferredSurgeonCodes[last];
+            Builder builder = new Builder();
+            builder.add(patientIds[last], scheduledMillis[last], procedures.valueOf(procedureCodes[last]),
+                surgeon == NO_SURGEON ? null : surgeons.valueOf(surgeon), priorities[last]);
+            patientIds[last] = null;
+            return builder;
+        }
+
+        /**
+         * @param patientId The patient id
+         * @param scheduledMillis The scheduled datetime in epoch milliseconds
+         * @param procedure The procedure
+         * @param preferredSurgeon The preferred surgeon id, or null
+         * @param priority The priority, from 0 to 127
+         * @throws DataValidationException if the priority is out of range
+         */
+        public void add(String patientId, long scheduledMillis, String procedure, String preferredSurgeon, int priority)
+        {
+            if (priority < 0 || priority > Byte.MAX_VALUE)
+                throw new DataValidationException("Priority out of range [0, " + Byte.MAX_VALUE + "]", "priority", Integer.toString(priority));
+            if (size == patientIds.length)
+            {
+                int capacity = size * 2;
+                patientIds = Arrays.copyOf(patientIds, capacity);
+                this.scheduledMillis = Arrays.copyOf(this.scheduledMillis, capacity);
+                procedureCodes = Arrays.copyOf(procedureCodes, capacity);
+                preferredSurgeonCodes = Arrays.copyOf(preferredSurgeonCodes, capacity);
+                priorities = Arrays.copyOf(priorities, capacity);
+            }
+            patientIds[size] = patientId;
+            this.scheduledMillis[size] = scheduledMillis;
+            procedureCodes[size] = procedures.intern(procedure);
+            preferredSurgeonCodes[size] = preferredSurgeon == null ? NO_SURGEON : surgeons.intern(preferredSurgeon);
+            priorities[size] = (byte) priority;
+            size++;
+        }
+    }
+
+	@Override
+	public String toString() {
+		return "PatientStore[" + size() + " patients, " + procedures.size() + " procedures]";
+	}
+
+	/**
+	 * This number is here for model snapshot storing purpose<br>
+	 * It needs to be changed when this class gets changed
+	 */
+	private static final long serialVersionUID = 1L;
+
+}
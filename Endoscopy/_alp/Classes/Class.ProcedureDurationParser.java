@@ -0,0 +1,82 @@
+/**
+ * ProcedureDurationParser
+ */
+import java.io.File;
+import java.io.IOException;
+
+public class ProcedureDurationParser extends endoscopy.AbstractParser<ProcedureDurationParser.Header> implements Serializable
+{
+    public ProcedureDurationParser(Main main, Province province)
+    {
+    	super(main, province);
+    }
+
+    /**
+     * Header enum for procedure duration history file columns.
+     */
+    public enum Header implements ParserHeader
+    {
+        PROCEDURE("procedure", false),
+        ROOM_TYPE("room_type", true),
+        DURATION("duration", false);
+
+        private final String base;
+        private final boolean optional;
+        Header(String base, boolean optional)
+        {
+        	this.base = base;
+        	this.optional = optional;
+        	}
+        public String baseName()
+        {
+        	return base;
+    	}
+        public boolean optional()
+        {
+        	return optional;
+    	}
+    }
+
+    @Override
+    protected Class<Header> getHeaderEnum()
+    {
+        return Header.class;
+    }
+
+    /**
+     * Load the observed procedure durations, in minutes, one row per past procedure.
+     * @param file The duration history file
+     * @param delimiter The delimiter character ('\t' for TSV, ',' for CSV)
+     * @return the durations, to be compiled with {@link DurationEngine.Builder#build}
+     * @throws IOException on file read error
+     * @throws DataValidationException on the first invalid row
+     */
+    public DurationEngine.Builder loadDurations(File file, char delimiter) throws IOException
+    {
+        DurationEngine.Builder durations = new DurationEngine.Builder();
+        parseRows(file, delimiter, row ->
+        {
+            String procedure = row.get(Header.PROCEDURE);
+            if (procedure.isEmpty())
+                throw new DataValidationException("Missing procedure", Header.PROCEDURE.baseName(), procedure);
+            double minutes = row.getDouble(Header.DURATION);
+            if (!(minutes > 0))
+                throw new DataValidationException("Duration must be positive", Header.DURATION.baseName(), row.get(Header.DURATION));
+            durations.add(procedure, row.isEmpty(Header.ROOM_TYPE) ? null : row.get(Header.ROOM_TYPE), minutes);
+        });
+        Utils.printUpdate("Loaded " + durations.size() + " procedure durations from " + file.getName());
+        return durations;
+    }
+
+	@Override
+	public String toString() {
+		return super.toString();
+	}
+
+	/**
+	 * This number is here for model snapshot storing purpose<br>
+	 * It needs to be changed when this class gets changed
+	 */
+	private static final long serialVersionUID = 1L;
+
+}
@@ -0,0 +1,233 @@
+/**
+ * ProvinceShardRunner
+ *
+ * Runs the provinces of a health network as independent shards in parallel: each shard owns one
+ * province's engine and Main (its patient feed, surgeon and operating room pools and flowchart) and
+ * advances its own event loop. Shards synchronize only at time barriers, every barrierInterval of
+ * model time: all shards run to the barrier in parallel, then the patients they transferred to other
+ * provinces are delivered, in shard order so the run is reproducible, and the next interval starts.
+ * A transfer therefore reaches its destination at the first barrier after it was sent; a shorter
+ * interval gives more timely transfers for more synchronization.
+ *
+ * This class is the runner scaffolding only: the model ships no engine-backed {@link Shard}. A province
+ * model implements one like a {@link ReplicationRunner.Replication}: it creates an engine and a Main
+ * for its province, from the {@link ModelInputs} loaded with that province, and advances that engine
+ * only from {@link Shard#runUntil}. A shard may run on a different pool thread at every interval, so
+ * runUntil starts with {@code Utils.bind(root)} once the shard's Main has run its On startup
+ * (Utils.setMain), which keeps the messages and print flags of each province in its own log.
+ *
+ * At the end the KPIs of the shards are written side by side with their sum, so shards should
+ * report additive KPIs (counts, total waiting time, busy time) and derive ratios after the merge.
+ */
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class ProvinceShardRunner
+{
+    /**
+     * One province running in its own engine.
+     */
+    public interface Shard
+    {
+        /**
+         * @return the province name, the destination of transfers
+         */
+        String name();
+
+        /**
+         * Advance the engine of the province to the given model time. Called from any pool thread,
+         * one interval at a time: bind the thread to the province's Main with {@link Utils#bind} first.
+         * @throws Exception if the simulation fails, the whole run is aborted
+         */
+        void runUntil(double time) throws Exception;
+
+        /**
+         * @return the patients sent to other provinces since the previous call
+         */
+        List<ProvinceTransfer> drainTransfers();
+
+        /**
+         * Take in a patient from another province, at the current barrier time.
+         */
+        void receive(ProvinceTransfer transfer);
+
+        /**
+         * @return the additive KPIs of the province by name
+         */
+        Map<String, Double> kpis();
+    }
+
+    private final List<Shard> shards;
+    private final Map<String, Shard> shardsByName = new HashMap<>();
+    private final int threads;
+    private long transferCount;
+    private double idleSeconds;
+
+    /**
+     * @param shards The provinces
+     * @param threads Number of shards run at once
+     */
+    public ProvinceShardRunner(List<Shard> shards, int threads)
+    {
+        if (threads < 1)
+            throw new IllegalArgumentException("Thread count must be positive: " + threads);
+        this.shards = new ArrayList<>(shards);
+        this.threads = threads;
+        for (Shard shard : shards)
+        {
+            if (shardsByName.put(shard.name(), shard) != null)
+                throw new IllegalArgumentException("Duplicate province: " + shard.name());
+        }
+    }
+
+    /**
+     * Run all shards to the stop time.
+     * @param startTime Model time the shards start at
+     * @param stopTime Model time the shards stop at
+     * @param barrierInterval Model time between two synchronizations
+     * @param resultFile Tab-separated file receiving the KPIs of each province and their sum, or null
+     * @return the summed KPIs
+     * @throws IOException if the result file cannot be written
+     * @throws IllegalStateException if a shard fails
+     */
+    public Map<String, Double> run(double startTime, double stopTime, double barrierInterval, File resultFile) throws IOException
+    {
+        if (!(barrierInterval > 0))
+            throw new IllegalArgumentException("Barrier interval must be positive: " + barrierInterval);
+        AtomicInteger threadNumber = new AtomicInteger();
+        ExecutorService pool = Executors.newFixedThreadPool(Math.min(threads, Math.max(1, shards.size())), task ->
+        {
+            Thread thread = new Thread(task, "province-" + threadNumber.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        long start = System.currentTimeMillis();
+        int barriers = 0;
+        try
+        {
+            double time = startTime;
+            while (time < stopTime)
+            {
+                double barrier = Math.min(stopTime, time + barrierInterval);
+                runInterval(pool, barrier);
+                exchangeTransfers(barrier);
+                time = barrier;
+                barriers++;
+            }
+        }
+        finally
+        {
+            pool.shutdownNow();
+        }
+        Utils.printUpdate("Ran " + shards.size() + " provinces to " + stopTime + " with " + barriers + " barriers and "
+            + transferCount + " transfers in " + (System.currentTimeMillis() - start) + " ms (" + Math.round(idleSeconds) + " s waiting at barriers)");
+        return writeResults(resultFile);
+    }
+
+    /**
+     * Run every shard to the barrier in parallel, and measure the time threads waited for the slowest shard.
+     */
+    private void runInterval(ExecutorService pool, double barrier)
+    {
+        List<Future<Long>> running = new ArrayList<>();
+        for (Shard shard : shards)
+        {
+            running.add(pool.submit(() ->
+            {
+                long t = System.nanoTime();
+                shard.runUntil(barrier);
+                return System.nanoTime() - t;
+            }));
+        }
+        long slowest = 0, total = 0;
+        for (int i = 0; i < running.size(); i++)
+        {
+            try
+            {
+                long nanos = running.get(i).get();
+                slowest = Math.max(slowest, nanos);
+                total += nanos;
+            }
+            catch (ExecutionException e)
+            {
+                throw new IllegalStateException("Province " + shards.get(i).name() + " failed before time " + barrier, e.getCause());
+            }
+            catch (InterruptedException e)
+            {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("Interrupted at time " + barrier, e);
+            }
+        }
+        idleSeconds += (slowest * (double) shards.size() - total) / 1e9;
+    }
+
+    private void exchangeTransfers(double barrier)
+    {
+        for (Shard shard : shards)
+        {
+            for (ProvinceTransfer transfer : shard.drainTransfers())
+            {
+                Shard destination = shardsByName.get(transfer.toProvince);
+                if (destination == null)
+                {
+                    Utils.printWarning("province-transfer", () -> "Transfer to unknown province dropped: " + transfer);
+                    continue;
+                }
+                destination.receive(transfer);
+                transferCount++;
+            }
+        }
+        Utils.printDebug(() -> String.format("Barrier at %.2f: %d transfers so far", barrier, transferCount));
+    }
+
+    private Map<String, Double> writeResults(File resultFile) throws IOException
+    {
+        Map<String, Double> total = new LinkedHashMap<>();
+        List<Map<String, Double>> kpis = new ArrayList<>();
+        for (Shard shard : shards)
+        {
+            Map<String, Double> k = shard.kpis();
+            kpis.add(k);
+            for (Map.Entry<String, Double> kpi : k.entrySet())
+                total.merge(kpi.getKey(), kpi.getValue(), Double::sum);
+        }
+        if (resultFile == null)
+            return total;
+        try (Writer out = new BufferedWriter(new FileWriter(resultFile)))
+        {
+            out.write("province");
+            for (String name : total.keySet())
+                out.write("\t" + name);
+            out.write("\n");
+            for (int i = 0; i < shards.size(); i++)
+                writeRow(out, shards.get(i).name(), total.keySet(), kpis.get(i));
+            writeRow(out, "TOTAL", total.keySet(), total);
+        }
+        return total;
+    }
+
+    private static void writeRow(Writer out, String name, Set<String> columns, Map<String, Double> kpis) throws IOException
+    {
+        out.write(name);
+        for (String column : columns)
+        {
+            Double value = kpis.get(column);
+            out.write("\t" + (value == null ? "" : value));
+        }
+        out.write("\n");
+    }
+
+    /**
+     * @return number of transfers delivered so far
+     */
+    public long transferCount()
+    {
+        return transferCount;
+    }
+
+	@Override
+	public String toString() {
+		return "ProvinceShardRunner[" + shards.size() + " provinces, " + threads + " threads]";
+	}
+
+}
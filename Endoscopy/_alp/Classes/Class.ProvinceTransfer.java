@@ -0,0 +1,38 @@
+/**
+ * ProvinceTransfer
+ *
+ * A patient sent from one province shard to another, delivered at the next time barrier
+ * of the {@link ProvinceShardRunner}.
+ */
+public class ProvinceTransfer implements Serializable
+{
+    public final String fromProvince;
+    public final String toProvince;
+    public final String patientId;
+    public final String procedure;
+    public final int priority;
+    /** Model time at which the patient left the sending province */
+    public final double sentTime;
+
+    public ProvinceTransfer(String fromProvince, String toProvince, String patientId, String procedure, int priority, double sentTime)
+    {
+        this.fromProvince = fromProvince;
+        this.toProvince = toProvince;
+        this.patientId = patientId;
+        this.procedure = procedure;
+        this.priority = priority;
+        this.sentTime = sentTime;
+    }
+
+	@Override
+	public String toString() {
+		return "ProvinceTransfer[" + patientId + ", " + fromProvince + " -> " + toProvince + " at " + sentTime + "]";
+	}
+
+	/**
+	 * This number is here for model snapshot storing purpose<br>
+	 * It needs to be changed when this class gets changed
+	 */
+	private static final long serialVersionUID = 1L;
+
+}
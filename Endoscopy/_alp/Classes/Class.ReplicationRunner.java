@@ -0,0 +1,186 @@
+/**
+ * ReplicationRunner
+ *
+ * Headless batch of independent replications, run on a worker pool sized to the cores.
+ * All replications share one read-only {@link ModelInputs}; each gets its own seed, derived
+ * from the base seed and its index so that a batch is reproducible whatever the thread timing.
+ * The KPIs of each replication are written to the result file as soon as it finishes, and
+ * aggregated (mean, standard deviation, 95% confidence interval, min, max) into a summary file.
+ *
+ * Rows are written in the column order of the header, whatever the map order of each replication.
+ *
+ * A replication creates its own engine and Main, typically from a Custom Experiment. The Main
+ * registers its own log on the replication thread (Utils.setMain in On startup, see {@link Utils}),
+ * so concurrent replications keep their messages and print flags apart:
+ * <pre>
+ * runner.run(200, 1, (index, seed, inputs) -&gt; {
+ *     Engine engine = createEngine();
+ *     engine.getDefaultRandomGenerator().setSeed(seed);
+ *     Main root = new Main(engine, null, null);
+ *     ... pass inputs to root, start, runFast() ...
+ *     return root.flowchartStats.kpis();
+ * }, resultFile);
+ * </pre>
+ */
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class ReplicationRunner
+{
+    /**
+     * One replication of the model.
+     */
+    public interface Replication
+    {
+        /**
+         * @param index Replication index, from 0
+         * @param seed Random seed of the replication
+         * @param inputs The shared input data, not to be modified
+         * @return KPI values by name, the same names for every replication
+         * @throws Exception if the replication fails, the batch continues without it
+         */
+        Map<String, Double> run(int index, long seed, ModelInputs inputs) throws Exception;
+    }
+
+    private final ModelInputs inputs;
+    private final int threads;
+
+    /**
+     * @param inputs The input data shared by all replications
+     */
+    public ReplicationRunner(ModelInputs inputs)
+    {
+        this(inputs, Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * @param inputs The input data shared by all replications
+     * @param threads Number of replications run at once
+     */
+    public ReplicationRunner(ModelInputs inputs, int threads)
+    {
+        if (threads < 1)
+            throw new IllegalArgumentException("Thread count must be positive: " + threads);
+        this.inputs = inputs;
+        this.threads = threads;
+    }
+
+    /**
+     * @return the seed of a replication, well mixed so neighbouring indexes give unrelated streams
+     */
+    public static long seedOf(long baseSeed, int replication)
+    {
+        long z = baseSeed + (replication + 1) * 0x9E3779B97F4A7C15L;
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        return z ^ (z >>> 31);
+    }
+
+    /**
+     * Run the replications and write their KPIs.
+     * @param count Number of replications
+     * @param baseSeed Seed of the batch
+     * @param replication The replication to run
+     * @param resultFile Tab-separated file receiving one line per finished replication (in finish order);
+     *                   the summary goes to the same name with ".summary.tsv"
+     * @return aggregated statistics by KPI name
+     * @throws IOException if a result file cannot be written
+     */
+    public Map<String, RunningStats> run(int count, long baseSeed, Replication replication, File resultFile) throws IOException
+    {
+        AtomicInteger threadNumber = new AtomicInteger();
+        ExecutorService pool = Executors.newFixedThreadPool(threads, task ->
+        {
+            Thread thread = new Thread(task, "replication-" + threadNumber.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        Map<String, RunningStats> stats = new LinkedHashMap<>();
+        int failed = 0;
+        try (Writer out = new BufferedWriter(new FileWriter(resultFile)))
+        {
+            CompletionService<Map<String, Double>> done = new ExecutorCompletionService<>(pool);
+            Map<Future<Map<String, Double>>, Integer> indexes = new HashMap<>();
+            for (int i = 0; i < count; i++)
+            {
+                int index = i;
+                long seed = seedOf(baseSeed, i);
+                indexes.put(done.submit(() -> replication.run(index, seed, inputs)), index);
+            }
+            for (int i = 0; i < count; i++)
+            {
+                Future<Map<String, Double>> future = done.take();
+                int index = indexes.get(future);
+                Map<String, Double> kpis;
+                try
+                {
+                    kpis = future.get();
+                }
+                catch (ExecutionException e)
+                {
+                    failed++;
+                    Utils.printWarning("Replication " + index + " failed: " + e.getCause());
+                    continue;
+                }
+                if (stats.isEmpty())
+                    writeHeader(out, kpis.keySet(), stats);
+                if (!kpis.keySet().equals(stats.keySet()))
+                    throw new IllegalStateException("Replication " + index + " KPIs " + kpis.keySet() + " differ from " + stats.keySet());
+                out.write(index + "\t" + seedOf(baseSeed, index));
+                for (Map.Entry<String, RunningStats> kpi : stats.entrySet())
+                {
+                    double value = kpis.get(kpi.getKey());
+                    out.write("\t" + value);
+                    kpi.getValue().add(value);
+                }
+                out.write("\n");
+                out.flush();
+                Utils.printUpdate("Replication " + index + " done (" + (i + 1) + "/" + count + ")");
+            }
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while running replications");
+        }
+        finally
+        {
+            pool.shutdownNow();
+        }
+        if (failed > 0)
+            Utils.printWarning(failed + " of " + count + " replications failed");
+        writeSummary(new File(resultFile.getPath().replaceFirst("\\.tsv$", "") + ".summary.tsv"), stats);
+        return stats;
+    }
+
+    private static void writeHeader(Writer out, Set<String> names, Map<String, RunningStats> stats) throws IOException
+    {
+        out.write("replication\tseed");
+        for (String name : names)
+        {
+            out.write("\t" + name);
+            stats.put(name, new RunningStats());
+        }
+        out.write("\n");
+    }
+
+    private static void writeSummary(File file, Map<String, RunningStats> stats) throws IOException
+    {
+        try (Writer out = new BufferedWriter(new FileWriter(file)))
+        {
+            out.write("kpi\tn\tmean\tstd_dev\tci95_half_width\tmin\tmax\n");
+            for (Map.Entry<String, RunningStats> kpi : stats.entrySet())
+            {
+                RunningStats s = kpi.getValue();
+                out.write(kpi.getKey() + "\t" + s.count() + "\t" + s.mean() + "\t" + s.stdDev() + "\t"
+                    + s.confidenceHalfWidth95() + "\t" + s.min() + "\t" + s.max() + "\n");
+            }
+        }
+    }
+
+	@Override
+	public String toString() {
+		return "ReplicationRunner[" + threads + " threads, " + inputs + "]";
+	}
+
+}
@@ -0,0 +1,132 @@
+/**
+ * RoomTurnover
+ *
+ * Cleaning of the operating rooms between patients. The release block of Main has no wrap-up time,
+ * so a released room goes back to rpOperatingRooms at once and is held back by the seize resource
+ * choice instead: {@link #isReady} rejects it until its turnover time has passed. Only the earliest
+ * pending ready time is scheduled, on one user-controlled Main event.
+ *
+ * Wiring: release On enter (the room is still seized)
+ * {@code if (roomTurnover.released(room, time(), inputs.durations.turnoverMinutes(room) * minute())) turnoverEvent.restart(roomTurnover.nextReady() - time());}
+ * with room the index of the patient's operating room unit; seize resource choice condition
+ * {@code pool != rpOperatingRooms || roomTurnover.isReady(unit.getIndex(), time())}; turnoverEvent
+ * action {@code double next = roomTurnover.advance(); seize.recalculateConditions();} and restart to
+ * next if finite, so patients waiting for a room take the one just cleaned.
+ */
+public class RoomTurnover implements Serializable
+{
+    /** Model time each room is ready, -infinity once ready */
+    private final double[] readyAt;
+    private double nextReady = Double.POSITIVE_INFINITY;
+
+    /**
+     * @param roomCount Number of operating rooms, in population order
+     */
+    public RoomTurnover(int roomCount)
+    {
+        readyAt = new double[roomCount];
+        Arrays.fill(readyAt, Double.NEGATIVE_INFINITY);
+    }
+
+    /**
+     * Start the cleaning of a room.
+     * @param room Population index of the operating room
+     * @param now The current model time
+     * @param turnover The cleaning time, in model time units
+     * @return true if the room is the next one ready, and the event must be restarted to {@link #nextReady}
+     */
+    public boolean released(int room, double now, double turnover)
+    {
+        if (turnover <= 0)
+            return false;
+        readyAt[room] = now + turnover;
+        if (readyAt[room] >= nextReady)
+            return false;
+        nextReady = readyAt[room];
+        return true;
+    }
+
+    /**
+     * @param room Population index of the operating room
+     * @param now The current model time
+     * @return true if the room is not being cleaned
+     */
+    public boolean isReady(int room, double now)
+    {
+        return readyAt[room] <= now;
+    }
+
+    /**
+     * @return the model time of the next room ready, or infinity if none is being cleaned
+     */
+    public double nextReady()
+    {
+        return nextReady;
+    }
+
+    /**
+     * @param now The current model time
+     * @return time left until each room is ready, negative infinity for the rooms ready, e.g. for a {@link ModelCheckpoint}
+     */
+    public double[] remaining(double now)
+    {
+        double[] remaining = new double[readyAt.length];
+        for (int room = 0; room < readyAt.length; room++)
+            remaining[room] = readyAt[room] - now;
+        return remaining;
+    }
+
+    /**
+     * Rebuild the cleaning state of {@link #remaining} in another run.
+     * @param remaining Time left until each room is ready
+     * @param now The current model time of the run
+     * @return the turnover; the caller schedules its event to {@link #nextReady} if finite
+     */
+    public static RoomTurnover restore(double[] remaining, double now)
+    {
+        RoomTurnover turnover = new RoomTurnover(remaining.length);
+        for (int room = 0; room < remaining.length; room++)
+        {
+            if (remaining[room] > 0)
+            {
+                turnover.readyAt[room] = now + remaining[room];
+                turnover.nextReady = Math.min(turnover.nextReady, turnover.readyAt[room]);
+            }
+        }
+        return turnover;
+    }
+
+    /**
+     * Mark the rooms due at the scheduled time as ready. Call from the event at {@link #nextReady}.
+     * @return the model time of the next room ready, or infinity if none is being cleaned
+     */
+    public double advance()
+    {
+        double due = nextReady;
+        nextReady = Double.POSITIVE_INFINITY;
+        for (int room = 0; room < readyAt.length; room++)
+        {
+            if (readyAt[room] <= due)
+                readyAt[room] = Double.NEGATIVE_INFINITY;
+            else
+                nextReady = Math.min(nextReady, readyAt[room]);
+        }
+        return nextReady;
+    }
+
+	@Override
+	public String toString() {
+		int cleaning = 0;
+		for (double ready : readyAt)
+			if (ready > Double.NEGATIVE_INFINITY)
+				cleaning++;
+		return "RoomTurnover[" + cleaning + " of " + readyAt.length + " rooms cleaning, next ready " + nextReady + "]";
+	}
+
+	/**
+	 * This number is here for model snapshot storing purpose<br>
+	 * It needs to be changed when this class gets changed
+	 */
+	private static final long serialVersionUID = 1L;
+
+}
@@ -0,0 +1,302 @@
+/**
+ * RunController
+ *
+ * Ends the warm-up and the replication from the data instead of fixed horizons. The waiting times
+ * (queue to seize) and times in system (queue to sink) reported by {@link FlowchartStats} are
+ * averaged in batches of {@link #MSER_BATCH} patients, and the MSER-5 rule is applied to the series
+ * of batch means each time it grew by a tenth: the truncation point minimizing the squared error of
+ * the remaining mean over its length, searched in the first half of the series. While the minimum
+ * is at the half, the transient is not over. The first time every KPI has its truncation point, the
+ * flowchart statistics are reset; the rule is applied again at each check, so the estimates below
+ * always leave out the latest truncation point, which may move later as the series grows.
+ *
+ * The mean of each KPI after its truncation point gets a 95% confidence interval from non-overlapping
+ * batch means ({@link RunningStats#confidenceHalfWidth95}). Once every KPI with a target has at least
+ * minBatches batches and a half-width within its target, the replication is stopped with
+ * {@code finishSimulation()}. Batch means are kept for the whole run, 16 bytes per 5 patients and KPI.
+ *
+ * Wiring: when isAutoStopping, Main On startup creates {@code runController = new RunController(this, flowchartStats, 100, minBatches)}
+ * and calls {@code runController.setTarget(RunController.Kpi.WAIT, targetHalfWidth, true)}; the flowchart
+ * callbacks are those of {@link FlowchartStats}, whose {@link FlowchartStats#kpis()} and report include
+ * {@link #kpis()}. The stop time of the experiment remains the upper bound of the run.
+ */
+public class RunController implements Serializable
+{
+    /**
+     * The KPIs watched, observed once per patient.
+     */
+    public enum Kpi
+    {
+        WAIT("wait"),
+        TIME_IN_SYSTEM("time_in_system");
+
+        public final String label;
+
+        Kpi(String label)
+        {
+            this.label = label;
+        }
+    }
+
+    /** Patients per batch of the MSER-5 rule */
+    public static final int MSER_BATCH = 5;
+    /** MSER batches needed before the rule is applied */
+    private static final int MSER_MIN_BATCHES = 100;
+
+    private final Main main;
+    private final FlowchartStats stats;
+    private final int batchSize;
+    private final int minBatches;
+    private final Series[] series = new Series[Kpi.values().length];
+
+    private double warmupEnd = Double.NaN;
+    private boolean converged;
+
+    /**
+     * @param main The model root, giving the model time and stopped on convergence
+     * @param stats The flowchart statistics, feeding this controller and reset at the end of the warm-up
+     * @param batchSize Patients per batch of the confidence intervals, a multiple of {@link #MSER_BATCH}
+     * @param minBatches Batches needed after the warm-up before the run may stop
+     */
+    public RunController(Main main, FlowchartStats stats, int batchSize, int minBatches)
+    {
+        if (batchSize < MSER_BATCH || batchSize % MSER_BATCH != 0)
+            throw new IllegalArgumentException("Batch size must be a positive multiple of " + MSER_BATCH + ": " + batchSize);
+        if (minBatches < 2)
+            throw new IllegalArgumentException("At least 2 batches are needed: " + minBatches);
+        this.main = main;
+        this.stats = stats;
+        this.batchSize = batchSize;
+        this.minBatches = minBatches;
+        for (Kpi kpi : Kpi.values())
+            series[kpi.ordinal()] = new Series(batchSize / MSER_BATCH);
+        stats.setRunController(this);
+    }
+
+    /**
+     * Stop the run once the confidence interval of the KPI mean is within the given half-width.
+     * @param halfWidth The target half-width
+     * @param relative True if the half-width is a fraction of the mean, false if it is in KPI units (model time)
+     */
+    public void setTarget(Kpi kpi, double halfWidth, boolean relative)
+    {
+        if (!(halfWidth > 0))
+            throw new IllegalArgumentException("Target half-width must be positive: " + halfWidth);
+        Series s = series[kpi.ordinal()];
+        s.targetHalfWidth = halfWidth;
+        s.relative = relative;
+    }
+
+    /**
+     * Record the KPI of one patient.
+     */
+    public void observe(Kpi kpi, double value)
+    {
+        if (Double.isNaN(value))
+            return;
+        Series s = series[kpi.ordinal()];
+        s.batchSum += value;
+        if (++s.batchCount < MSER_BATCH)
+            return;
+        if (s.addBatch(s.batchSum / MSER_BATCH, main.time()))
+            check();
+        s.batchSum = 0;
+        s.batchCount = 0;
+    }
+
+    /**
+     * After a KPI applied the rule: end the warm-up once every KPI has its truncation point, then test the targets.
+     */
+    private void check()
+    {
+        double end = Double.NEGATIVE_INFINITY;
+        for (Series s : series)
+        {
+            if (Double.isNaN(s.truncationTime))
+                return;
+            end = Math.max(end, s.truncationTime);
+        }
+        if (!isWarmedUp())
+        {
+            stats.resetStatistics();
+            Utils.printUpdate("Warm-up detected at time " + main.time() + ", truncated at time " + end);
+        }
+        warmupEnd = end;
+        if (converged)
+            return;
+        boolean targeted = false;
+        for (Series s : series)
+        {
+            if (Double.isNaN(s.targetHalfWidth))
+                continue;
+            targeted = true;
+            if (s.estimate.count() < minBatches || !(s.halfWidth() <= s.target()))
+                return;
+        }
+        if (!targeted)
+            return;
+        converged = true;
+        StringBuilder sb = new StringBuilder("Converged at time " + main.time() + ":");
+        for (Kpi kpi : Kpi.values())
+        {
+            Series s = series[kpi.ordinal()];
+            sb.append(' ').append(kpi.label).append(' ').append(s.estimate.mean()).append(" +- ").append(s.halfWidth());
+        }
+        Utils.printUpdate(sb.toString());
+        main.finishSimulation();
+    }
+
+    /**
+     * @return true once the end of the warm-up was detected
+     */
+    public boolean isWarmedUp()
+    {
+        return !Double.isNaN(warmupEnd);
+    }
+
+    /**
+     * @return model time of the latest truncation point, the end of the warm-up, NaN while it is on
+     */
+    public double warmupEnd()
+    {
+        return warmupEnd;
+    }
+
+    /**
+     * @return true once every targeted KPI reached its half-width
+     */
+    public boolean isConverged()
+    {
+        return converged;
+    }
+
+    /**
+     * @return the warm-up end and, for each KPI, the mean after its truncation point, its half-width and the batch count
+     */
+    public Map<String, Double> kpis()
+    {
+        Map<String, Double> kpis = new LinkedHashMap<>();
+        kpis.put("warmup_end", warmupEnd);
+        kpis.put("converged", converged ? 1.0 : 0.0);
+        for (Kpi kpi : Kpi.values())
+        {
+            Series s = series[kpi.ordinal()];
+            kpis.put(kpi.label + "_batch_mean", s.estimate.mean());
+            kpis.put(kpi.label + "_half_width", s.halfWidth());
+            kpis.put(kpi.label + "_batches", (double) s.estimate.count());
+        }
+        return kpis;
+    }
+
+    /**
+     * MSER batch means of one KPI and the estimate after the latest truncation point.
+     */
+    private static final class Series implements Serializable
+    {
+        /** MSER batches per confidence interval batch */
+        final int group;
+        double batchSum;
+        int batchCount;
+
+        double[] means = new double[256];
+        double[] times = new double[256];
+        int count;
+        int nextCheck = MSER_MIN_BATCHES;
+        double truncationTime = Double.NaN;
+        RunningStats estimate = new RunningStats();
+
+        double targetHalfWidth = Double.NaN;
+        boolean relative;
+
+        Series(int group)
+        {
+            this.group = group;
+        }
+
+        /**
+         * Add an MSER batch mean, applying the rule when due.
+         * @return true if the rule was applied
+         */
+        boolean addBatch(double mean, double time)
+        {
+            if (count == means.length)
+            {
+                means = Arrays.copyOf(means, count * 2);
+                times = Arrays.copyOf(times, count * 2);
+            }
+            means[count] = mean;
+            times[count++] = time;
+            if (count < nextCheck)
+                return false;
+            nextCheck = count + Math.max(1, count / 10);
+            int d = mserTruncation(means, count);
+            if (d < 0)
+                return true;
+            truncationTime = d == 0 ? Double.NEGATIVE_INFINITY : times[d - 1];
+            // confidence interval batches, aligned on the end of the series so that the partial one is the oldest and left out
+            estimate = new RunningStats();
+            for (int end = count; end - group >= d; end -= group)
+            {
+                double sum = 0;
+                for (int i = end - group; i < end; i++)
+                    sum += means[i];
+                estimate.add(sum / group);
+            }
+            return true;
+        }
+
+        double halfWidth()
+        {
+            return estimate.confidenceHalfWidth95();
+        }
+
+        double target()
+        {
+            return relative ? targetHalfWidth * Math.abs(estimate.mean()) : targetHalfWidth;
+        }
+
+        private static final long serialVersionUID = 1L;
+    }
+
+    /**
+     * MSER rule: the number of leading batches d minimizing the sum of squared deviations of the
+     * remaining n - d means from their mean, divided by (n - d)^2, over d in [0, n / 2].
+     * @return d, or -1 if the minimum is at n / 2 (the transient may not be over)
+     */
+    static int mserTruncation(double[] means, int n)
+    {
+        double shift = means[n - 1];
+        double sum = 0, sumSquares = 0;
+        double best = Double.POSITIVE_INFINITY;
+        int bestD = -1;
+        // suffix sums, from the last batch back to the first
+        for (int d = n - 1; d >= 0; d--)
+        {
+            double x = means[d] - shift;
+            sum += x;
+            sumSquares += x * x;
+            if (d > n / 2)
+                continue;
+            int m = n - d;
+            double statistic = (sumSquares - sum * sum / m) / ((double) m * m);
+            if (statistic <= best)
+            {
+                best = statistic;
+                bestD = d;
+            }
+        }
+        return bestD == n / 2 ? -1 : bestD;
+    }
+
+	@Override
+	public String toString() {
+		return "RunController[" + (converged ? "converged" : isWarmedUp() ? "warmed up at " + warmupEnd : "warming up") + "]";
+	}
+
+	/**
+	 * This number is here for model snapshot storing purpose<br>
+	 * It needs to be changed when this class gets changed
+	 */
+	private static final long serialVersionUID = 1L;
+
+}
@@ -0,0 +1,106 @@
+/**
+ * RunningStats
+ *
+ * Streaming count, mean, variance, minimum and maximum of a series of values
+ * (Welford's algorithm), in constant memory and numerically stable.
+ */
+public class RunningStats implements Serializable
+{
+    /** Student t 0.975 quantiles by degrees of freedom */
+    private static final double[] T975 = { Double.NaN, 12.706, 4.303, 3.182, 2.776, 2.571, 2.447, 2.365, 2.306, 2.262 };
+
+    private long count;
+    private double mean;
+    private double m2;
+    private double min = Double.POSITIVE_INFINITY;
+    private double max = Double.NEGATIVE_INFINITY;
+
+    /**
+     * @param value The next value, NaN values are ignored
+     */
+    public void add(double value)
+    {
+        if (Double.isNaN(value))
+            return;
+        count++;
+        double delta = value - mean;
+        mean += delta / count;
+        m2 += delta * (value - mean);
+        if (value < min)
+            min = value;
+        if (value > max)
+            max = value;
+    }
+
+    public long count()
+    {
+        return count;
+    }
+
+    /**
+     * @return the mean, NaN without values
+     */
+    public double mean()
+    {
+        return count == 0 ? Double.NaN : mean;
+    }
+
+    /**
+     * @return the sample variance, NaN with less than two values
+     */
+    public double variance()
+    {
+        return count < 2 ? Double.NaN : m2 / (count - 1);
+    }
+
+    public double stdDev()
+    {
+        return Math.sqrt(variance());
+    }
+
+    public double min()
+    {
+        return count == 0 ? Double.NaN : min;
+    }
+
+    public double max()
+    {
+        return count == 0 ? Double.NaN : max;
+    }
+
+    /**
+     * Half-width of the 95% confidence interval of the mean (Student t), NaN with less than two values.
+     */
+    public double confidenceHalfWidth95()
+    {
+        if (count < 2)
+            return Double.NaN;
+        return studentT975(count - 1) * stdDev() / Math.sqrt(count);
+    }
+
+    /**
+     * @return the 0.975 quantile of the Student t distribution (table up to 9 degrees of freedom, then Cornish-Fisher expansion within 0.05%)
+     */
+    static double studentT975(long degrees)
+    {
+        if (degrees < T975.length)
+            return T975[(int) degrees];
+        double z = 1.959964;
+        double z3 = z * z * z, z5 = z3 * z * z, z7 = z5 * z * z;
+        double n = degrees;
+        return z + (z3 + z) / (4 * n) + (5 * z5 + 16 * z3 + 3 * z) / (96 * n * n)
+            + (3 * z7 + 19 * z5 + 17 * z3 - 15 * z) / (384 * n * n * n);
+    }
+
+	@Override
+	public String toString() {
+		return "RunningStats[n=" + count + ", mean=" + mean() + ", sd=" + stdDev() + "]";
+	}
+
+	/**
+	 * This number is here for model snapshot storing purpose<br>
+	 * It needs to be changed when this class gets changed
+	 */
+	private static final long serialVersionUID = 1L;
+
+}
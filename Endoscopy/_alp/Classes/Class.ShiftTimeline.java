@@ -0,0 +1,156 @@
+/**
+ * ShiftTimeline
+ *
+ * Daily on/off duty transitions of all surgeons, compiled from their shifts into one sorted cycle
+ * of distinct times of day. Surgeons sharing a shift boundary share one transition, so a roster of
+ * thousands of surgeons with a handful of shift patterns needs a handful of events per day, and only
+ * the next transition is ever scheduled. Overnight shifts (end before start) switch on at their start
+ * and off at their end on the next day.
+ *
+ * Driven by one user-controlled Main event: restart it to {@link #start} at model startup; its action
+ * restarts it to {@link #advance}. The duty state is applied to the {@link SurgeonSelector}. The seize
+ * block does not see that change by itself: when {@link #wentOnDuty()} the event also calls
+ * {@code seize.recalculateConditions()}, so patients waiting for a skilled surgeon can take the one
+ * who just started. Surgeons going off duty need no recalculation, a busy one finishes the patient.
+ */
+public class ShiftTimeline implements Serializable
+{
+    private final List<SurgeonRecord> surgeons;
+    /** Distinct transition times, seconds since midnight, ascending */
+    private final int[] times;
+    /** Surgeons going on duty at times[i] */
+    private final int[][] startingAt;
+    /** Surgeons going off duty at times[i] */
+    private final int[][] endingAt;
+
+    private Main main;
+    private long day;
+    private int next;
+    private boolean wentOnDuty;
+
+    /**
+     * @param surgeons Surgeons in population order
+     */
+    public ShiftTimeline(List<SurgeonRecord> surgeons)
+    {
+        this.surgeons = surgeons;
+        TreeMap<Integer, List<Integer>> starts = new TreeMap<>();
+        TreeMap<Integer, List<Integer>> ends = new TreeMap<>();
+        for (int i = 0; i < surgeons.size(); i++)
+        {
+            SurgeonRecord s = surgeons.get(i);
+            if (s.shiftStart == SurgeonRecord.NO_SHIFT || s.shiftStart == s.shiftEnd)
+                continue;
+            starts.computeIfAbsent(s.shiftStart, k -> new ArrayList<>()).add(i);
+            ends.computeIfAbsent(s.shiftEnd, k -> new ArrayList<>()).add(i);
+        }
+        TreeSet<Integer> all = new TreeSet<>(starts.keySet());
+        all.addAll(ends.keySet());
+        times = new int[all.size()];
+        startingAt = new int[times.length][];
+        endingAt = new int[times.length][];
+        int t = 0;
+        for (int time : all)
+        {
+            times[t] = time;
+            startingAt[t] = toArray(starts.get(time));
+            endingAt[t] = toArray(ends.get(time));
+            t++;
+        }
+    }
+
+    private static int[] toArray(List<Integer> list)
+    {
+        if (list == null)
+            return new int[0];
+        int[] array = new int[list.size()];
+        for (int i = 0; i < array.length; i++)
+            array[i] = list.get(i);
+        return array;
+    }
+
+    /**
+     * @return number of transitions per day
+     */
+    public int transitionsPerDay()
+    {
+        return times.length;
+    }
+
+    /**
+     * Set the duty state of every surgeon for the current model date.
+     * @param main The model root, giving the current date
+     * @param selector The selector receiving the duty states
+     * @return model time of the next transition, or Double.POSITIVE_INFINITY if no surgeon has a shift
+     */
+    public double start(Main main, SurgeonSelector selector)
+    {
+        this.main = main;
+        long now = main.date().getTime();
+        int secondOfDay = DateTimeCodec.localSecondOfDay(now);
+        for (int i = 0; i < surgeons.size(); i++)
+            selector.setOnDuty(i, surgeons.get(i).isOnDuty(secondOfDay));
+        day = DateTimeCodec.localEpochDay(now);
+        next = 0;
+        while (next < times.length && times[next] <= secondOfDay)
+            next++;
+        if (next == times.length)
+        {
+            next = 0;
+            day++;
+        }
+        return nextTransitionTime();
+    }
+
+    /**
+     * Apply the due transition and move to the next one.
+     * The caller recalculates the seize conditions when {@link #wentOnDuty()}.
+     * @param selector The selector receiving the duty states
+     * @return model time of the next transition
+     */
+    public double advance(SurgeonSelector selector)
+    {
+        wentOnDuty = false;
+        if (times.length == 0)
+            return Double.POSITIVE_INFINITY;
+        for (int surgeon : endingAt[next])
+            selector.setOnDuty(surgeon, false);
+        for (int surgeon : startingAt[next])
+            selector.setOnDuty(surgeon, true);
+        wentOnDuty = startingAt[next].length > 0;
+        if (++next == times.length)
+        {
+            next = 0;
+            day++;
+        }
+        return nextTransitionTime();
+    }
+
+    /**
+     * @return true if the last {@link #advance} put at least one surgeon on duty, in which case
+     * waiting patients may now seize: call {@code seize.recalculateConditions()}
+     */
+    public boolean wentOnDuty()
+    {
+        return wentOnDuty;
+    }
+
+    private double nextTransitionTime()
+    {
+        if (times.length == 0)
+            return Double.POSITIVE_INFINITY;
+        return DateTimeCodec.toModelTime(main, DateTimeCodec.epochMillisAt(day, times[next]));
+    }
+
+	@Override
+	public String toString() {
+		return "ShiftTimeline[" + surgeons.size() + " surgeons, " + times.length + " transitions per day]";
+	}
+
+	/**
+	 * This number is here for model snapshot storing purpose<br>
+	 * It needs to be changed when this class gets changed
+	 */
+	private static final long serialVersionUID = 2L;
+
+}
@@ -0,0 +1,659 @@
+/**
+ * SnapshotCache
+ *
+ * Binary columnar snapshot of a parsed and validated input file, written next to it
+ * ("patients.tsv" gives "patients.tsv.snapshot"). Later loads of the unchanged file map the
+ * snapshot and stream its rows without any text parsing.
+ *
+ * The snapshot is keyed by source size, modification time, delimiter and a fingerprint of the
+ * {@link ParserHeader} enum, and is ignored when any of them changed. Each column used by the
+ * enum is stored as a typed primitive column when every value round-trips (integers as long,
+ * dates as epoch millis), otherwise as int codes into a shared string dictionary.
+ *
+ * Layout (big-endian): magic, version, source length, source modified, fingerprint, delimiter,
+ * meta length, meta (column names, types, dictionary), line numbers (int per row), then the
+ * data of each used column (int codes or long values per row).
+ */
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+
+public final class SnapshotCache
+{
+    private static final int MAGIC = 0x454E4453;
+    private static final int VERSION = 1;
+    private static final String SUFFIX = ".snapshot";
+    private static final int PRELUDE_SIZE = 4 + 4 + 8 + 8 + 8 + 2 + 4;
+
+    private static final byte TYPE_NONE = 0;
+    private static final byte TYPE_STRING = 1;
+    private static final byte TYPE_LONG = 2;
+    private static final byte TYPE_DATE = 3;
+
+    private static final byte SHAPE_DATE_ONLY = 0;
+    private static final byte SHAPE_SPACE = 1;
+    private static final byte SHAPE_T_AND_Z = 2;
+
+    /** Missing value of typed columns */
+    private static final long NA = Long.MIN_VALUE;
+
+    private SnapshotCache()
+    {
+    }
+
+    /**
+     * @return the snapshot file of the given input file
+     */
+    public static File snapshotFile(File source)
+    {
+        return new File(source.getPath() + SUFFIX);
+    }
+
+    /**
+     * 64-bit FNV-1a hash of the header enum definition (class, constant names, base names, optional flags).
+     */
+    public static long fingerprint(Class<? extends Enum<?>> headerEnum)
+    {
+        StringBuilder sb = new StringBuilder(headerEnum.getName());
+        for (Enum<?> constant : headerEnum.getEnumConstants())
+        {
+            ParserHeader h = (ParserHeader) constant;
+            sb.append('|').append(constant.name()).append(':').append(h.baseName()).append(':').append(h.optional());
+        }
+        long hash = 0xcbf29ce484222325L;
+        for (int i = 0; i < sb.length(); i++)
+        {
+            hash ^= sb.charAt(i);
+            hash *= 0x100000001b3L;
+        }
+        return hash;
+    }
+
+    /**
+     * Write the snapshot of a file that has just been parsed and validated, from the rows recorded
+     * during that parse (the file is not read again). The snapshot is keyed by the size and
+     * modification time of the file when the parse started, so a file changed meanwhile gets a
+     * stale snapshot. It is written to a temporary file first and moved in place.
+     * @param source The input file
+     * @param sourceLength Length of the file when the parse started
+     * @param sourceModified Modification time of the file when the parse started
+     * @param delimiter The delimiter character ('\t' for TSV, ',' for CSV)
+     * @param headerEnum The header enum of the parser
+     * @param mapping Column to header mapping of the file
+     * @param recorders Rows of the parse, one recorder per parsed range in file order
+     * @throws IOException on write error
+     */
+    static <H extends Enum<H> & ParserHeader> void write(File source, long sourceLength, long sourceModified, char delimiter,
+                                                         Class<H> headerEnum, HeaderResolver.Mapping<H> mapping, List<Recorder<H>> recorders) throws IOException
+    {
+        List<String> headerNames = mapping.headerNames();
+        StringDictionary dictionary;
+        IntColumn lines;
+        IntColumn[] codes;
+        if (recorders.size() == 1 && recorders.get(0).lineOffset == 0)
+        {
+            Recorder<H> recorder = recorders.get(0);
+            dictionary = recorder.dictionary;
+            lines = recorder.lines;
+            codes = recorder.codes;
+        }
+        else
+        {
+            dictionary = new StringDictionary();
+            lines = new IntColumn();
+            codes = new IntColumn[headerNames.size()];
+            for (int c = 0; c < codes.length; c++)
+            {
+                if (mapping.headerAt(c) != null)
+                    codes[c] = new IntColumn();
+            }
+            for (Recorder<H> recorder : recorders)
+            {
+                int[] remap = new int[recorder.dictionary.size()];
+                for (int i = 0; i < remap.length; i++)
+                    remap[i] = dictionary.intern(recorder.dictionary.valueOf(i));
+                for (int r = 0; r < recorder.lines.size; r++)
+                    lines.add(recorder.lines.data[r] + recorder.lineOffset);
+                for (int c = 0; c < codes.length; c++)
+                {
+                    if (codes[c] == null)
+                        continue;
+                    IntColumn chunk = recorder.codes[c];
+                    for (int r = 0; r < chunk.size; r++)
+                        codes[c].add(remap[chunk.data[r]]);
+                }
+            }
+        }
+
+        int rowCount = lines.size;
+        byte[] types = new byte[codes.length];
+        byte[] shapes = new byte[codes.length];
+        long[][] values = new long[codes.length][];
+        for (int c = 0; c < codes.length; c++)
+        {
+            if (codes[c] == null)
+                continue;
+            types[c] = TYPE_STRING;
+            long[] dictValues = new long[dictionary.size()];
+            if (toLongs(codes[c], dictionary, dictValues))
+                types[c] = TYPE_LONG;
+            else
+            {
+                int shape = toDates(codes[c], dictionary, dictValues);
+                if (shape >= 0)
+                {
+                    types[c] = TYPE_DATE;
+                    shapes[c] = (byte) shape;
+                }
+            }
+            if (types[c] != TYPE_STRING)
+            {
+                values[c] = new long[rowCount];
+                for (int r = 0; r < rowCount; r++)
+                    values[c][r] = dictValues[codes[c].data[r]];
+            }
+        }
+
+        ByteArrayOutputStream metaBytes = new ByteArrayOutputStream();
+        try (DataOutputStream meta = new DataOutputStream(metaBytes))
+        {
+            meta.writeInt(rowCount);
+            meta.writeInt(headerNames.size());
+            for (int c = 0; c < headerNames.size(); c++)
+            {
+                writeString(meta, headerNames.get(c));
+                meta.writeByte(types[c]);
+                meta.writeByte(shapes[c]);
+            }
+            meta.writeInt(dictionary.size());
+            for (int i = 0; i < dictionary.size(); i++)
+                writeString(meta, dictionary.valueOf(i));
+        }
+
+        File target = snapshotFile(source);
+        File temp = File.createTempFile(target.getName(), ".tmp", target.getAbsoluteFile().getParentFile());
+        try
+        {
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp), 1 << 16)))
+            {
+                out.writeInt(MAGIC);
+                out.writeInt(VERSION);
+                out.writeLong(sourceLength);
+                out.writeLong(sourceModified);
+                out.writeLong(fingerprint(headerEnum));
+                out.writeChar(delimiter);
+                out.writeInt(metaBytes.size());
+                metaBytes.writeTo(out);
+                for (int r = 0; r < rowCount; r++)
+                    out.writeInt(lines.data[r]);
+                for (int c = 0; c < types.length; c++)
+                {
+                    if (types[c] == TYPE_STRING)
+                    {
+                        for (int r = 0; r < rowCount; r++)
+                            out.writeInt(codes[c].data[r]);
+                    }
+                    else if (types[c] != TYPE_NONE)
+                    {
+                        for (int r = 0; r < rowCount; r++)
+                            out.writeLong(values[c][r]);
+                    }
+                }
+            }
+            try
+            {
+                Files.move(temp.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            }
+            catch (AtomicMoveNotSupportedException e)
+            {
+                Files.move(temp.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            }
+        }
+        finally
+        {
+            Files.deleteIfExists(temp.toPath());
+        }
+    }
+
+    /**
+     * Columns of the rows of one parsed range, recorded while the rows are handled so that the
+     * snapshot is written without reading the file again (see {@link #write}). Every non-blank
+     * row is recorded, including the rows the handler rejects, so a load from the snapshot reports
+     * the same invalid rows as the text parse.
+     */
+    static final class Recorder<H extends Enum<H> & ParserHeader>
+    {
+        private final StringDictionary dictionary = new StringDictionary();
+        private final IntColumn lines = new IntColumn();
+        private final IntColumn[] codes;
+        private int lineOffset;
+
+        /**
+         * @param mapping Column to header mapping of the file, only the used columns are recorded
+         */
+        Recorder(HeaderResolver.Mapping<H> mapping)
+        {
+            codes = new IntColumn[mapping.columnCount()];
+            for (int c = 0; c < codes.length; c++)
+            {
+                if (mapping.headerAt(c) != null)
+                    codes[c] = new IntColumn();
+            }
+        }
+
+        /**
+         * Record the line number and the used columns of the row.
+         */
+        void record(ParserRow<H> row)
+        {
+            lines.add(row.lineNumber());
+            for (int c = 0; c < codes.length; c++)
+            {
+                if (codes[c] != null)
+                    codes[c].add(dictionary.intern(row.columnString(c)));
+            }
+        }
+
+        /**
+         * @param lineOffset Number of lines before the recorded range, added to its line numbers
+         */
+        void setLineOffset(int lineOffset)
+        {
+            this.lineOffset = lineOffset;
+        }
+    }
+
+    /**
+     * Convert the distinct values of the column to long if all of them are empty or canonical integers.
+     */
+    private static boolean toLongs(IntColumn column, StringDictionary dictionary, long[] dictValues)
+    {
+        boolean[] seen = new boolean[dictionary.size()];
+        for (int r = 0; r < column.size; r++)
+        {
+            int code = column.data[r];
+            if (seen[code])
+                continue;
+            seen[code] = true;
+            String value = dictionary.valueOf(code);
+            if (value.isEmpty())
+            {
+                dictValues[code] = NA;
+                continue;
+            }
+            if (value.length() > 19)
+                return false;
+            try
+            {
+                long parsed = Long.parseLong(value);
+                if (parsed == NA || !Long.toString(parsed).equals(value))
+                    return false;
+                dictValues[code] = parsed;
+            }
+            catch (NumberFormatException e)
+            {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Convert the distinct values of the column to epoch millis if all of them are empty or
+     * dates of one shape that format back to the same text.
+     * @return the shape, or -1 if the column is not a date column
+     */
+    private static int toDates(IntColumn column, StringDictionary dictionary, long[] dictValues)
+    {
+        boolean[] seen = new boolean[dictionary.size()];
+        int shape = -1;
+        for (int r = 0; r < column.size; r++)
+        {
+            int code = column.data[r];
+            if (seen[code])
+                continue;
+            seen[code] = true;
+            String value = dictionary.valueOf(code);
+            if (value.isEmpty())
+            {
+                dictValues[code] = NA;
+                continue;
+            }
+            int valueShape = value.length() == 10 ? SHAPE_DATE_ONLY : value.indexOf('T') >= 0 ? SHAPE_T_AND_Z : SHAPE_SPACE;
+            if (shape >= 0 && valueShape != shape)
+                return -1;
+            shape = valueShape;
+            try
+            {
+                long millis = DateTimeCodec.parseMillis(value);
+                if (!formatDate(millis, (byte) shape).equals(value))
+                    return -1;
+                dictValues[code] = millis;
+            }
+            catch (DataValidationException e)
+            {
+                return -1;
+            }
+        }
+        return shape < 0 ? -1 : shape;
+    }
+
+    private static String formatDate(long millis, byte shape)
+    {
+        String formatted = DateTimeCodec.format(millis, shape == SHAPE_T_AND_Z);
+        if (shape == SHAPE_DATE_ONLY)
+            return formatted.endsWith(" 0:00:00") ? formatted.substring(0, 10) : formatted;
+        return formatted;
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException
+    {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(DataInputStream in) throws IOException
+    {
+        byte[] bytes = new byte[in.readInt()];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Open the snapshot of the given file if it exists and is still valid.
+     * @param source The input file
+     * @param delimiter The delimiter character ('\t' for TSV, ',' for CSV)
+     * @param headerEnum The header enum of the parser
+     * @return the snapshot reader, or null if there is no valid snapshot
+     */
+    public static <H extends Enum<H> & ParserHeader> Reader<H> open(File source, char delimiter, Class<H> headerEnum)
+    {
+        File file = snapshotFile(source);
+        if (!file.isFile())
+            return null;
+        FileChannel channel = null;
+        try
+        {
+            channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+            ByteBuffer prelude = ByteBuffer.allocate(PRELUDE_SIZE);
+            if (channel.read(prelude, 0) != PRELUDE_SIZE)
+                return closeStale(channel);
+            prelude.flip();
+            if (prelude.getInt() != MAGIC || prelude.getInt() != VERSION
+                || prelude.getLong() != source.length() || prelude.getLong() != source.lastModified()
+                || prelude.getLong() != fingerprint(headerEnum) || prelude.getChar() != delimiter)
+                return closeStale(channel);
+            int metaLength = prelude.getInt();
+            ByteBuffer meta = ByteBuffer.allocate(metaLength);
+            if (channel.read(meta, PRELUDE_SIZE) != metaLength)
+                return closeStale(channel);
+            return new Reader<>(channel, PRELUDE_SIZE + metaLength, new DataInputStream(new ByteArrayInputStream(meta.array())));
+        }
+        catch (IOException e)
+        {
+            Utils.printDebug("Ignoring unreadable snapshot %s: %s", file.getName(), e);
+            return closeStale(channel);
+        }
+    }
+
+    private static <H extends Enum<H> & ParserHeader> Reader<H> closeStale(FileChannel channel)
+    {
+        try
+        {
+            if (channel != null)
+                channel.close();
+        }
+        catch (IOException e)
+        {
+            // nothing to do, the snapshot is ignored
+        }
+        return null;
+    }
+
+    /**
+     * Open snapshot of one file, columns are memory-mapped.
+     */
+    public static final class Reader<H extends Enum<H> & ParserHeader> implements Closeable
+    {
+        private final FileChannel channel;
+        private final int rowCount;
+        private final List<String> headerNames;
+        private final byte[] types;
+        private final byte[] shapes;
+        private final String[] dictionary;
+        private final boolean[] naCodes;
+        private final MappedColumn lines;
+        private final MappedColumn[] columns;
+
+        private Reader(FileChannel channel, long dataStart, DataInputStream meta) throws IOException
+        {
+            this.channel = channel;
+            rowCount = meta.readInt();
+            int columnCount = meta.readInt();
+            headerNames = new ArrayList<>(columnCount);
+            types = new byte[columnCount];
+            shapes = new byte[columnCount];
+            for (int c = 0; c < columnCount; c++)
+            {
+                headerNames.add(readString(meta));
+                types[c] = meta.readByte();
+                shapes[c] = meta.readByte();
+            }
+            dictionary = new String[meta.readInt()];
+            naCodes = new boolean[dictionary.length];
+            for (int i = 0; i < dictionary.length; i++)
+            {
+                dictionary[i] = readString(meta);
+                naCodes[i] = dictionary[i].isEmpty() || "NA".equals(dictionary[i]);
+            }
+
+            long offset = dataStart;
+            lines = new MappedColumn(channel, offset, rowCount, 4);
+            offset += rowCount * 4L;
+            columns = new MappedColumn[columnCount];
+            for (int c = 0; c < columnCount; c++)
+            {
+                if (types[c] == TYPE_NONE)
+                    continue;
+                int width = types[c] == TYPE_STRING ? 4 : 8;
+                columns[c] = new MappedColumn(channel, offset, rowCount, width);
+                offset += (long) rowCount * width;
+            }
+            if (offset != channel.size())
+                throw new IOException("Truncated snapshot");
+        }
+
+        /**
+         * @return header names of the source file, in column order
+         */
+        public List<String> headerNames()
+        {
+            return headerNames;
+        }
+
+        /**
+         * @return number of data rows
+         */
+        public int rowCount()
+        {
+            return rowCount;
+        }
+
+        /**
+         * @return a reusable row positioned with {@link SnapshotRow#setRow}
+         */
+        public SnapshotRow<H> row(HeaderResolver.Mapping<H> mapping)
+        {
+            return new SnapshotRow<>(this, mapping);
+        }
+
+        @Override
+        public void close() throws IOException
+        {
+            channel.close();
+        }
+    }
+
+    /**
+     * Row view over a snapshot, typed columns are read without any parsing.
+     */
+    public static final class SnapshotRow<H extends Enum<H> & ParserHeader> extends ParserRow<H>
+    {
+        private final Reader<H> snapshot;
+        private int row;
+
+        private SnapshotRow(Reader<H> snapshot, HeaderResolver.Mapping<H> mapping)
+        {
+            super(mapping);
+            this.snapshot = snapshot;
+        }
+
+        /**
+         * @param row Index of the data row, from 0 to rowCount - 1
+         */
+        public void setRow(int row)
+        {
+            this.row = row;
+        }
+
+        @Override
+        public int lineNumber()
+        {
+            return snapshot.lines.getInt(row);
+        }
+
+        private int code(int column)
+        {
+            return snapshot.columns[column].getInt(row);
+        }
+
+        private long value(int column)
+        {
+            return snapshot.columns[column].getLong(row);
+        }
+
+        @Override
+        protected String columnString(int column)
+        {
+            switch (snapshot.types[column])
+            {
+                case TYPE_STRING:
+                    return snapshot.dictionary[code(column)];
+                case TYPE_LONG:
+                    long number = value(column);
+                    return number == NA ? "" : Long.toString(number);
+                case TYPE_DATE:
+                    long millis = value(column);
+                    return millis == NA ? "" : formatDate(millis, snapshot.shapes[column]);
+                default:
+                    return "";
+            }
+        }
+
+        @Override
+        protected boolean columnIsNA(int column)
+        {
+            switch (snapshot.types[column])
+            {
+                case TYPE_STRING:
+                    return snapshot.naCodes[code(column)];
+                case TYPE_LONG:
+                case TYPE_DATE:
+                    return value(column) == NA;
+                default:
+                    return true;
+            }
+        }
+
+        @Override
+        protected int columnInt(int column)
+        {
+            if (snapshot.types[column] == TYPE_LONG)
+            {
+                long number = value(column);
+                if (number == NA)
+                    return 0;
+                if (number < Integer.MIN_VALUE || number > Integer.MAX_VALUE)
+                    throw new DataValidationException("Integer out of range", null, Long.toString(number));
+                return (int) number;
+            }
+            return Utils.parseInteger(columnString(column));
+        }
+
+        @Override
+        protected double columnDouble(int column)
+        {
+            if (snapshot.types[column] == TYPE_LONG)
+            {
+                long number = value(column);
+                return number == NA ? 0.0 : number;
+            }
+            return Utils.parseDouble(columnString(column));
+        }
+
+        @Override
+        protected long columnDateMillis(int column)
+        {
+            if (snapshot.types[column] == TYPE_DATE)
+                return value(column);
+            if (columnIsNA(column))
+                return DateTimeCodec.NO_DATE;
+            return DateTimeCodec.parseMillis(columnString(column));
+        }
+    }
+
+    /**
+     * Memory-mapped column of fixed-width values. The column is mapped in segments of 2^26 rows,
+     * so offsets are computed as long and a column may exceed the 2 GB limit of one mapping.
+     */
+    private static final class MappedColumn
+    {
+        private static final int SEGMENT_SHIFT = 26;
+        private static final int SEGMENT_MASK = (1 << SEGMENT_SHIFT) - 1;
+
+        private final MappedByteBuffer[] segments;
+
+        MappedColumn(FileChannel channel, long offset, int rowCount, int width) throws IOException
+        {
+            segments = new MappedByteBuffer[(int) ((rowCount + (long) SEGMENT_MASK) >>> SEGMENT_SHIFT)];
+            for (int s = 0; s < segments.length; s++)
+            {
+                long first = (long) s << SEGMENT_SHIFT;
+                long rows = Math.min(1L << SEGMENT_SHIFT, rowCount - first);
+                segments[s] = channel.map(FileChannel.MapMode.READ_ONLY, offset + first * width, rows * width);
+            }
+        }
+
+        int getInt(int row)
+        {
+            return segments[row >>> SEGMENT_SHIFT].getInt((row & SEGMENT_MASK) << 2);
+        }
+
+        long getLong(int row)
+        {
+            return segments[row >>> SEGMENT_SHIFT].getLong((row & SEGMENT_MASK) << 3);
+        }
+    }
+
+    /**
+     * Growable int array used while writing.
+     */
+    private static final class IntColumn
+    {
+        private int[] data = new int[1024];
+        private int size;
+
+        void add(int value)
+        {
+            if (size == data.length)
+                data = Arrays.copyOf(data, size * 2);
+            data[size++] = value;
+        }
+    }
+}
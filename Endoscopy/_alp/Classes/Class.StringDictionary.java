@@ -0,0 +1,84 @@
+/**
+ * StringDictionary
+ *
+ * Interns strings to dense int codes (0, 1, 2, ...) so repeated values are stored once
+ * and rows only keep an int.
+ */
+public class StringDictionary implements Serializable
+{
+    private final Map<String, Integer> codes = new HashMap<>();
+    private final List<String> values = new ArrayList<>();
+
+    /**
+     * @param value The string to intern (not null)
+     * @return the code of the value, a new one if not seen before
+     */
+    public int intern(String value)
+    {
+        Integer code = codes.get(value);
+        if (code != null)
+            return code;
+        int newCode = values.size();
+        codes.put(value, newCode);
+        values.add(value);
+        return newCode;
+    }
+
+    /**
+     * @return the code of the value, or -1 if not interned
+     */
+    public int codeOf(String value)
+    {
+        Integer code = codes.get(value);
+        return code == null ? -1 : code;
+    }
+
+    /**
+     * @return the value of the code
+     */
+    public String valueOf(int code)
+    {
+        return values.get(code);
+    }
+
+    /**
+     * @return number of distinct values
+     */
+    public int size()
+    {
+        return values.size();
+    }
+
+    /**
+     * Write the values to a checkpoint, in code order.
+     */
+    public void writeTo(ModelCheckpoint.Output out) throws IOException
+    {
+        out.writeInt(values.size());
+        for (String value : values)
+            out.writeString(value);
+    }
+
+    /**
+     * Read a dictionary written by {@link #writeTo}, with the same codes.
+     */
+    public static StringDictionary readFrom(ModelCheckpoint.Input in) throws IOException
+    {
+        StringDictionary dictionary = new StringDictionary();
+        for (int i = in.readInt(); i > 0; i--)
+            dictionary.intern(in.readString());
+        return dictionary;
+    }
+
+	@Override
+	public String toString() {
+		return "StringDictionary[" + values.size() + " values]";
+	}
+
+	/**
+	 * This number is here for model snapshot storing purpose<br>
+	 * It needs to be changed when this class gets changed
+	 */
+	private static final long serialVersionUID = 1L;
+
+}
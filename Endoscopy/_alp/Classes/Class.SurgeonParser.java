@@ -1,7 +1,12 @@
 /**
  * SurgeonParser
  */	
-public class SurgeonParser extends endoscopy.AbstractParser implements Serializable 
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+public class SurgeonParser extends endoscopy.AbstractParser<SurgeonParser.Header> implements Serializable 
 {
     public SurgeonParser(Main main, Province province) 
     {
@@ -41,6 +46,56 @@ public class SurgeonParser extends endoscopy.AbstractParser implements Serializa
     {
         return Header.class;
     }
+
+    /**
+     * Load all surgeons of the file, in file order.
+     * Skills are separated by ';', '|' or ',' (the latter only in TSV files).
+     * Shifts are daily times of day "H:mm[:ss]", a shift ending before its start runs overnight;
+     * surgeons without shift are always on duty.
+     * @param file The surgeon file
+     * @param delimiter The delimiter character ('\t' for TSV, ',' for CSV)
+     * @return surgeons in file order, which must also be the order of the surgeons population
+     * @throws IOException on file read error
+     * @throws DataValidationException on the first invalid row
+     */
+    public List<SurgeonRecord> loadSurgeons(File file, char delimiter) throws IOException
+    {
+        List<SurgeonRecord> surgeons = new ArrayList<>();
+        parseRows(file, delimiter, row ->
+        {
+            String surgeonId = row.get(Header.SURGEON_ID);
+            if (surgeonId.isEmpty())
+                throw new DataValidationException("Missing surgeon_id", Header.SURGEON_ID.baseName(), surgeonId);
+            int shiftStart = SurgeonRecord.NO_SHIFT, shiftEnd = SurgeonRecord.NO_SHIFT;
+            if (row.isEmpty(Header.SHIFT_START) != row.isEmpty(Header.SHIFT_END))
+                row.warn("Surgeon " + surgeonId + " has an incomplete shift, always on duty");
+            else if (!row.isEmpty(Header.SHIFT_START))
+            {
+                shiftStart = DateTimeCodec.parseSecondOfDay(row.get(Header.SHIFT_START));
+                shiftEnd = DateTimeCodec.parseSecondOfDay(row.get(Header.SHIFT_END));
+            }
+            surgeons.add(new SurgeonRecord(surgeonId, row.get(Header.NAME), splitSkills(row.get(Header.SKILLS)), shiftStart, shiftEnd));
+        });
+        Utils.printUpdate("Loaded " + surgeons.size() + " surgeons from " + file.getName());
+        return surgeons;
+    }
+
+    /**
+     * @return the non-empty skills of a skills value, empty if the value is null or "NA"
+     */
+    private static List<String> splitSkills(String value)
+    {
+        List<String> skills = new ArrayList<>();
+        if (value == null || value.equals("NA"))
+            return skills;
+        for (String skill : value.split("[;|,]"))
+        {
+            String cleaned = Utils.removeQuotes(skill).trim();
+            if (!cleaned.isEmpty())
+                skills.add(cleaned);
+        }
+        return skills;
+    }
     
 	@Override
 	public String toString() {
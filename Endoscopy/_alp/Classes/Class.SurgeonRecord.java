@@ -0,0 +1,52 @@
+/**
+ * SurgeonRecord
+ *
+ * One surgeon row loaded by {@link SurgeonParser}.
+ */
+public class SurgeonRecord implements Serializable
+{
+    /** Shift value of a surgeon always on duty */
+    public static final int NO_SHIFT = -1;
+
+    public final String surgeonId;
+    public final String name;
+    /** Procedures the surgeon can perform */
+    public final List<String> skills;
+    /** Daily shift start in seconds since midnight, or NO_SHIFT */
+    public final int shiftStart;
+    /** Daily shift end in seconds since midnight (before shiftStart for overnight shifts), or NO_SHIFT */
+    public final int shiftEnd;
+
+    public SurgeonRecord(String surgeonId, String name, List<String> skills, int shiftStart, int shiftEnd)
+    {
+        this.surgeonId = surgeonId;
+        this.name = name;
+        this.skills = Collections.unmodifiableList(new ArrayList<>(skills));
+        this.shiftStart = shiftStart;
+        this.shiftEnd = shiftEnd;
+    }
+
+    /**
+     * @return true if the surgeon is on duty at the given second of the day
+     */
+    public boolean isOnDuty(int secondOfDay)
+    {
+        if (shiftStart == NO_SHIFT || shiftStart == shiftEnd)
+            return true;
+        if (shiftStart < shiftEnd)
+            return secondOfDay >= shiftStart && secondOfDay < shiftEnd;
+        return secondOfDay >= shiftStart || secondOfDay < shiftEnd;
+    }
+
+	@Override
+	public String toString() {
+		return "SurgeonRecord[" + surgeonId + ", " + skills + "]";
+	}
+
+	/**
+	 * This number is here for model snapshot storing purpose<br>
+	 * It needs to be changed when this class gets changed
+	 */
+	private static final long serialVersionUID = 1L;
+
+}
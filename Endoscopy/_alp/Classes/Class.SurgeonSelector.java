@@ -0,0 +1,272 @@
+/**
+ * SurgeonSelector
+ *
+ * Resource choice for the seize block: which surgeon of rpSurgeons may take a patient.
+ * Surgeons are indexed by their unit index in rpSurgeons, whose capacity is set to the number of
+ * surgeons at startup (the load order of {@link SurgeonParser#loadSurgeons}); skills are interned to bit positions and kept as one
+ * bitset of surgeons per skill, next to bitsets of idle and on duty surgeons and a hash of surgeon ids.
+ *
+ * The surgeon of a patient is the preferred surgeon when available (idle and on duty) and skilled,
+ * otherwise the available surgeon with the skill of the procedure and the lowest index. Procedures
+ * that no surgeon lists as a skill, and surgeon files without skills, do not restrict the choice.
+ * The skill and preferred surgeon of a patient are resolved once when the agent is bound
+ * ({@link #bind}), through translation tables kept per store dictionary.
+ *
+ * The choice is made once per seize attempt: the first call of {@link #accepts(Patient, Surgeon)} for
+ * a patient runs {@link #select}, and the other units of the attempt are compared to the selected
+ * index. The selection is dropped whenever a surgeon is seized, released or changes duty.
+ *
+ * Wiring: arrival onAtExit {@code surgeonSelector.bind(agent)} after the patient record is bound;
+ * seize customizeResourceChoice with resourceChoiceCondition {@code surgeonSelector.accepts(agent, (Surgeon) unit)}
+ * for units of rpSurgeons; rpSurgeons on seize {@code surgeonSelector.markSeized((Surgeon) unit)} and on
+ * release {@code surgeonSelector.markReleased((Surgeon) unit)}.
+ */
+public class SurgeonSelector implements Serializable
+{
+    private final int surgeonCount;
+    private final StringDictionary surgeonIds = new StringDictionary();
+    private final StringDictionary skills = new StringDictionary();
+    /** Surgeon bitsets by skill code */
+    private final long[][] surgeonsBySkill;
+    private final long[] idle;
+    private final long[] onDuty;
+
+    /** Skill codes by procedure code of {@link #procedureDictionary}, -2 if not resolved yet */
+    private transient int[] procedureSkills;
+    private transient StringDictionary procedureDictionary;
+    /** Surgeon indexes by preferred surgeon code of {@link #surgeonDictionary}, -2 if not resolved yet */
+    private transient int[] preferredSurgeons;
+    private transient StringDictionary surgeonDictionary;
+
+    /** Incremented on every change of the idle or duty state */
+    private transient int version;
+    private transient Patient choicePatient;
+    private transient int choiceVersion;
+    private transient int choice;
+
+    /**
+     * @param surgeons Surgeons in population order
+     */
+    public SurgeonSelector(List<SurgeonRecord> surgeons)
+    {
+        surgeonCount = surgeons.size();
+        int words = (surgeonCount + 63) >>> 6;
+        for (SurgeonRecord surgeon : surgeons)
+        {
+            if (surgeonIds.codeOf(surgeon.surgeonId) >= 0)
+                throw new DataValidationException("Duplicate surgeon_id: " + surgeon.surgeonId);
+            surgeonIds.intern(surgeon.surgeonId);
+            for (String skill : surgeon.skills)
+                skills.intern(skill);
+        }
+        surgeonsBySkill = new long[skills.size()][words];
+        for (int i = 0; i < surgeonCount; i++)
+        {
+            for (String skill : surgeons.get(i).skills)
+                surgeonsBySkill[skills.codeOf(skill)][i >>> 6] |= 1L << i;
+        }
+        idle = new long[words];
+        onDuty = new long[words];
+        for (int i = 0; i < surgeonCount; i++)
+        {
+            idle[i >>> 6] |= 1L << i;
+            onDuty[i >>> 6] |= 1L << i;
+        }
+    }
+
+    /**
+     * @return population index of the surgeon, or -1 if unknown
+     */
+    public int indexOf(String surgeonId)
+    {
+        return surgeonId == null ? -1 : surgeonIds.codeOf(surgeonId);
+    }
+
+    /**
+     * @return the skill code of the procedure, or -1 if no surgeon lists it (unrestricted procedure)
+     */
+    public int skillCode(String procedure)
+    {
+        return skills.codeOf(procedure);
+    }
+
+    /**
+     * @return true if the surgeon can perform the procedure (always true for an unrestricted procedure)
+     */
+    public boolean hasSkill(int surgeon, String procedure)
+    {
+        return hasSkillCode(surgeon, skills.codeOf(procedure));
+    }
+
+    /**
+     * @param skill Skill code from {@link #skillCode}, -1 for an unrestricted procedure
+     * @return true if the surgeon has the skill
+     */
+    public boolean hasSkillCode(int surgeon, int skill)
+    {
+        return skill < 0 || (surgeonsBySkill[skill][surgeon >>> 6] & (1L << surgeon)) != 0;
+    }
+
+    /**
+     * Resolve the skill code of the patient procedure and the index of the preferred surgeon once,
+     * when the agent is bound to its record. Codes of the store dictionaries are translated through
+     * tables extended as the dictionaries grow, so each distinct value is looked up once.
+     * @param patient The patient agent, bound to its store record
+     */
+    public void bind(Patient patient)
+    {
+        PatientStore store = patient.store;
+        if (store.procedures() != procedureDictionary)
+        {
+            procedureDictionary = store.procedures();
+            procedureSkills = new int[0];
+        }
+        if (store.surgeons() != surgeonDictionary)
+        {
+            surgeonDictionary = store.surgeons();
+            preferredSurgeons = new int[0];
+        }
+        int procedure = store.procedureCode(patient.storeIndex);
+        if (procedure >= procedureSkills.length)
+            procedureSkills = grow(procedureSkills, procedureDictionary.size());
+        if (procedureSkills[procedure] == -2)
+            procedureSkills[procedure] = skills.codeOf(procedureDictionary.valueOf(procedure));
+        patient.set_skillCode(procedureSkills[procedure]);
+
+        int preferred = store.preferredSurgeonCode(patient.storeIndex);
+        if (preferred == PatientStore.NO_SURGEON)
+        {
+            patient.set_preferredSurgeonIndex(-1);
+            return;
+        }
+        if (preferred >= preferredSurgeons.length)
+            preferredSurgeons = grow(preferredSurgeons, surgeonDictionary.size());
+        if (preferredSurgeons[preferred] == -2)
+            preferredSurgeons[preferred] = surgeonIds.codeOf(surgeonDictionary.valueOf(preferred));
+        patient.set_preferredSurgeonIndex(preferredSurgeons[preferred]);
+    }
+
+    private static int[] grow(int[] table, int size)
+    {
+        int[] grown = Arrays.copyOf(table, Math.max(size, table.length * 2));
+        Arrays.fill(grown, table.length, grown.length, -2);
+        return grown;
+    }
+
+    public boolean isIdle(int surgeon)
+    {
+        return (idle[surgeon >>> 6] & (1L << surgeon)) != 0;
+    }
+
+    public boolean isOnDuty(int surgeon)
+    {
+        return (onDuty[surgeon >>> 6] & (1L << surgeon)) != 0;
+    }
+
+    /**
+     * @return true if the surgeon is idle and on duty
+     */
+    public boolean isAvailable(int surgeon)
+    {
+        return (idle[surgeon >>> 6] & onDuty[surgeon >>> 6] & (1L << surgeon)) != 0;
+    }
+
+    /**
+     * Set the duty state of a surgeon; a busy surgeon going off duty finishes the current patient.
+     */
+    public void setOnDuty(int surgeon, boolean value)
+    {
+        if (value)
+            onDuty[surgeon >>> 6] |= 1L << surgeon;
+        else
+            onDuty[surgeon >>> 6] &= ~(1L << surgeon);
+        version++;
+    }
+
+    /**
+     * Resource choice condition of a patient bound with {@link #bind}. The surgeon is selected on the
+     * first call of a seize attempt; the other units of the attempt only compare their index to it.
+     * @param patient The patient trying to seize
+     * @param surgeon The candidate surgeon unit
+     * @return true if the surgeon is the one selected for the patient
+     */
+    public boolean accepts(Patient patient, Surgeon surgeon)
+    {
+        if (patient != choicePatient || version != choiceVersion)
+        {
+            choice = select(patient.skillCode, patient.preferredSurgeonIndex);
+            choicePatient = patient;
+            choiceVersion = version;
+        }
+        return surgeon.getIndex() == choice;
+    }
+
+    /**
+     * Choose the surgeon for a patient: the preferred surgeon if available and skilled,
+     * otherwise the available skilled surgeon with the lowest index.
+     * Scans one word per 64 surgeons.
+     * @param procedure The procedure of the patient
+     * @param preferredSurgeon The preferred surgeon id, or null
+     * @return population index of the surgeon, or -1 if no skilled surgeon is available
+     */
+    public int select(String procedure, String preferredSurgeon)
+    {
+        return select(skills.codeOf(procedure), indexOf(preferredSurgeon));
+    }
+
+    /**
+     * @param skill Skill code from {@link #skillCode}, -1 for an unrestricted procedure
+     * @param preferred Population index of the preferred surgeon, -1 if none
+     * @return population index of the surgeon, or -1 if no skilled surgeon is available
+     * @see #select(String, String)
+     */
+    public int select(int skill, int preferred)
+    {
+        if (preferred >= 0 && isAvailable(preferred) && hasSkillCode(preferred, skill))
+            return preferred;
+        long[] skilled = skill < 0 ? null : surgeonsBySkill[skill];
+        for (int w = 0; w < idle.length; w++)
+        {
+            long candidates = idle[w] & onDuty[w];
+            if (skilled != null)
+                candidates &= skilled[w];
+            if (candidates != 0)
+                return (w << 6) + Long.numberOfTrailingZeros(candidates);
+        }
+        return -1;
+    }
+
+    public void markSeized(Surgeon surgeon)
+    {
+        int i = surgeon.getIndex();
+        idle[i >>> 6] &= ~(1L << i);
+        version++;
+    }
+
+    public void markReleased(Surgeon surgeon)
+    {
+        int i = surgeon.getIndex();
+        idle[i >>> 6] |= 1L << i;
+        version++;
+    }
+
+    /**
+     * @return number of surgeons
+     */
+    public int size()
+    {
+        return surgeonCount;
+    }
+
+	@Override
+	public String toString() {
+		return "SurgeonSelector[" + surgeonCount + " surgeons, " + skills.size() + " skills]";
+	}
+
+	/**
+	 * This number is here for model snapshot storing purpose<br>
+	 * It needs to be changed when this class gets changed
+	 */
+	private static final long serialVersionUID = 2L;
+
+}
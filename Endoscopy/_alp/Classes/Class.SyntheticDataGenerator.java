@@ -0,0 +1,409 @@
+/**
+ * SyntheticDataGenerator
+ *
+ * Writes reproducible patient, surgeon and operating room files in the format of
+ * {@link PatientParser}, {@link SurgeonParser} and {@link OperatingRoomParser}, for load tests
+ * without real patient data. The output depends only on the seed and the settings, not on the
+ * number of threads: rows are generated in chunks, each from its own random stream, written in
+ * parallel to part files and concatenated in order into a temporary file, which then replaces the
+ * target in one move. A failed or interrupted run leaves the previous file (or none), never a
+ * truncated one, and its part files are deleted.
+ *
+ * Patients are scheduled in datetime order over the horizon, with a Zipf-skewed procedure mix and
+ * a preferred surgeon for a third of them. Optional features exercise the parsers: quoted fields,
+ * a leading BOM, prefix-indexed extra columns ("note_1", "note_2", ...; unused by the parsers) and
+ * a fraction of malformed values (missing ids, invalid dates, times, priorities and turnovers).
+ */
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+public class SyntheticDataGenerator
+{
+    /** Rows generated per chunk, the unit of parallel work */
+    private static final int CHUNK_ROWS = 250_000;
+    private static final String[] PROCEDURES = { "colonoscopy", "gastroscopy", "ERCP", "EUS", "bronchoscopy",
+        "sigmoidoscopy", "cystoscopy", "enteroscopy", "PEG", "capsule" };
+    private static final String[] ROOM_TYPES = { "standard", "standard", "standard", "hybrid", "fluoroscopy" };
+    private static final String[][] SHIFTS = { { "07:00", "15:00" }, { "08:00", "16:30" }, { "15:00", "23:00" }, { "22:00", "06:00" }, { "", "" } };
+
+    private final long seed;
+    private char delimiter = '\t';
+    private int threads = Runtime.getRuntime().availableProcessors();
+    private double procedureSkew = 1.0;
+    private double quotedFraction;
+    private double malformedFraction;
+    private boolean bom;
+    private int extraColumns;
+    private long startMillis = LocalDateTime.of(2025, 1, 1, 0, 0).toEpochSecond(ZoneOffset.UTC) * 1000;
+    private int horizonDays = 365;
+    private int surgeonCount = 500;
+
+    /**
+     * @param seed Seed of all generated files
+     */
+    public SyntheticDataGenerator(long seed)
+    {
+        this.seed = seed;
+    }
+
+    /**
+     * @param delimiter The delimiter character ('\t' for TSV, ',' for CSV)
+     */
+    public void setDelimiter(char delimiter)
+    {
+        this.delimiter = delimiter;
+    }
+
+    public void setThreads(int threads)
+    {
+        this.threads = Math.max(1, threads);
+    }
+
+    /**
+     * @param skew Zipf exponent of the procedure mix, 0 for a uniform mix
+     */
+    public void setProcedureSkew(double skew)
+    {
+        this.procedureSkew = skew;
+    }
+
+    /**
+     * @param fraction Fraction of text fields written between double quotes
+     */
+    public void setQuotedFraction(double fraction)
+    {
+        this.quotedFraction = fraction;
+    }
+
+    /**
+     * @param fraction Fraction of rows with one malformed value
+     */
+    public void setMalformedFraction(double fraction)
+    {
+        this.malformedFraction = fraction;
+    }
+
+    /**
+     * @param bom true to start the files with a UTF-8 BOM
+     */
+    public void setBom(boolean bom)
+    {
+        this.bom = bom;
+    }
+
+    /**
+     * @param count Number of prefix-indexed "note_" columns appended to each file
+     */
+    public void setExtraColumns(int count)
+    {
+        this.extraColumns = count;
+    }
+
+    /**
+     * @param startMillis First scheduled datetime, as local wall clock millis since the epoch
+     * @param horizonDays Days over which the patients are scheduled
+     */
+    public void setSchedule(long startMillis, int horizonDays)
+    {
+        this.startMillis = startMillis;
+        this.horizonDays = horizonDays;
+    }
+
+    /**
+     * @param count Number of surgeons referenced as preferred surgeons ("S0" to "S(count-1)")
+     */
+    public void setSurgeonCount(int count)
+    {
+        this.surgeonCount = count;
+    }
+
+    /**
+     * Write a patient file.
+     * @param file The file
+     * @param rows Number of patients
+     * @throws IOException on file write error
+     */
+    public void writePatients(File file, long rows) throws IOException
+    {
+        double[] cumulative = new double[PROCEDURES.length];
+        double total = 0;
+        for (int i = 0; i < cumulative.length; i++)
+            cumulative[i] = total += 1 / Math.pow(i + 1, procedureSkew);
+        for (int i = 0; i < cumulative.length; i++)
+            cumulative[i] /= total;
+        double stepMillis = horizonDays * 86_400_000.0 / Math.max(1, rows);
+        write(file, 1, rows, new String[] { "patient_id", "name", "scheduled_datetime", "procedure", "preferred_surgeon", "priority" }, (row, random, line) ->
+        {
+            long millis = startMillis + (long) (row * stepMillis + random.nextDouble() * stepMillis);
+            String id = "P" + row;
+            String date = formatDateTime(millis);
+            String priority = Integer.toString(random.nextInt(100) < 80 ? 0 : random.nextInt(5));
+            switch (malformed(random, 4))
+            {
+                case 0: id = ""; break;
+                case 1: date = "2025-13-" + date.substring(8); break;
+                case 2: priority = "p" + priority; break;
+                case 3: priority = "300"; break;
+                default: break;
+            }
+            String preferred = random.nextInt(3) == 0 ? "S" + random.nextInt(surgeonCount) : "";
+            field(line, id, random, false);
+            field(line, "Patient " + row, random, true);
+            field(line, date, random, false);
+            field(line, procedure(random, cumulative), random, true);
+            field(line, preferred, random, true);
+            field(line, priority, random, false);
+        });
+    }
+
+    /**
+     * Write a surgeon file.
+     * @param file The file
+     * @param rows Number of surgeons
+     * @throws IOException on file write error
+     */
+    public void writeSurgeons(File file, long rows) throws IOException
+    {
+        write(file, 2, rows, new String[] { "surgeon_id", "name", "skills", "shift_start", "shift_end" }, (row, random, line) ->
+        {
+            String id = "S" + row;
+            String[] shift = SHIFTS[random.nextInt(SHIFTS.length)].clone();
+            switch (malformed(random, 2))
+            {
+                case 0: id = ""; break;
+                case 1: shift = new String[] { "25:99", shift[1].isEmpty() ? "15:00" : shift[1] }; break;
+                default: break;
+            }
+            StringBuilder skills = new StringBuilder();
+            int first = random.nextInt(PROCEDURES.length), count = 1 + random.nextInt(3);
+            for (int i = 0; i < count; i++)
+                skills.append(i == 0 ? "" : ";").append(PROCEDURES[(first + i * 3) % PROCEDURES.length]);
+            field(line, id, random, false);
+            field(line, "Surgeon " + row, random, true);
+            field(line, skills.toString(), random, true);
+            field(line, shift[0], random, false);
+            field(line, shift[1], random, false);
+        });
+    }
+
+    /**
+     * Write an operating room file.
+     * @param file The file
+     * @param rows Number of operating rooms
+     * @throws IOException on file write error
+     */
+    public void writeOperatingRooms(File file, long rows) throws IOException
+    {
+        write(file, 3, rows, new String[] { "or_id", "room_type", "turnover_time" }, (row, random, line) ->
+        {
+            String id = "OR" + row;
+            String turnover = Integer.toString(10 + 5 * random.nextInt(5));
+            switch (malformed(random, 2))
+            {
+                case 0: id = ""; break;
+                case 1: turnover = random.nextBoolean() ? "-" + turnover : turnover + "min"; break;
+                default: break;
+            }
+            field(line, id, random, false);
+            field(line, ROOM_TYPES[random.nextInt(ROOM_TYPES.length)], random, true);
+            field(line, turnover, random, false);
+        });
+    }
+
+    /**
+     * Builds one row, without the extra columns and the line end.
+     */
+    private interface RowWriter
+    {
+        void write(long row, SplittableRandom random, StringBuilder line);
+    }
+
+    /**
+     * Generate the chunks of a file in parallel to part files, then concatenate them in order into a
+     * temporary file moved onto the target.
+     * @param kind Distinguishes the random streams of the file kinds
+     */
+    private void write(File file, int kind, long rows, String[] header, RowWriter rowWriter) throws IOException
+    {
+        long start = System.currentTimeMillis();
+        int chunks = (int) Math.max(1, (rows + CHUNK_ROWS - 1) / CHUNK_ROWS);
+        File directory = file.getAbsoluteFile().getParentFile();
+        File[] parts = new File[chunks];
+        File temp = null;
+        ExecutorService pool = Executors.newFixedThreadPool(Math.min(threads, chunks));
+        try
+        {
+            List<Future<?>> done = new ArrayList<>();
+            for (int c = 0; c < chunks; c++)
+            {
+                int chunk = c;
+                parts[c] = File.createTempFile(file.getName() + ".", ".part" + c, directory);
+                done.add(pool.submit(() ->
+                {
+                    writeChunk(parts[chunk], kind, chunk, Math.min(rows, (long) chunk * CHUNK_ROWS), Math.min(rows, (long) (chunk + 1) * CHUNK_ROWS), rowWriter);
+                    return null;
+                }));
+            }
+            for (Future<?> future : done)
+                future.get();
+            temp = File.createTempFile(file.getName(), ".tmp", directory);
+            concatenate(temp, header, parts);
+            try
+            {
+                Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            }
+            catch (AtomicMoveNotSupportedException e)
+            {
+                Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            }
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while generating " + file.getName());
+        }
+        catch (ExecutionException e)
+        {
+            throw e.getCause() instanceof IOException ? (IOException) e.getCause() : new IOException(e.getCause());
+        }
+        finally
+        {
+            pool.shutdownNow();
+            awaitTermination(pool);
+            for (File part : parts)
+                if (part != null)
+                    Files.deleteIfExists(part.toPath());
+            if (temp != null)
+                Files.deleteIfExists(temp.toPath());
+        }
+        Utils.printUpdate("Generated " + rows + " rows in " + file.getName() + " (" + (System.currentTimeMillis() - start) + " ms)");
+    }
+
+    /**
+     * Write the header line, then the part files in order.
+     */
+    private void concatenate(File target, String[] header, File[] parts) throws IOException
+    {
+        try (FileChannel out = FileChannel.open(target.toPath(), StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING))
+        {
+            StringBuilder line = new StringBuilder(bom ? "\uFEFF" : "");
+            for (int i = 0; i < header.length; i++)
+                line.append(i == 0 ? "" : String.valueOf(delimiter)).append(header[i]);
+            for (int i = 1; i <= extraColumns; i++)
+                line.append(delimiter).append("note_").append(i);
+            out.write(ByteBuffer.wrap(line.append('\n').toString().getBytes(StandardCharsets.UTF_8)));
+            for (File part : parts)
+            {
+                try (FileChannel in = FileChannel.open(part.toPath(), StandardOpenOption.READ))
+                {
+                    long position = 0, size = in.size();
+                    while (position < size)
+                        position += in.transferTo(position, size - position, out);
+                }
+            }
+        }
+    }
+
+    /**
+     * Wait for the chunk writers stopped after a failure, so none still writes a part file when the parts
+     * are deleted. A chunk is not interruptible: an interrupt of the caller is kept for after the wait.
+     */
+    private static void awaitTermination(ExecutorService pool)
+    {
+        boolean interrupted = Thread.interrupted();
+        try
+        {
+            pool.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+        }
+        catch (InterruptedException e)
+        {
+            interrupted = true;
+        }
+        if (interrupted)
+            Thread.currentThread().interrupt();
+    }
+
+    private void writeChunk(File part, int kind, int chunk, long from, long to, RowWriter rowWriter) throws IOException
+    {
+        SplittableRandom random = new SplittableRandom(ReplicationRunner.seedOf(seed * 31 + kind, chunk));
+        StringBuilder line = new StringBuilder(256);
+        try (Writer out = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(part), StandardCharsets.UTF_8), 1 << 16))
+        {
+            for (long row = from; row < to; row++)
+            {
+                line.setLength(0);
+                rowWriter.write(row, random, line);
+                for (int i = 1; i <= extraColumns; i++)
+                    field(line, "n" + random.nextInt(1000), random, true);
+                out.append(line, 1, line.length()).append('\n');
+            }
+        }
+    }
+
+    /**
+     * Append a field preceded by the delimiter, quoted when requested and chosen.
+     * The line is built with a leading delimiter, dropped when written.
+     */
+    private void field(StringBuilder line, String value, SplittableRandom random, boolean quotable)
+    {
+        line.append(delimiter);
+        if (quotable && !value.isEmpty() && random.nextDouble() < quotedFraction)
+            line.append('"').append(value).append('"');
+        else
+            line.append(value);
+    }
+
+    /**
+     * @return the kind of malformed value of the row (0 to kinds - 1), or -1 for a valid row
+     */
+    private int malformed(SplittableRandom random, int kinds)
+    {
+        return malformedFraction > 0 && random.nextDouble() < malformedFraction ? random.nextInt(kinds) : -1;
+    }
+
+    /**
+     * @param cumulative Cumulative weights of the procedure mix
+     */
+    private static String procedure(SplittableRandom random, double[] cumulative)
+    {
+        int i = Arrays.binarySearch(cumulative, random.nextDouble());
+        return PROCEDURES[Math.min(PROCEDURES.length - 1, i < 0 ? -i - 1 : i)];
+    }
+
+    /**
+     * @return the wall clock datetime "yyyy-MM-dd HH:mm:ss" of millis since the epoch
+     */
+    private static String formatDateTime(long millis)
+    {
+        LocalDateTime t = LocalDateTime.ofEpochSecond(Math.floorDiv(millis, 1000), 0, ZoneOffset.UTC);
+        StringBuilder s = new StringBuilder(19).append(t.getYear()).append('-');
+        pad(s, t.getMonthValue()).append('-');
+        pad(s, t.getDayOfMonth()).append(' ');
+        pad(s, t.getHour()).append(':');
+        pad(s, t.getMinute()).append(':');
+        return pad(s, t.getSecond()).toString();
+    }
+
+    private static StringBuilder pad(StringBuilder s, int value)
+    {
+        return s.append(value < 10 ? "0" : "").append(value);
+    }
+
+	@Override
+	public String toString() {
+		return "SyntheticDataGenerator[seed=" + seed + "]";
+	}
+
+}
@@ -0,0 +1,267 @@
+/**
+ * TailCheckpoint
+ *
+ * How far an append-only input file was parsed, so that the next load parses only the lines
+ * appended since (see {@link AbstractParser#parseRowsIncremental}). It records the byte offset and
+ * line count after the last complete line, the end of the header line, a fingerprint of the parser
+ * configuration (header enum and delimiter) and a 64-bit hash of the whole parsed prefix [0, offset).
+ * The file is taken as an extension of the parsed one when it is not shorter and its first offset bytes
+ * hash the same; anything else (an edited row anywhere, new columns, truncation) means a full parse.
+ *
+ * The hash is FNV-like over little-endian 8-byte words rather than bytes, one multiply per word: each
+ * step is a bijection of the state for a given word, so a change confined to one word always changes
+ * the hash. The words are aligned on the start of the file; the bytes after the last whole word of the
+ * prefix are kept as they are, so the next checkpoint continues the hash state over the appended
+ * bytes only. Checking reads the parsed prefix once, which costs far less than parsing it again.
+ *
+ * The checkpoint is stored next to the file ("patients.tsv" gives "patients.tsv.tail"), followed by the
+ * parsed data of the caller, encoded with {@link ModelCheckpoint.Output}.
+ */
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+
+public final class TailCheckpoint
+{
+    private static final int MAGIC = 0x454E444B;
+    private static final int VERSION = 3;
+    private static final long FNV_OFFSET_BASIS = 0xcbf29ce484222325L;
+    /** Odd multiplier of the word hash, with enough set bits to spread every bit of a word */
+    private static final long WORD_MULTIPLIER = 0x9E3779B97F4A7C15L;
+    private static final String SUFFIX = ".tail";
+
+    /**
+     * Writes the parsed data after the checkpoint.
+     */
+    public interface PayloadWriter
+    {
+        void writeTo(ModelCheckpoint.Output out) throws IOException;
+    }
+
+    /**
+     * Reads the parsed data written after the checkpoint.
+     */
+    public interface PayloadReader<T>
+    {
+        T readFrom(ModelCheckpoint.Input in) throws IOException;
+    }
+
+    /** Byte offset after the last parsed line */
+    public final long offset;
+    /** Number of lines up to offset, header included */
+    public final int lineCount;
+    private final long headerEnd;
+    /** Hash of the whole words of [0, offset), the state continued by the next checkpoint */
+    private final long prefixHash;
+    /** The 0 to 7 bytes of [0, offset) after its last whole word, little-endian */
+    private final long tailWord;
+    private final long configuration;
+
+    /** The cache file the checkpoint was read from, or null */
+    private final File cacheFile;
+
+    private TailCheckpoint(long offset, int lineCount, long headerEnd, long prefixHash, long tailWord, long configuration, File cacheFile)
+    {
+        this.offset = offset;
+        this.lineCount = lineCount;
+        this.headerEnd = headerEnd;
+        this.prefixHash = prefixHash;
+        this.tailWord = tailWord;
+        this.configuration = configuration;
+        this.cacheFile = cacheFile;
+    }
+
+    /**
+     * @return the checkpoint file of the given input file
+     */
+    public static File cacheFile(File source)
+    {
+        return new File(source.getPath() + SUFFIX);
+    }
+
+    /**
+     * Checkpoint the file parsed up to its end.
+     * @param channel The parsed file
+     * @param previous The checkpoint the file was found to extend by {@link #isPrefixOf}, whose hash is
+     *                 continued over the appended bytes, or null to hash the file from its start
+     * @param headerEnd Byte offset after the header line
+     * @param end Byte offset the file was parsed to, its size
+     * @param lineCount Number of lines up to end, header included
+     * @param configuration Fingerprint of the parser configuration
+     * @return the checkpoint, or null if the file does not end with a complete line (it may still be written to)
+     * @throws IOException on file read error
+     */
+    public static TailCheckpoint capture(FileChannel channel, TailCheckpoint previous, long headerEnd, long end, int lineCount, long configuration) throws IOException
+    {
+        if (end == 0 || readByte(channel, end - 1) != '\n')
+            return null;
+        long wordEnd = wordFloor(end);
+        long prefixHash = previous == null
+            ? hash(FNV_OFFSET_BASIS, channel, 0, wordEnd)
+            : hash(previous.prefixHash, channel, wordFloor(previous.offset), wordEnd);
+        return new TailCheckpoint(end, lineCount, headerEnd, prefixHash, readWord(channel, wordEnd, end), configuration, null);
+    }
+
+    /**
+     * @param channel The file to load now
+     * @param currentHeaderEnd Byte offset after its header line
+     * @param currentConfiguration Fingerprint of the parser configuration
+     * @return true if the file is the checkpointed one with lines appended (possibly none)
+     * @throws IOException on file read error
+     */
+    public boolean isPrefixOf(FileChannel channel, long currentHeaderEnd, long currentConfiguration) throws IOException
+    {
+        long wordEnd = wordFloor(offset);
+        return configuration == currentConfiguration && headerEnd == currentHeaderEnd && channel.size() >= offset
+            && readWord(channel, wordEnd, offset) == tailWord && hash(FNV_OFFSET_BASIS, channel, 0, wordEnd) == prefixHash;
+    }
+
+    /**
+     * @return the offset of the word holding the given byte offset
+     */
+    private static long wordFloor(long offset)
+    {
+        return offset & ~7L;
+    }
+
+    /**
+     * @return the bytes [from, to), at most 8, as a little-endian word padded with zeros
+     */
+    private static long readWord(FileChannel channel, long from, long to) throws IOException
+    {
+        ByteBuffer buffer = ByteBuffer.allocate(8).order(ByteOrder.LITTLE_ENDIAN);
+        buffer.limit((int) (to - from));
+        readFully(channel, buffer, from);
+        buffer.clear();
+        return buffer.getLong(0);
+    }
+
+    private static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException
+    {
+        while (buffer.hasRemaining())
+        {
+            if (channel.read(buffer, position + buffer.position()) <= 0)
+                throw new EOFException("Cannot read bytes " + (position + buffer.position()) + " to " + (position + buffer.limit()));
+        }
+    }
+
+    private static int readByte(FileChannel channel, long position) throws IOException
+    {
+        ByteBuffer buffer = ByteBuffer.allocate(1);
+        if (channel.read(buffer, position) != 1)
+            throw new EOFException("Cannot read byte " + position);
+        return buffer.get(0);
+    }
+
+    /**
+     * 64-bit hash of the words of the byte range [from, to), continued from the state after the words before from.
+     * @param hash The hash state at from, {@link #FNV_OFFSET_BASIS} at the start of the file
+     * @param from Start of the range, a multiple of 8
+     * @param to End of the range, a multiple of 8
+     */
+    private static long hash(long hash, FileChannel channel, long from, long to) throws IOException
+    {
+        ByteBuffer buffer = ByteBuffer.allocateDirect(1 << 16).order(ByteOrder.LITTLE_ENDIAN);
+        for (long position = from; position < to; )
+        {
+            buffer.clear();
+            buffer.limit((int) Math.min(buffer.capacity(), to - position));
+            readFully(channel, buffer, position);
+            int length = buffer.limit();
+            for (int i = 0; i < length; i += 8)
+                hash = Long.rotateLeft((hash ^ buffer.getLong(i)) * WORD_MULTIPLIER, 31);
+            position += length;
+        }
+        return hash;
+    }
+
+    /**
+     * Write the checkpoint and the parsed data, to a temporary file first and moved in place.
+     * @param cacheFile The checkpoint file, see {@link #cacheFile}
+     * @param payload Writes the parsed data
+     * @throws IOException if the file cannot be written
+     */
+    public void write(File cacheFile, PayloadWriter payload) throws IOException
+    {
+        File partial = new File(cacheFile.getPath() + ".tmp");
+        try
+        {
+            try (ModelCheckpoint.Output out = new ModelCheckpoint.Output(new BufferedOutputStream(new FileOutputStream(partial), 1 << 16)))
+            {
+                out.writeInt(MAGIC);
+                out.writeInt(VERSION);
+                out.writeLong(offset);
+                out.writeInt(lineCount);
+                out.writeLong(headerEnd);
+                out.writeLong(prefixHash);
+                out.writeLong(tailWord);
+                out.writeLong(configuration);
+                payload.writeTo(out);
+            }
+            try
+            {
+                Files.move(partial.toPath(), cacheFile.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            }
+            catch (AtomicMoveNotSupportedException e)
+            {
+                Files.move(partial.toPath(), cacheFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            }
+        }
+        finally
+        {
+            partial.delete();
+        }
+    }
+
+    /**
+     * Read the checkpoint of a cache file, without its parsed data.
+     * @return the checkpoint, or null if there is no readable checkpoint
+     */
+    public static TailCheckpoint read(File cacheFile)
+    {
+        if (!cacheFile.isFile())
+            return null;
+        try (InputStream stream = new BufferedInputStream(new FileInputStream(cacheFile), 256))
+        {
+            return readFields(new ModelCheckpoint.Input(stream), cacheFile);
+        }
+        catch (IOException e)
+        {
+            Utils.printDebug("Ignoring unreadable tail checkpoint %s: %s", cacheFile.getName(), e);
+            return null;
+        }
+    }
+
+    /**
+     * Read the parsed data stored after a checkpoint returned by {@link #read}.
+     * @throws IOException if the data cannot be read
+     */
+    public <T> T readPayload(PayloadReader<T> payload) throws IOException
+    {
+        if (cacheFile == null)
+            throw new IllegalStateException("Checkpoint not read from a file");
+        try (InputStream stream = new BufferedInputStream(new FileInputStream(cacheFile), 1 << 16))
+        {
+            ModelCheckpoint.Input in = new ModelCheckpoint.Input(stream);
+            if (readFields(in, cacheFile) == null)
+                throw new FileFormatException("Not a tail checkpoint: " + cacheFile.getName());
+            return payload.readFrom(in);
+        }
+    }
+
+    private static TailCheckpoint readFields(ModelCheckpoint.Input in, File cacheFile) throws IOException
+    {
+        if (in.readInt() != MAGIC || in.readInt() != VERSION)
+            return null;
+        return new TailCheckpoint(in.readLong(), in.readInt(), in.readLong(), in.readLong(), in.readLong(), in.readLong(), cacheFile);
+    }
+
+	@Override
+	public String toString() {
+		return "TailCheckpoint[" + offset + " bytes, " + lineCount + " lines]";
+	}
+
+}
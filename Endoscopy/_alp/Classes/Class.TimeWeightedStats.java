@@ -0,0 +1,83 @@
+/**
+ * TimeWeightedStats
+ *
+ * Time average of a piecewise constant level (queue length, number of busy rooms), updated at
+ * each change of the level, in constant memory.
+ */
+public class TimeWeightedStats implements Serializable
+{
+    private final double startTime;
+    private double lastTime;
+    private double level;
+    private double integral;
+    private double max;
+
+    /**
+     * @param startTime Model time from which the level is observed, the level is 0 until the first update
+     */
+    public TimeWeightedStats(double startTime)
+    {
+        this.startTime = startTime;
+        this.lastTime = startTime;
+    }
+
+    /**
+     * @param time Current model time, not before the previous update
+     * @param newLevel The level from this time on
+     */
+    public void update(double time, double newLevel)
+    {
+        integral += level * (time - lastTime);
+        lastTime = time;
+        level = newLevel;
+        if (newLevel > max)
+            max = newLevel;
+    }
+
+    /**
+     * @param time Current model time
+     * @param delta Change of the level
+     */
+    public void add(double time, double delta)
+    {
+        update(time, level + delta);
+    }
+
+    public double level()
+    {
+        return level;
+    }
+
+    public double max()
+    {
+        return max;
+    }
+
+    /**
+     * @return integral of the level from the start time to the given time
+     */
+    public double integral(double time)
+    {
+        return integral + level * (time - lastTime);
+    }
+
+    /**
+     * @return time average of the level from the start time to the given time, NaN if no time has elapsed
+     */
+    public double mean(double time)
+    {
+        return time > startTime ? integral(time) / (time - startTime) : Double.NaN;
+    }
+
+	@Override
+	public String toString() {
+		return "TimeWeightedStats[level=" + level + ", max=" + max + "]";
+	}
+
+	/**
+	 * This number is here for model snapshot storing purpose<br>
+	 * It needs to be changed when this class gets changed
+	 */
+	private static final long serialVersionUID = 1L;
+
+}
@@ -0,0 +1,495 @@
+/**
+ * TrajectoryWriter
+ *
+ * Per-patient trace of the flowchart: patient id, arrival, seize, delay start and end and release
+ * times, operating room and surgeon. Times are collected on the model thread while the patient goes
+ * through the flowchart; at the sink the completed record is put into a bounded single-producer ring
+ * of primitive columns and a daemon thread writes the records in batches, so the model only pays for
+ * a few array writes per patient. When the ring is full the model thread waits for the writer rather
+ * than drop records; the number of patients that had to wait and the total time waited are reported
+ * at the end.
+ *
+ * Output is gzip-compressed CSV or a deflated columnar binary format (one block per batch: row count,
+ * then each column, integers as varints, see {@link ModelCheckpoint.Output}). A partial batch is written
+ * when no batch was written for 200 ms. Files are rotated once their compressed size exceeds the given
+ * size: "trace.csv.gz" gives "trace-000.csv.gz", "trace-001.csv.gz", ... {@link #read} gives the
+ * records of a part back, in order; ParserBenchmarks writes 2M patients in both formats and checks
+ * them against the read-back.
+ *
+ * One writer serves one Main (one model thread); parallel replications or province shards each open
+ * their own file.
+ *
+ * Wiring: arrival onAtExit {@code trajectories.arrived(agent)}, seize onExit
+ * {@code trajectories.seized(agent, room, surgeon)}, delay onEnter {@code trajectories.delayStarted(agent)}
+ * and onExit {@code trajectories.delayEnded(agent)}, release onEnter {@code trajectories.released(agent)},
+ * sink onEnter {@code trajectories.exited(agent)}, each when {@code trajectories != null}, that is when
+ * the Main parameter trajectoryFile is set; {@code trajectories.close()} at model destroy.
+ */
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Consumer;
+import java.util.function.DoubleSupplier;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+import java.util.zip.InflaterInputStream;
+
+public class TrajectoryWriter implements Closeable
+{
+    public enum Format
+    {
+        CSV_GZIP(".csv.gz"),
+        COLUMNAR(".bin");
+
+        public final String extension;
+
+        Format(String extension)
+        {
+            this.extension = extension;
+        }
+
+        /**
+         * @return the format given by the extension of a file name, gzip-compressed CSV unless ".bin"
+         */
+        public static Format of(String fileName)
+        {
+            return fileName.endsWith(COLUMNAR.extension) ? COLUMNAR : CSV_GZIP;
+        }
+    }
+
+    /**
+     * One patient read back from a trace file.
+     */
+    public static final class Record
+    {
+        public final String patientId;
+        /** Arrival, seize, delay start, delay end and release times, NaN if not reached */
+        public final double[] times;
+        public final int room;
+        public final int surgeon;
+
+        Record(String patientId, double[] times, int room, int surgeon)
+        {
+            this.patientId = patientId;
+            this.times = times;
+            this.room = room;
+            this.surgeon = surgeon;
+        }
+
+        @Override
+        public String toString()
+        {
+            return "TrajectoryWriter.Record[" + patientId + ", " + Arrays.toString(times) + ", room " + room + ", surgeon " + surgeon + "]";
+        }
+    }
+
+    /** Magic number starting each columnar file */
+    private static final int COLUMNAR_MAGIC = 0x454E4454;
+    private static final int BATCH_SIZE = 4096;
+    private static final long IDLE_NANOS = 200_000_000L;
+
+    private final DoubleSupplier clock;
+    private final File directory;
+    private final String baseName;
+    private final Format format;
+    private final long maxFileBytes;
+    private final Map<Patient, double[]> inFlight = new IdentityHashMap<>();
+
+    // ring of completed records, written by the model thread from tail, read by the writer thread from head
+    private final int mask;
+    /** Records per batch, at most the ring size so that a full ring is always written */
+    private final int batchSize;
+    private final String[] ids;
+    /** Arrival, seize, delay start, delay end and release times, TIMES per record */
+    private final double[] times;
+    private final int[] rooms;
+    private final int[] surgeons;
+    private final AtomicLong head = new AtomicLong();
+    private final AtomicLong tail = new AtomicLong();
+
+    private static final int TIMES = 5;
+    private static final int ARRIVAL = 0, SEIZE = 1, DELAY_START = 2, DELAY_END = 3, RELEASE = 4;
+    private static final int ROOM = TIMES, SURGEON = TIMES + 1;
+
+    private final Thread writer;
+    private volatile boolean closed;
+    private volatile IOException failure;
+    private long stalls;
+    private long stallNanos;
+    private long written;
+    private long lastWriteNanos = System.nanoTime();
+    private int fileIndex;
+    private final List<File> files = new ArrayList<>();
+    private CountingStream fileBytes;
+    private OutputStream out;
+
+    /**
+     * Start the writer thread.
+     * @param main The model root, giving the model time
+     * @param file The trace file, e.g. "trace.csv.gz"; parts are numbered next to it
+     * @param format The output format
+     * @param capacity Records held by the ring, rounded up to a power of two
+     * @param maxFileBytes Size after which the next part is started
+     */
+    public TrajectoryWriter(Main main, File file, Format format, int capacity, long maxFileBytes)
+    {
+        this(main::time, file, format, capacity, maxFileBytes);
+    }
+
+    /**
+     * Start the writer thread, with times taken from the given clock instead of a Main.
+     */
+    TrajectoryWriter(DoubleSupplier clock, File file, Format format, int capacity, long maxFileBytes)
+    {
+        if (capacity < 1 || maxFileBytes < 1)
+            throw new IllegalArgumentException("Invalid capacity " + capacity + " or file size " + maxFileBytes);
+        this.clock = clock;
+        File absolute = file.getAbsoluteFile();
+        this.directory = absolute.getParentFile();
+        String name = absolute.getName();
+        this.baseName = name.endsWith(format.extension) ? name.substring(0, name.length() - format.extension.length()) : name;
+        this.format = format;
+        this.maxFileBytes = maxFileBytes;
+        int size = Integer.highestOneBit(Math.max(1, capacity - 1)) << 1;
+        mask = size - 1;
+        batchSize = Math.min(BATCH_SIZE, size);
+        ids = new String[size];
+        times = new double[size * TIMES];
+        rooms = new int[size];
+        surgeons = new int[size];
+        writer = new Thread(this::drain, "trajectory-writer");
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    /**
+     * The patient left the arrival source.
+     */
+    public void arrived(Patient patient)
+    {
+        double[] t = new double[SURGEON + 1];
+        Arrays.fill(t, 0, TIMES, Double.NaN);
+        t[ROOM] = -1;
+        t[SURGEON] = -1;
+        t[ARRIVAL] = clock.getAsDouble();
+        inFlight.put(patient, t);
+    }
+
+    /**
+     * The patient seized its operating room and surgeon.
+     * @param room Population index of the operating room, or -1
+     * @param surgeon Population index of the surgeon, or -1
+     */
+    public void seized(Patient patient, int room, int surgeon)
+    {
+        double[] t = inFlight.get(patient);
+        if (t == null)
+            return;
+        t[SEIZE] = clock.getAsDouble();
+        t[ROOM] = room;
+        t[SURGEON] = surgeon;
+    }
+
+    public void delayStarted(Patient patient)
+    {
+        mark(patient, DELAY_START);
+    }
+
+    public void delayEnded(Patient patient)
+    {
+        mark(patient, DELAY_END);
+    }
+
+    public void released(Patient patient)
+    {
+        mark(patient, RELEASE);
+    }
+
+    private void mark(Patient patient, int field)
+    {
+        double[] t = inFlight.get(patient);
+        if (t != null)
+            t[field] = clock.getAsDouble();
+    }
+
+    /**
+     * The patient reached the sink: hand its record to the writer thread.
+     */
+    public void exited(Patient patient)
+    {
+        double[] t = inFlight.remove(patient);
+        if (t == null || failure != null || closed)
+            return;
+        long slot = tail.get();
+        if (slot - head.get() > mask)
+        {
+            stalls++;
+            long start = System.nanoTime();
+            do
+            {
+                LockSupport.unpark(writer);
+                LockSupport.parkNanos(50_000);
+            }
+            while (slot - head.get() > mask && failure == null);
+            stallNanos += System.nanoTime() - start;
+            if (failure != null)
+                return;
+        }
+        int i = (int) slot & mask;
+        ids[i] = patient.id;
+        System.arraycopy(t, 0, times, i * TIMES, TIMES);
+        rooms[i] = (int) t[ROOM];
+        surgeons[i] = (int) t[SURGEON];
+        tail.lazySet(slot + 1);
+        if (slot + 1 - head.get() >= batchSize)
+            LockSupport.unpark(writer);
+    }
+
+    /**
+     * @return number of patients in the flowchart whose record is not complete
+     */
+    public int inFlightCount()
+    {
+        return inFlight.size();
+    }
+
+    private void drain()
+    {
+        try
+        {
+            while (true)
+            {
+                boolean last = closed;
+                long from = head.get();
+                long to = tail.get();
+                if (to - from >= batchSize || (to > from && (last || System.nanoTime() - lastWriteNanos >= IDLE_NANOS)))
+                {
+                    writeBatch(from, Math.min(to, from + batchSize));
+                    continue;
+                }
+                if (last && to == from)
+                    break;
+                LockSupport.parkNanos(this, IDLE_NANOS);
+            }
+            closeFile();
+        }
+        catch (IOException e)
+        {
+            failure = e;
+        }
+    }
+
+    private void writeBatch(long from, long to) throws IOException
+    {
+        if (out == null)
+            openFile();
+        int count = (int) (to - from);
+        if (format == Format.CSV_GZIP)
+            writeCsv(from, to);
+        else
+            writeColumnar(from, count);
+        for (long slot = from; slot < to; slot++)
+            ids[(int) slot & mask] = null;
+        head.lazySet(to);
+        written += count;
+        lastWriteNanos = System.nanoTime();
+        if (fileBytes.count >= maxFileBytes)
+            closeFile();
+    }
+
+    private void writeCsv(long from, long to) throws IOException
+    {
+        StringBuilder sb = new StringBuilder((int) (to - from) * 96);
+        for (long slot = from; slot < to; slot++)
+        {
+            int i = (int) slot & mask;
+            sb.append(ids[i]);
+            for (int f = 0; f < TIMES; f++)
+            {
+                double value = times[i * TIMES + f];
+                sb.append(',');
+                if (!Double.isNaN(value))
+                    sb.append(value);
+            }
+            sb.append(',').append(rooms[i]).append(',').append(surgeons[i]).append('\n');
+        }
+        out.write(sb.toString().getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * One block: row count, ids, then each time column as doubles, then rooms and surgeons as zigzag varints.
+     */
+    private void writeColumnar(long from, int count) throws IOException
+    {
+        ModelCheckpoint.Output block = new ModelCheckpoint.Output(out);
+        block.writeInt(count);
+        for (int r = 0; r < count; r++)
+            block.writeString(ids[(int) (from + r) & mask]);
+        for (int f = 0; f < TIMES; f++)
+        {
+            for (int r = 0; r < count; r++)
+                block.writeDouble(times[((int) (from + r) & mask) * TIMES + f]);
+        }
+        for (int r = 0; r < count; r++)
+            block.writeSignedInt(rooms[(int) (from + r) & mask]);
+        for (int r = 0; r < count; r++)
+            block.writeSignedInt(surgeons[(int) (from + r) & mask]);
+    }
+
+    private void openFile() throws IOException
+    {
+        File file = new File(directory, String.format("%s-%03d%s", baseName, fileIndex++, format.extension));
+        files.add(file);
+        fileBytes = new CountingStream(new FileOutputStream(file));
+        if (format == Format.CSV_GZIP)
+        {
+            out = new BufferedOutputStream(new GZIPOutputStream(fileBytes, 1 << 16), 1 << 16);
+            out.write("patient_id,arrival,seize,delay_start,delay_end,release,room,surgeon\n".getBytes(StandardCharsets.US_ASCII));
+        }
+        else
+        {
+            DataOutputStream magic = new DataOutputStream(fileBytes);
+            magic.writeInt(COLUMNAR_MAGIC);
+            out = new BufferedOutputStream(new DeflaterOutputStream(fileBytes, new Deflater(Deflater.BEST_SPEED), 1 << 16), 1 << 16);
+        }
+    }
+
+    private void closeFile() throws IOException
+    {
+        if (out == null)
+            return;
+        out.close();
+        out = null;
+    }
+
+    /**
+     * Write the remaining records, close the last file and stop the writer thread.
+     * @throws IOException if writing failed, records from then on were lost
+     */
+    @Override
+    public void close() throws IOException
+    {
+        if (closed)
+            return;
+        closed = true;
+        LockSupport.unpark(writer);
+        try
+        {
+            writer.join();
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+        }
+        if (failure != null)
+            throw failure;
+        Utils.printUpdate("Wrote " + written + " trajectories to " + fileIndex + " " + baseName + " files"
+            + (stalls > 0 ? ", " + stalls + " patients waited " + String.format(Locale.ROOT, "%.1f", stallNanos / 1e6) + " ms in total for the writer" : ""));
+    }
+
+    /**
+     * @return the parts written, in order; complete once {@link #close} returned
+     */
+    public List<File> files()
+    {
+        return Collections.unmodifiableList(files);
+    }
+
+    /**
+     * Read back a part written by a TrajectoryWriter.
+     * @param file The part, e.g. "trace-000.csv.gz"
+     * @param format The format it was written in
+     * @param action Called with each record, in the order written
+     * @return number of records read
+     * @throws IOException on file error or invalid content
+     */
+    public static long read(File file, Format format, Consumer<Record> action) throws IOException
+    {
+        long count = 0;
+        if (format == Format.CSV_GZIP)
+        {
+            try (BufferedReader reader = new BufferedReader(new InputStreamReader(new GZIPInputStream(new FileInputStream(file), 1 << 16), StandardCharsets.UTF_8), 1 << 16))
+            {
+                String line = reader.readLine();
+                if (line == null || !line.startsWith("patient_id,"))
+                    throw new FileFormatException("Missing trajectory header in " + file.getName());
+                while ((line = reader.readLine()) != null)
+                {
+                    String[] values = line.split(",", -1);
+                    if (values.length != SURGEON + 2)
+                        throw new FileFormatException("Invalid trajectory in " + file.getName() + " line " + (count + 2) + ": " + line);
+                    double[] t = new double[TIMES];
+                    for (int f = 0; f < TIMES; f++)
+                        t[f] = values[f + 1].isEmpty() ? Double.NaN : Double.parseDouble(values[f + 1]);
+                    action.accept(new Record(values[0], t, Integer.parseInt(values[ROOM + 1]), Integer.parseInt(values[SURGEON + 1])));
+                    count++;
+                }
+            }
+            return count;
+        }
+        try (InputStream in = new BufferedInputStream(new FileInputStream(file), 1 << 16))
+        {
+            if (new DataInputStream(in).readInt() != COLUMNAR_MAGIC)
+                throw new FileFormatException("Not a columnar trajectory file: " + file.getName());
+            PushbackInputStream blocks = new PushbackInputStream(new BufferedInputStream(new InflaterInputStream(in), 1 << 16));
+            ModelCheckpoint.Input block = new ModelCheckpoint.Input(blocks);
+            int next;
+            while ((next = blocks.read()) >= 0)
+            {
+                blocks.unread(next);
+                int rows = block.readInt();
+                String[] ids = new String[rows];
+                for (int r = 0; r < rows; r++)
+                    ids[r] = block.readString();
+                double[][] t = new double[rows][TIMES];
+                for (int f = 0; f < TIMES; f++)
+                {
+                    for (int r = 0; r < rows; r++)
+                        t[r][f] = block.readDouble();
+                }
+                int[] roomColumn = new int[rows];
+                for (int r = 0; r < rows; r++)
+                    roomColumn[r] = block.readSignedInt();
+                for (int r = 0; r < rows; r++)
+                    action.accept(new Record(ids[r], t[r], roomColumn[r], block.readSignedInt()));
+                count += rows;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Counts the bytes reaching the file, after compression, for the rotation.
+     */
+    private static final class CountingStream extends FilterOutputStream
+    {
+        long count;
+
+        CountingStream(OutputStream out)
+        {
+            super(out);
+        }
+
+        @Override
+        public void write(int b) throws IOException
+        {
+            out.write(b);
+            count++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException
+        {
+            out.write(b, off, len);
+            count += len;
+        }
+    }
+
+	@Override
+	public String toString() {
+		return "TrajectoryWriter[" + format + ", " + written + " written, " + inFlight.size() + " in flowchart]";
+	}
+
+}
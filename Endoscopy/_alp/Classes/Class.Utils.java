@@ -1,12 +1,186 @@
 /**
  * Utils
+ *
+ * The print methods log to the Main of the calling thread. Utils.setMain, called from Main On startup,
+ * registers the Main and binds it to the model thread and to the threads that thread starts later.
+ * Several Mains may run in one JVM (parallel replications, province shards), each with its own
+ * log and flags; a thread running code of a Main on a shared pool binds itself with {@link #bind},
+ * or runs the task through {@link #inContext}. A thread bound to no Main logs to the only registered
+ * Main, and drops its messages when several are registered.
  */	
 import java.text.SimpleDateFormat;
-import java.text.ParseException;
+import java.util.concurrent.Callable;
+import java.util.function.Supplier;
 
 public class Utils
 {
-	private static Main main;
+	/** Registered Mains by identity */
+	private static final Map<Main, LogContext> contexts = new IdentityHashMap<>();
+	/** Main of the calling thread, inherited by the threads it starts */
+	private static final InheritableThreadLocal<LogContext> bound = new InheritableThreadLocal<>();
+	/** The registered context while there is exactly one, for unbound threads */
+	private static volatile LogContext single;
+
+    /**
+     * Logging state of one Main.
+     */
+    private static final class LogContext
+    {
+        final Main main;
+        volatile LogPipeline log;
+        volatile FlowchartProfiler profiler;
+
+        LogContext(Main main)
+        {
+            this.main = main;
+        }
+    }
+
+    /**
+     * Register the model root used by the print methods on this thread, and start logging to the console.
+     * Call from Main On startup; messages are ignored before.
+     * @param root The Main agent, or null to stop logging of the current Main
+     */
+    public static void setMain(Main root)
+    {
+        closeLog();
+        if (root == null)
+            return;
+        LogContext context = new LogContext(root);
+        try
+        {
+            context.log = new LogPipeline(root, null);
+        }
+        catch (IOException e)
+        {
+            throw new UncheckedIOException(e);
+        }
+        synchronized (contexts)
+        {
+            LogContext previous = contexts.put(root, context);
+            if (previous != null && previous.log != null)
+                previous.log.close();
+            single = contexts.size() == 1 ? context : null;
+        }
+        bound.set(context);
+    }
+
+    /**
+     * Bind the calling thread to the log of a registered Main, e.g. at the start of a shard or
+     * replication step run on a pool thread.
+     * @param root A Main registered with {@link #setMain}, or null to unbind the thread
+     */
+    public static void bind(Main root)
+    {
+        if (root == null)
+        {
+            bound.remove();
+            return;
+        }
+        LogContext context;
+        synchronized (contexts)
+        {
+            context = contexts.get(root);
+        }
+        if (context == null)
+            throw new IllegalStateException("Utils.setMain was not called for " + root);
+        bound.set(context);
+    }
+
+    /**
+     * Wrap a task so that it logs to the Main of the calling thread wherever it runs (e.g. on the common pool).
+     * @param task The task
+     * @return the task bound to the current Main, restoring the binding of the executing thread afterwards
+     */
+    public static <T> Callable<T> inContext(Callable<T> task)
+    {
+        LogContext context = context();
+        return () ->
+        {
+            LogContext previous = bound.get();
+            bound.set(context);
+            try
+            {
+                return task.call();
+            }
+            finally
+            {
+                if (previous == null)
+                    bound.remove();
+                else
+                    bound.set(previous);
+            }
+        };
+    }
+
+    private static LogContext context()
+    {
+        LogContext context = bound.get();
+        return context != null ? context : single;
+    }
+
+    /**
+     * Write the printed messages of the current Main to a file instead of the console.
+     * @param file The log file, overwritten
+     * @throws IOException if the file cannot be opened
+     */
+    public static void setLogFile(File file) throws IOException
+    {
+        LogContext context = context();
+        if (context == null)
+            throw new IllegalStateException("Utils.setMain must be called first");
+        LogPipeline fileLog = new LogPipeline(context.main, file);
+        fileLog.setProfiler(context.profiler);
+        LogPipeline previous = context.log;
+        context.log = fileLog;
+        if (previous != null)
+            previous.close();
+    }
+
+    /**
+     * Time the print methods of the current Main with the profiler ({@link FlowchartProfiler.Probe#LOG}).
+     * @param p The profiler, or null to stop timing
+     */
+    public static void setProfiler(FlowchartProfiler p)
+    {
+        LogContext context = context();
+        if (context == null)
+            return;
+        context.profiler = p;
+        LogPipeline current = context.log;
+        if (current != null)
+            current.setProfiler(p);
+    }
+
+    /**
+     * Write the queued messages of the current Main, stop its logging and unregister it. Call from Main On destroy.
+     */
+    public static void closeLog()
+    {
+        LogContext context = bound.get();
+        if (context == null)
+            return;
+        bound.remove();
+        synchronized (contexts)
+        {
+            if (contexts.get(context.main) == context)
+                contexts.remove(context.main);
+            single = contexts.size() == 1 ? contexts.values().iterator().next() : null;
+        }
+        LogPipeline current = context.log;
+        context.log = null;
+        if (current != null)
+            current.close();
+    }
+
+    /**
+     * @return true if debug messages are printed, to guard costly debug code
+     */
+    public static boolean isDebugEnabled()
+    {
+        LogContext context = context();
+        return context != null && context.log != null && context.main.isPrintingDebugs;
+    }
     
     /**
      * Returns a new SimpleDateFormat for formatting dates without 'T' and 'Z'.
@@ -30,35 +204,63 @@ public class Utils
 
     /**
      * Formats a Date object as a string without 'T' and 'Z'.
-     * Uses a new SimpleDateFormat instance for thread safety.
+     * Thread-safe, no formatter instance is created (see {@link DateTimeCodec}).
      * @param date The Date to format
      * @return Formatted date string ("yyyy-MM-dd H:mm:ss")
      */
     public static String formatDateWithoutTAndZ(Date date) 
     {
-        return getDateFormatWithoutTAndZ().format(date);
+        return DateTimeCodec.format(date.getTime(), false);
     }
 
     /**
      * Formats a Date object as a string with 'T' and 'Z'.
-     * Uses a new SimpleDateFormat instance for thread safety.
+     * Thread-safe, no formatter instance is created (see {@link DateTimeCodec}).
      * @param date The Date to format
      * @return Formatted date string ("yyyy-MM-dd'T'H:mm:ss'Z'")
      */
     public static String formatDateWithTAndZ(Date date) 
     {
-        return getDateFormatWithTAndZ().format(date);
+        return DateTimeCodec.format(date.getTime(), true);
     }
     
     /**
      * Prints a warning message to the console if warnings are enabled.
      * Use this for non-fatal issues or data problems that do not stop the model,
      * but should be brought to the user's attention (e.g., skipped rows, missing optional data).
+     * Messages are queued and printed by the {@link LogPipeline} thread.
      */
     public static void printWarning(String msg)
     {
-        if (main != null && main.isPrintWarnings)
-            main.traceln(red, "WARNING (time " +String.format("%.2f", main.time())+ "): " + msg);
+        LogContext context = context();
+        LogPipeline current = context == null ? null : context.log;
+        if (current != null && context.main.isPrintWarnings)
+            current.log(LogPipeline.Level.WARNING, null, msg);
+    }
+
+    /**
+     * Prints a warning built only if warnings are enabled, at most {@link LogPipeline#DEFAULT_KEY_LIMIT}
+     * times per key until {@link #flushSuppressed}.
+     * @param key The rate limit key (e.g. the file name for its row warnings)
+     * @param msg Builds the message
+     */
+    public static void printWarning(String key, Supplier<String> msg)
+    {
+        LogContext context = context();
+        LogPipeline current = context == null ? null : context.log;
+        if (current != null && context.main.isPrintWarnings)
+            current.log(LogPipeline.Level.WARNING, key, msg);
+    }
+
+    /**
+     * Report the messages of the key suppressed by the rate limit, and reset it.
+     */
+    public static void flushSuppressed(String key)
+    {
+        LogContext context = context();
+        LogPipeline current = context == null ? null : context.log;
+        if (current != null)
+            current.flushSuppressed(key);
     }
 
     /**
@@ -68,8 +270,34 @@ public class Utils
      */
     public static void printDebug(String msg)
     {
-        if (main != null && main.isPrintingDebugs)
-            main.traceln(orange, "DEBUG (time " + String.format("%.2f", main.time()) + "): " + msg);
+        LogContext context = context();
+        LogPipeline current = context == null ? null : context.log;
+        if (current != null && context.main.isPrintingDebugs)
+            current.log(LogPipeline.Level.DEBUG, null, msg);
+    }
+
+    /**
+     * Prints a debug message built only if debug output is enabled.
+     */
+    public static void printDebug(Supplier<String> msg)
+    {
+        LogContext context = context();
+        LogPipeline current = context == null ? null : context.log;
+        if (current != null && context.main.isPrintingDebugs)
+            current.log(LogPipeline.Level.DEBUG, null, msg);
+    }
+
+    /**
+     * Prints a debug message formatted with {@link String#format} only if debug output is enabled.
+     * The arguments are boxed into their array on every call, debug output or not: code run per
+     * row, patient or event uses {@link #printDebug(Supplier)} instead.
+     */
+    public static void printDebug(String format, Object... args)
+    {
+        LogContext context = context();
+        LogPipeline current = context == null ? null : context.log;
+        if (current != null && context.main.isPrintingDebugs)
+            current.log(LogPipeline.Level.DEBUG, null, String.format(format, args));
     }
 
     /**
@@ -79,8 +307,10 @@ public class Utils
      */
     public static void printUpdate(String msg)
     {
-        if (main != null && main.isPrintingUpdates)
-            main.traceln(green, "UPDATE (time " + String.format("%.2f", main.time()) + "): " + msg);
+        LogContext context = context();
+        LogPipeline current = context == null ? null : context.log;
+        if (current != null && context.main.isPrintingUpdates)
+            current.log(LogPipeline.Level.UPDATE, null, msg);
     }
     
     /**
@@ -98,26 +328,35 @@ public class Utils
     /**
      * Converts date string to date in without TZ format.
      * Removes quotes if exist before parsing.
+     * Accepts "yyyy-MM-dd", "yyyy-MM-dd H:mm:ss" and "yyyy-MM-dd'T'H:mm:ss'Z'" (see {@link DateTimeCodec}).
      * @param dateString
-     * @return date without TZ
+     * @return date without TZ, or null if the string is empty
+     * @throws DataValidationException if the string cannot be parsed as a date
      */
     public static Date dateFromString(String dateString) 
+    {
+        long millis = millisFromString(dateString);
+        return millis == DateTimeCodec.NO_DATE ? null : new Date(millis);
+    }
+
+    /**
+     * Converts date string to epoch milliseconds, same rules as {@link #dateFromString} without creating a Date.
+     * @param dateString
+     * @return epoch milliseconds, or DateTimeCodec.NO_DATE if the string is empty
+     * @throws DataValidationException if the string cannot be parsed as a date
+     */
+    public static long millisFromString(String dateString) 
     {
         dateString = removeQuotes(dateString);
-        if (dateString == null || dateString.isEmpty()) return null;
-        String removedTZ = dateString.replace("T", " ").replace("Z", "").replace("'", "");
+        if (dateString == null || dateString.isEmpty()) return DateTimeCodec.NO_DATE;
         try 
         {
-        	// SimpleDateFormat is not thread-safe, use local instance for safety.
-            SimpleDateFormat sdf = new SimpleDateFormat("yyyy-MM-dd H:mm:ss");
-            if (dateString.length() == 10) 
-                return sdf.parse(removedTZ + " 00:00:00");
-            return sdf.parse(removedTZ);
+            return DateTimeCodec.parseMillis(dateString);
         } 
-        catch (ParseException pe) 
+        catch (DataValidationException e) 
         {
-            printDebug("Exception converting string date '" + dateString + "' to date");
-            throw new DataValidationException("Failed to parse date string: '" + dateString + "' - " + pe.getMessage());
+            printDebug("Exception converting string date '%s' to date", dateString);
+            throw e;
         }
     }
     
@@ -141,8 +380,8 @@ public class Utils
         }
         catch (NumberFormatException e)
         {
-            printDebug("Exception parse int string " +intString);
-            throw new DataValidationException(e.toString());
+            printDebug("Exception parse int string %s", intString);
+            throw new DataValidationException("Invalid integer", null, intString);
         }
     }
     
@@ -166,8 +405,8 @@ public class Utils
         }
         catch (NumberFormatException e)
         {
-            printDebug("Exception parse double string " +doubleString);
-            throw new DataValidationException(e.toString());
+            printDebug("Exception parse double string %s", doubleString);
+            throw new DataValidationException("Invalid number", null, doubleString);
         }
     }
     